@@ -0,0 +1,74 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of decoding the {@link Fixtures} rows from a {@code COPY ... TO
+ * STDOUT} stream into fault records; each operation is one fault row. Only
+ * client side decoding is measured; the transfer savings of COPY over the row
+ * protocol need a database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+
+  /* Must match the number of fixture rows */
+  private static final int ROWS = 400;
+
+  /* A PostgreSQL.CopyFormat; the enum is not public, so JMH cannot set it */
+  @Param({ "BINARY", "CSV" })
+  String formatName;
+
+  private PostgreSQL.CopyFormat format;
+  private byte[] stream;
+  private ResultSetMetaData metadata;
+
+  @Setup
+  public void setup() throws IOException {
+    Fixtures fixtures = Fixtures.load();
+    if (fixtures.size() != ROWS) {
+      throw new IllegalStateException("Expected " + ROWS + " fixture rows");
+    }
+
+    format = PostgreSQL.CopyFormat.valueOf(formatName);
+    stream = fixtures.copy(format);
+    metadata = fixtures.metadata(true);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void copyReader(Blackhole blackhole) throws SQLException {
+    FaultRecord.Reader reader = FaultRecord.copyReader(
+        new ByteArrayInputStream(stream),
+        metadata,
+        format);
+    FaultRecord record;
+
+    while ((record = reader.next()) != null) {
+      blackhole.consume(record);
+    }
+  }
+
+}
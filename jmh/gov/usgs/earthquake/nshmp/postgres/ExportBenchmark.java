@@ -0,0 +1,93 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Benchmarks of the {@link FaultExporter} row conversion hot path over the
+ * {@link Fixtures} rows; each operation is one fault row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+
+  /* Must match the number of fixture rows */
+  private static final int ROWS = 400;
+
+  @Param({ "true", "false" })
+  boolean binaryTraces;
+
+  private Fixtures fixtures;
+  private FaultExporter exporter;
+  private List<String> names;
+  private List<String> traces;
+
+  @Setup
+  public void setup() throws IOException {
+    fixtures = Fixtures.load();
+    if (fixtures.size() != ROWS) {
+      throw new IllegalStateException("Expected " + ROWS + " fixture rows");
+    }
+
+    exporter = new FaultExporter2014(Fixtures.postgres())
+        .binaryTraces(binaryTraces);
+    exporter.enrichment.load();
+
+    names = fixtures.column(Util.Keys.NAME);
+    traces = fixtures.column(Util.Keys.FAULT_TRACE);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void wktToLocationList(Blackhole blackhole) throws ParseException {
+    for (String trace : traces) {
+      blackhole.consume(FaultExporter.wktToLocationList(trace));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void cleanName(Blackhole blackhole) {
+    for (String name : names) {
+      blackhole.consume(FaultExporter.cleanName(name));
+    }
+  }
+
+  /* Decode the rows of a result set and convert them to features */
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void resultToFeature(Blackhole blackhole) throws SQLException, ParseException {
+    ResultSet result = fixtures.resultSet(binaryTraces);
+    FaultRecord.Reader reader = FaultRecord.reader(result);
+    FaultRecord record;
+    exporter.resolve(reader.columns());
+
+    while ((record = reader.next()) != null) {
+      blackhole.consume(exporter.resultToFeature(record));
+    }
+  }
+
+}
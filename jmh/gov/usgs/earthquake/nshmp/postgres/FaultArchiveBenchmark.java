@@ -0,0 +1,74 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of loading the {@link Fixtures} faults from GeoJSON and from a
+ * {@link FaultArchive} written from them; each operation is one file. The
+ * size of the slip rate table and the {@link FaultSet#interning() interning}
+ * counts of the loaded fault set are printed on tear down, next to the
+ * allocation rate of the gc profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FaultArchiveBenchmark {
+
+  private Path json;
+  private Path archive;
+  private FaultSet loaded;
+
+  @Setup
+  public void setup() throws IOException {
+    json = Fixtures.geoJson();
+    archive = Files.createTempFile(Fixtures.TABLE, ".archive");
+    FaultArchive.write(FaultSet.UncheckedBuilder.fromGeoJsonStream("Benchmark", 1, json), archive);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    if (loaded != null) {
+      SlipRateTable slipRates = loaded.slipRates();
+      System.out.printf("Loaded %d faults, %d slip rate rows, %.1f kB slip rate table%n",
+          loaded.sources().size(), slipRates.size(), slipRates.sizeInBytes() / 1e3);
+      System.out.println(loaded.interning());
+    }
+
+    Files.deleteIfExists(archive);
+    Files.deleteIfExists(json);
+  }
+
+  @Benchmark
+  public FaultSet fromGeoJson() {
+    return loaded = FaultSet.UncheckedBuilder.fromGeoJson("Benchmark", 1, json);
+  }
+
+  @Benchmark
+  public FaultSet fromGeoJsonStream() throws IOException {
+    return loaded = FaultSet.UncheckedBuilder.fromGeoJsonStream("Benchmark", 1, json);
+  }
+
+  @Benchmark
+  public FaultSet fromArchive() throws IOException {
+    return loaded = FaultArchive.read(archive);
+  }
+
+}
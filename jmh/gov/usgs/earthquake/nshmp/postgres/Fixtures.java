@@ -0,0 +1,329 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Resources;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Checked-in benchmark inputs, so that benchmarks run offline.
+ *
+ * <ul>
+ *   <li> {@code hazfaults_2014.tsv}: synthetic rows of the
+ *       {@code hazfaults_2014} table, with WKT fault traces; read as a
+ *       {@code ResultSet} with {@link #resultSet(boolean)}, or as a
+ *       {@code COPY} stream with {@link #copy(PostgreSQL.CopyFormat)} </li>
+ *   <li> {@code hazfaults_2014.geojson}: the same faults as exported
+ *       GeoJSON; see {@link #geoJson()} </li>
+ * </ul>
+ */
+class Fixtures {
+
+  static final String TABLE = "hazfaults_2014";
+
+  private static final ImmutableSet<String> NUMBER_COLUMNS = ImmutableSet.of(
+      Util.Keys.ID,
+      Util.Keys.UPPER_DEPTH,
+      Util.Keys.DIP,
+      Util.Keys.PROBABILITY_OF_ACTIVITY,
+      Util.Keys.GEO_RAKE,
+      Util.Keys.BIRD_RATE,
+      Util.Keys.GEO_RATE,
+      Util.Keys.ZENG_RATE);
+
+  private final List<String> labels;
+  private final List<List<String>> rows;
+  private final List<Object[]> wkbValues;
+  private final List<Object[]> wktValues;
+
+  private Fixtures() throws IOException {
+    List<String> lines = Resources.readLines(resource(TABLE + ".tsv"), UTF_8);
+    Splitter tab = Splitter.on('\t');
+    List<List<String>> rows = new ArrayList<>();
+    List<String> labels = null;
+
+    for (String line : lines) {
+      if (line.startsWith("#") || line.isEmpty()) continue;
+
+      if (labels == null) {
+        labels = tab.splitToList(line);
+      } else {
+        rows.add(tab.splitToList(line));
+      }
+    }
+
+    this.labels = ImmutableList.copyOf(labels);
+    this.rows = ImmutableList.copyOf(rows);
+    wkbValues = values(true);
+    wktValues = values(false);
+  }
+
+  /* Typed row values, decoded once so result sets are cheap to create */
+  private List<Object[]> values(boolean binaryTraces) {
+    int traceIndex = labels.indexOf(Util.Keys.FAULT_TRACE);
+    List<Object[]> values = new ArrayList<>(rows.size());
+
+    WKTReader wkt = new WKTReader();
+    WKBWriter wkb = new WKBWriter();
+
+    for (List<String> row : rows) {
+      Object[] rowValues = new Object[row.size()];
+
+      for (int index = 0; index < row.size(); index++) {
+        String value = row.get(index);
+
+        if (value.isEmpty()) {
+          rowValues[index] = null;
+        } else if (index == traceIndex && binaryTraces) {
+          rowValues[index] = wkb.write(read(wkt, value));
+        } else if (NUMBER_COLUMNS.contains(labels.get(index))) {
+          rowValues[index] = Double.valueOf(value);
+        } else {
+          rowValues[index] = value;
+        }
+      }
+
+      values.add(rowValues);
+    }
+
+    return values;
+  }
+
+  /** Load the fixtures */
+  static Fixtures load() throws IOException {
+    return new Fixtures();
+  }
+
+  /** The number of fixture rows */
+  int size() {
+    return rows.size();
+  }
+
+  /** The values of a fixture column, {@code null} for SQL NULL */
+  List<String> column(String label) {
+    int index = labels.indexOf(label);
+    List<String> values = new ArrayList<>(rows.size());
+
+    for (List<String> row : rows) {
+      values.add(row.get(index).isEmpty() ? null : row.get(index));
+    }
+
+    return values;
+  }
+
+  /** A database that is never connected */
+  static PostgreSQL postgres() {
+    return PostgreSQL.builder()
+        .database("fixtures")
+        .password("")
+        .table(TABLE)
+        .url("jdbc:postgresql://localhost/fixtures")
+        .username("fixtures")
+        .build();
+  }
+
+  /**
+   * Copy the GeoJSON fixture to a temporary file, deleted on exit.
+   */
+  static Path geoJson() throws IOException {
+    Path file = Files.createTempFile(TABLE, ".geojson");
+    file.toFile().deleteOnExit();
+
+    try (InputStream in = resource(TABLE + ".geojson").openStream()) {
+      Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    return file;
+  }
+
+  /**
+   * A forward only {@code ResultSet} over the fixture rows. Fault traces are
+   * WKB, as selected by {@code ST_AsBinary}, or WKT.
+   *
+   * @param binaryTraces Whether fault traces are WKB
+   */
+  ResultSet resultSet(boolean binaryTraces) {
+    List<Object[]> values = binaryTraces ? wkbValues : wktValues;
+    ResultSetMetaData metadata = metadata(binaryTraces);
+    int[] row = { -1 };
+    boolean[] wasNull = { false };
+
+    return proxy(ResultSet.class, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "next":
+          return ++row[0] < values.size();
+        case "getMetaData":
+          return metadata;
+        case "wasNull":
+          return wasNull[0];
+        case "getDouble": {
+          Object value = values.get(row[0])[(Integer) args[0] - 1];
+          wasNull[0] = value == null;
+          return value == null ? 0.0 : value;
+        }
+        case "getString":
+        case "getBytes": {
+          Object value = values.get(row[0])[(Integer) args[0] - 1];
+          wasNull[0] = value == null;
+          return value;
+        }
+        case "close":
+          return null;
+        default:
+          throw new UnsupportedOperationException(method.getName());
+      }
+    });
+  }
+
+  /**
+   * The metadata of the fixture query: numbers are {@code float8}, text
+   * {@code text} and WKB traces {@code bytea}.
+   *
+   * @param binaryTraces Whether fault traces are WKB
+   */
+  ResultSetMetaData metadata(boolean binaryTraces) {
+    int traceIndex = labels.indexOf(Util.Keys.FAULT_TRACE);
+    int[] types = new int[labels.size()];
+    String[] typeNames = new String[labels.size()];
+
+    for (int index = 0; index < types.length; index++) {
+      if (NUMBER_COLUMNS.contains(labels.get(index))) {
+        types[index] = Types.DOUBLE;
+        typeNames[index] = "float8";
+      } else if (index == traceIndex && binaryTraces) {
+        types[index] = Types.BINARY;
+        typeNames[index] = "bytea";
+      } else {
+        types[index] = Types.VARCHAR;
+        typeNames[index] = "text";
+      }
+    }
+
+    return proxy(ResultSetMetaData.class, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "getColumnCount":
+          return labels.size();
+        case "getColumnLabel":
+        case "getColumnName":
+          return labels.get((Integer) args[0] - 1);
+        case "getColumnType":
+          return types[(Integer) args[0] - 1];
+        case "getColumnTypeName":
+          return typeNames[(Integer) args[0] - 1];
+        default:
+          throw new UnsupportedOperationException(method.getName());
+      }
+    });
+  }
+
+  /**
+   * The {@code COPY ... TO STDOUT} stream of the fixture rows, with WKB
+   * fault traces, as sent by PostgreSQL; decode with
+   * {@code metadata(true)}.
+   *
+   * @param format The copy format
+   */
+  byte[] copy(PostgreSQL.CopyFormat format) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    if (format == PostgreSQL.CopyFormat.CSV) {
+      StringBuilder csv = new StringBuilder();
+
+      for (Object[] row : wkbValues) {
+        for (int index = 0; index < row.length; index++) {
+          if (index > 0) csv.append(',');
+          csvValue(csv, row[index]);
+        }
+        csv.append('\n');
+      }
+
+      bytes.write(csv.toString().getBytes(UTF_8));
+      return bytes.toByteArray();
+    }
+
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(new byte[] { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0 });
+    out.writeInt(0);
+    out.writeInt(0);
+
+    for (Object[] row : wkbValues) {
+      out.writeShort(row.length);
+
+      for (Object value : row) {
+        if (value == null) {
+          out.writeInt(-1);
+        } else if (value instanceof Double) {
+          out.writeInt(8);
+          out.writeDouble((Double) value);
+        } else {
+          byte[] data = value instanceof byte[] ? (byte[]) value
+              : ((String) value).getBytes(UTF_8);
+          out.writeInt(data.length);
+          out.write(data);
+        }
+      }
+    }
+
+    out.writeShort(-1);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /* A value in PostgreSQL CSV output: NULL empty, bytea in hex */
+  private static void csvValue(StringBuilder csv, Object value) {
+    if (value == null) return;
+
+    if (value instanceof byte[]) {
+      csv.append("\\x").append(BaseEncoding.base16().lowerCase().encode((byte[]) value));
+    } else if (value instanceof Double) {
+      csv.append(value);
+    } else {
+      String text = (String) value;
+      boolean quote = text.isEmpty() || CharMatcher.anyOf(",\"\n\r").matchesAnyOf(text);
+      csv.append(quote ? '"' + text.replace("\"", "\"\"") + '"' : text);
+    }
+  }
+
+  private static Geometry read(WKTReader reader, String wkt) {
+    try {
+      return reader.read(wkt);
+    } catch (ParseException e) {
+      throw new IllegalArgumentException("Invalid fixture trace: " + wkt, e);
+    }
+  }
+
+  private static URL resource(String name) {
+    return Resources.getResource(Fixtures.class, name);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return (T) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[] { type },
+        handler);
+  }
+
+}
@@ -0,0 +1,128 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+import gov.usgs.earthquake.nshmp.geo.json.Feature;
+
+/**
+ * Benchmarks of loading faults from the {@link Fixtures} GeoJSON. Per feature
+ * benchmarks count one operation per fault; file benchmarks one per file.
+ * {@code getSlipRatesGsonTree} repeats the reflective Gson tree round-trip
+ * that {@link RateModel#fromProperty(Object)} replaced, as a baseline for
+ * {@code getSlipRates}; compare the two with
+ * {@code gradle jmh -Pbenchmarks='LoadBenchmark.getSlipRates.*'}.
+ * {@code fromFeature} reads only the features with a rake on every rate
+ * model, as the checked builder rejects the others.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+  /* Must match the number of fixture features */
+  private static final int FEATURES = 400;
+
+  /* Must match the number of fixture features with a rake on every rate model */
+  private static final int RAKED_FEATURES = 338;
+
+  private static final Gson GSON = new Gson();
+
+  private Path json;
+  private List<Feature> features;
+  private List<Feature> rakedFeatures;
+
+  @Setup
+  public void setup() throws IOException {
+    json = Fixtures.geoJson();
+    features = Util.readGeoJson(json).toFeatureCollection().features();
+
+    if (features.size() != FEATURES) {
+      throw new IllegalStateException("Expected " + FEATURES + " fixture features");
+    }
+
+    rakedFeatures = features.stream()
+        .filter(feature -> Fault.getSlipRates(feature.properties()).stream()
+            .noneMatch(rateModel -> Double.isNaN(rateModel.rake())))
+        .collect(Collectors.toList());
+
+    if (rakedFeatures.size() != RAKED_FEATURES) {
+      throw new IllegalStateException("Expected " + RAKED_FEATURES + " raked fixture features");
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FEATURES)
+  public void getSlipRates(Blackhole blackhole) {
+    for (Feature feature : features) {
+      blackhole.consume(Fault.getSlipRates(feature.properties()));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FEATURES)
+  public void getSlipRatesGsonTree(Blackhole blackhole) {
+    for (Feature feature : features) {
+      JsonElement tree = GSON.toJsonTree(feature.properties().get(Util.Keys.RATE_MODELS));
+      blackhole.consume(ImmutableList.copyOf(GSON.fromJson(tree, GsonRateModel[].class)));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RAKED_FEATURES)
+  public void fromFeature(Blackhole blackhole) {
+    for (Feature feature : rakedFeatures) {
+      blackhole.consume(Fault.Builder.fromFeature(feature));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FEATURES)
+  public void fromFeatureUnchecked(Blackhole blackhole) {
+    for (Feature feature : features) {
+      blackhole.consume(Fault.UncheckedBuilder.fromFeature(feature));
+    }
+  }
+
+  @Benchmark
+  public FaultSet fromGeoJson() {
+    return FaultSet.UncheckedBuilder.fromGeoJson("Benchmark", 1, json);
+  }
+
+  @Benchmark
+  public FaultSet fromGeoJsonStream() throws IOException {
+    return FaultSet.UncheckedBuilder.fromGeoJsonStream("Benchmark", 1, json);
+  }
+
+  /* The fields of a rate model, decoded reflectively as before RateModel.Adapter */
+  private static class GsonRateModel {
+    RateModel.SlipModel id;
+    RateType type;
+    Double rake;
+    Double value;
+  }
+
+}
@@ -0,0 +1,281 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
+import com.google.common.primitives.Doubles;
+
+import gov.usgs.earthquake.nshmp.internal.Parsing;
+import gov.usgs.earthquake.nshmp.internal.Parsing.Delimiter;
+
+/**
+ * A CSV table of per-fault attributes, keyed by {@code cfault_id}, e.g. the
+ * maximum magnitudes in {@code WUSfixedMv2.csv}.
+ *
+ * <p> The first line names the columns. Each selected column is exported as
+ * a GeoJSON property of the same name; numeric values are exported as
+ * numbers, others as strings. Other columns, e.g. a descriptive
+ * {@code name}, are ignored, as are empty lines and lines starting with
+ * {@code #}. A fault may be listed more than once with the same values.
+ *
+ * <p> Tables are read from a classpath resource or a file with
+ * {@link #load()}, not when they are created, and are read as streams, so
+ * resources also load from a jar.
+ *
+ * @see FaultEnrichment
+ */
+class AttributeTable {
+
+  /** The column of fault ids */
+  static final String KEY = Util.Keys.CFAULT_ID;
+
+  private static final String M_MAX_RESOURCE = "WUSfixedMv2.csv";
+
+  /* Faults whose maximum magnitude is not exported */
+  private static final ImmutableSet<String> M_MAX_SKIP = ImmutableSet.of(
+      "570n",
+      "570m",
+      "570s",
+      "572",
+      "572n",
+      "572s");
+
+  private final String name;
+  private final ByteSource source;
+  private final List<String> columns;
+  private final ImmutableSet<String> skip;
+
+  private AttributeTable(Builder builder) {
+    name = builder.name;
+    source = builder.source;
+    columns = builder.columns.build();
+    skip = builder.skip.build();
+  }
+
+  /**
+   * The maximum magnitude table: the {@code mMax} column of the
+   * {@code WUSfixedMv2.csv} resource, skipping the {@code 570} and {@code 572}
+   * fault sections.
+   */
+  static AttributeTable maxMagnitudes() {
+    return builder()
+        .resource(M_MAX_RESOURCE)
+        .column(Util.Keys.M_MAX)
+        .skip(M_MAX_SKIP)
+        .build();
+  }
+
+  /** The table name, a resource or file name */
+  String name() {
+    return name;
+  }
+
+  /** The exported columns */
+  List<String> columns() {
+    return columns;
+  }
+
+  /**
+   * Read the table.
+   *
+   * @return the exported attributes of each fault, in column order, keyed by
+   *         {@code cfault_id}; skipped faults are excluded
+   * @throws IOException if the table could not be read, is missing a
+   *         selected column, has an invalid line or lists a fault twice with
+   *         different values
+   */
+  ImmutableMap<String, ImmutableMap<String, Object>> load() throws IOException {
+    Map<String, ImmutableMap<String, Object>> attributes = new LinkedHashMap<>();
+
+    try (BufferedReader reader = source.asCharSource(UTF_8).openBufferedStream()) {
+      String header = reader.readLine();
+      if (header == null) {
+        throw new IOException("Empty attribute table: " + name);
+      }
+
+      Map<String, Integer> indices = indices(Parsing.splitToList(header, Delimiter.COMMA));
+      int width = Collections.max(indices.values()) + 1;
+      int lineNumber = 1;
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+
+        if (line.startsWith("#") || line.trim().isEmpty()) {
+          continue;
+        }
+
+        List<String> values = Parsing.splitToList(line, Delimiter.COMMA);
+
+        if (values.size() < width) {
+          throw new IOException(String.format(
+              "Missing values in attribute table %s, line %d", name, lineNumber));
+        }
+
+        String key = values.get(indices.get(KEY));
+        if (skip.contains(key)) {
+          continue;
+        }
+
+        ImmutableMap.Builder<String, Object> row = ImmutableMap.builder();
+
+        for (String column : columns) {
+          String value = values.get(indices.get(column));
+          Double number = Doubles.tryParse(value);
+          row.put(column, number == null ? value : number);
+        }
+
+        ImmutableMap<String, Object> current = row.build();
+        ImmutableMap<String, Object> previous = attributes.put(key, current);
+
+        if (previous != null && !Objects.equals(previous, current)) {
+          throw new IOException(String.format(
+              "Conflicting values for %s %s in attribute table %s, line %d",
+              KEY, key, name, lineNumber));
+        }
+      }
+    } catch (RuntimeException e) {
+      throw new IOException("Invalid attribute table: " + name, e);
+    }
+
+    return ImmutableMap.copyOf(attributes);
+  }
+
+  /* Column indices of the key and the exported columns */
+  private Map<String, Integer> indices(List<String> header) throws IOException {
+    Map<String, Integer> indices = new HashMap<>();
+
+    for (String column : ImmutableList.<String> builder().add(KEY).addAll(columns).build()) {
+      int index = header.indexOf(column);
+      if (index < 0) {
+        throw new IOException("Missing column " + column + " in attribute table " + name);
+      }
+      indices.put(column, index);
+    }
+
+    return indices;
+  }
+
+  @Override
+  public String toString() {
+    return "AttributeTable [name=" + name + ", columns=" + columns + "]";
+  }
+
+  /** New attribute table builder */
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /** Attribute table builder */
+  static class Builder {
+
+    private String name;
+    private ByteSource source;
+    private ImmutableList.Builder<String> columns;
+    private ImmutableSet.Builder<String> skip;
+    private boolean hasColumns;
+
+    private boolean built;
+
+    private Builder() {
+      columns = ImmutableList.builder();
+      skip = ImmutableSet.builder();
+      built = false;
+    }
+
+    /**
+     * Read the table from a classpath resource, relative to this package.
+     *
+     * @param resource The resource name
+     * @return this builder
+     */
+    Builder resource(String resource) {
+      checkNotNull(resource);
+      name = resource;
+      source = new ByteSource() {
+        @Override
+        public InputStream openStream() throws IOException {
+          URL url = AttributeTable.class.getResource(resource);
+          if (url == null) {
+            throw new FileNotFoundException("Missing attribute table resource: " + resource);
+          }
+          return url.openStream();
+        }
+      };
+      return this;
+    }
+
+    /**
+     * Read the table from a file.
+     *
+     * @param file The file
+     * @return this builder
+     */
+    Builder file(Path file) {
+      checkNotNull(file);
+      name = file.toString();
+      source = new ByteSource() {
+        @Override
+        public InputStream openStream() throws IOException {
+          return Files.newInputStream(file);
+        }
+      };
+      return this;
+    }
+
+    /**
+     * Export a column as a GeoJSON property of the same name.
+     *
+     * @param column The column name
+     * @return this builder
+     */
+    Builder column(String column) {
+      checkArgument(!KEY.equals(column), "Key column cannot be exported");
+      columns.add(column);
+      hasColumns = true;
+      return this;
+    }
+
+    /**
+     * Skip faults, exporting none of their attributes.
+     *
+     * @param cfaultIds The {@code cfault_id}s to skip
+     * @return this builder
+     */
+    Builder skip(Iterable<String> cfaultIds) {
+      skip.addAll(cfaultIds);
+      return this;
+    }
+
+    /** Create a new attribute table */
+    AttributeTable build() {
+      checkState(!built);
+      checkState(source != null, "Missing resource or file");
+      checkState(hasColumns, "Missing columns");
+      built = true;
+      return new AttributeTable(this);
+    }
+
+  }
+
+}
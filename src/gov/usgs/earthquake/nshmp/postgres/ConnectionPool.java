@@ -0,0 +1,444 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGStatement;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bounded pool of database connections.
+ *
+ * <p> At most {@code maxSize} connections are borrowed at any time; callers
+ * wait up to {@code maxWait} for a connection to be returned before a
+ * {@code SQLTimeoutException} is thrown. Idle connections are reused most
+ * recently returned first, validated before reuse when they have been idle
+ * for a while, and closed by a background task once they have been idle for
+ * longer than {@code idleTimeout}.
+ *
+ * <p> Each pooled connection keeps a least recently used cache of up to
+ * {@code statementCacheSize} prepared statements, so that repeated queries
+ * reuse their server-side plan across borrows. Statements evicted from the
+ * cache, or prepared with a cache size of 0, may still have open results, so
+ * they are closed when the connection is returned rather than on eviction.
+ *
+ * @see PostgreSQL
+ */
+class ConnectionPool implements AutoCloseable {
+
+  /* Connections idle for less than this are reused without validation */
+  private static final long VALIDATION_INTERVAL = Duration.ofSeconds(1).toNanos();
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+  private final Factory factory;
+  private final int maxSize;
+  private final long maxWait;
+  private final long idleTimeout;
+  private final int statementCacheSize;
+
+  private final Semaphore permits;
+  private final Deque<PooledConnection> idle;
+  private final ScheduledExecutorService evictor;
+  private volatile boolean closed;
+
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicLong borrowed = new AtomicLong();
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicLong evicted = new AtomicLong();
+  private final AtomicLong invalidated = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong totalWait = new AtomicLong();
+  private final AtomicLong longestWait = new AtomicLong();
+  private final AtomicLong prepared = new AtomicLong();
+  private final AtomicLong statementHits = new AtomicLong();
+
+  /**
+   * Create a new connection pool.
+   *
+   * @param factory Opens new connections
+   * @param maxSize The maximum number of connections
+   * @param maxWait The maximum time to wait for a connection
+   * @param idleTimeout The time after which an idle connection is closed
+   * @param statementCacheSize The number of prepared statements cached per
+   *        connection
+   */
+  ConnectionPool(
+      Factory factory,
+      int maxSize,
+      Duration maxWait,
+      Duration idleTimeout,
+      int statementCacheSize) {
+
+    checkArgument(maxSize > 0, "Max size must be positive: %s", maxSize);
+    checkArgument(!maxWait.isNegative(), "Max wait must not be negative: %s", maxWait);
+    checkArgument(!idleTimeout.isNegative() && !idleTimeout.isZero(),
+        "Idle timeout must be positive: %s", idleTimeout);
+    checkArgument(statementCacheSize >= 0,
+        "Statement cache size must not be negative: %s", statementCacheSize);
+
+    this.factory = factory;
+    this.maxSize = maxSize;
+    this.maxWait = maxWait.toNanos();
+    this.idleTimeout = idleTimeout.toNanos();
+    this.statementCacheSize = statementCacheSize;
+
+    permits = new Semaphore(maxSize, true);
+    idle = new ArrayDeque<>();
+
+    evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("connection-pool-evictor-%d")
+        .setDaemon(true)
+        .build());
+
+    long period = Math.max(this.idleTimeout / 2, Duration.ofSeconds(1).toNanos());
+    evictor.scheduleWithFixedDelay(this::evictIdle, period, period, NANOSECONDS);
+  }
+
+  /** The maximum number of connections */
+  int maxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Borrow a connection, waiting up to the configured maximum wait time for
+   * one to become available. The connection must be returned with
+   * {@link #release(PooledConnection)}.
+   *
+   * @throws SQLException if a connection could not be opened or none became
+   *         available in time
+   */
+  PooledConnection borrow() throws SQLException {
+    checkState(!closed, "Connection pool is closed");
+    long start = System.nanoTime();
+
+    try {
+      if (!permits.tryAcquire(maxWait, NANOSECONDS)) {
+        timeouts.incrementAndGet();
+        throw new SQLTimeoutException("Timed out waiting for a connection after " +
+            Duration.ofNanos(maxWait) + ", " + metrics());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for a connection", e);
+    }
+
+    recordWait(System.nanoTime() - start);
+
+    try {
+      PooledConnection pooled;
+
+      while ((pooled = pollIdle()) != null) {
+        if (isValid(pooled)) {
+          return checkout(pooled);
+        }
+        invalidated.incrementAndGet();
+        destroy(pooled);
+      }
+
+      pooled = new PooledConnection(factory.open());
+      size.incrementAndGet();
+      created.incrementAndGet();
+      return checkout(pooled);
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Return a borrowed connection to the pool, closing its uncached statements.
+   * Connections returned after the pool is closed, or that are already closed,
+   * are discarded.
+   *
+   * @param pooled The borrowed connection
+   */
+  void release(PooledConnection pooled) {
+    active.decrementAndGet();
+    pooled.closeUncached();
+
+    try {
+      if (closed || pooled.connection.isClosed()) {
+        destroy(pooled);
+        return;
+      }
+
+      pooled.lastUsed = System.nanoTime();
+
+      /* Checked again under the lock, close may have drained the queue since */
+      synchronized (idle) {
+        if (!closed) {
+          idle.push(pooled);
+          return;
+        }
+      }
+
+      destroy(pooled);
+    } catch (SQLException e) {
+      destroy(pooled);
+    } finally {
+      permits.release();
+    }
+  }
+
+  /** Returns a snapshot of the pool metrics. */
+  Metrics metrics() {
+    return new Metrics(this);
+  }
+
+  /** Close all idle connections and stop the idle connection evictor. */
+  @Override
+  public void close() {
+    evictor.shutdownNow();
+
+    List<PooledConnection> connections;
+
+    synchronized (idle) {
+      closed = true;
+      connections = new ArrayList<>(idle);
+      idle.clear();
+    }
+
+    connections.forEach(this::destroy);
+  }
+
+  private PooledConnection checkout(PooledConnection pooled) {
+    active.incrementAndGet();
+    borrowed.incrementAndGet();
+    return pooled;
+  }
+
+  private PooledConnection pollIdle() {
+    synchronized (idle) {
+      return idle.poll();
+    }
+  }
+
+  private boolean isValid(PooledConnection pooled) {
+    if (System.nanoTime() - pooled.lastUsed < VALIDATION_INTERVAL) {
+      return true;
+    }
+
+    try {
+      return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void destroy(PooledConnection pooled) {
+    size.decrementAndGet();
+
+    try {
+      pooled.connection.close();
+    } catch (SQLException e) {
+      // connection is discarded either way
+    }
+  }
+
+  private static void closeQuietly(Statement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // statement is discarded either way
+    }
+  }
+
+  private void evictIdle() {
+    long now = System.nanoTime();
+    List<PooledConnection> expired = new ArrayList<>();
+
+    synchronized (idle) {
+      Iterator<PooledConnection> it = idle.descendingIterator();
+
+      while (it.hasNext()) {
+        PooledConnection pooled = it.next();
+
+        if (now - pooled.lastUsed >= idleTimeout) {
+          it.remove();
+          expired.add(pooled);
+        }
+      }
+    }
+
+    evicted.addAndGet(expired.size());
+    expired.forEach(this::destroy);
+  }
+
+  private void recordWait(long wait) {
+    totalWait.addAndGet(wait);
+    longestWait.accumulateAndGet(wait, Math::max);
+  }
+
+  /** Opens new database connections for the pool. */
+  @FunctionalInterface
+  interface Factory {
+
+    /** Open a new connection */
+    Connection open() throws SQLException;
+
+  }
+
+  /** A connection owned by the pool, with its prepared statement cache */
+  class PooledConnection {
+
+    final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    private final List<PreparedStatement> uncached;
+    private volatile long lastUsed;
+
+    private PooledConnection(Connection connection) {
+      this.connection = connection;
+      statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Entry<String, PreparedStatement> eldest) {
+          if (size() <= statementCacheSize) return false;
+          /* Its results may still be open, close it on release */
+          uncached.add(eldest.getValue());
+          return true;
+        }
+      };
+      uncached = new ArrayList<>();
+      lastUsed = System.nanoTime();
+    }
+
+    /**
+     * Returns the cached prepared statement for the SQL, preparing and caching
+     * a new statement if needed. Statements are read only and forward only,
+     * and are prepared on the server on first execution. With a cache size of
+     * 0, a new statement is prepared on every call and closed when the
+     * connection is released. Only the thread that borrowed this connection
+     * may call this method.
+     *
+     * @param sql The SQL query statement, with {@code ?} parameters
+     * @throws SQLException
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement statement = statements.get(sql);
+
+      if (statement != null && !statement.isClosed()) {
+        statementHits.incrementAndGet();
+        return statement;
+      }
+
+      statement = connection.prepareStatement(
+          sql,
+          ResultSet.TYPE_FORWARD_ONLY,
+          ResultSet.CONCUR_READ_ONLY);
+      prepared.incrementAndGet();
+
+      if (statement.isWrapperFor(PGStatement.class)) {
+        statement.unwrap(PGStatement.class).setPrepareThreshold(1);
+      }
+
+      if (statementCacheSize == 0) {
+        uncached.add(statement);
+      } else {
+        statements.put(sql, statement);
+      }
+      return statement;
+    }
+
+    /* Close statements evicted or not cached since the connection was borrowed */
+    private void closeUncached() {
+      uncached.forEach(ConnectionPool::closeQuietly);
+      uncached.clear();
+    }
+
+  }
+
+  /** Snapshot of connection pool size and wait time metrics. */
+  static class Metrics {
+
+    /** The maximum number of connections */
+    final int maxSize;
+
+    /** The number of open connections */
+    final int size;
+
+    /** The number of borrowed connections */
+    final int active;
+
+    /** The number of successful borrows */
+    final long borrowed;
+
+    /** The number of connections opened */
+    final long created;
+
+    /** The number of connections closed after being idle too long */
+    final long evicted;
+
+    /** The number of connections that failed validation */
+    final long invalidated;
+
+    /** The number of borrows that timed out */
+    final long timeouts;
+
+    /** The mean time waited for a connection */
+    final Duration meanWait;
+
+    /** The longest time waited for a connection */
+    final Duration maxWait;
+
+    /** The number of statements prepared */
+    final long prepared;
+
+    /** The number of prepared statements reused from a cache */
+    final long statementHits;
+
+    private Metrics(ConnectionPool pool) {
+      maxSize = pool.maxSize;
+      size = pool.size.get();
+      active = pool.active.get();
+      borrowed = pool.borrowed.get();
+      created = pool.created.get();
+      evicted = pool.evicted.get();
+      invalidated = pool.invalidated.get();
+      timeouts = pool.timeouts.get();
+      meanWait = Duration.ofNanos(borrowed == 0 ? 0 : pool.totalWait.get() / borrowed);
+      maxWait = Duration.ofNanos(pool.longestWait.get());
+      prepared = pool.prepared.get();
+      statementHits = pool.statementHits.get();
+    }
+
+    @Override
+    public String toString() {
+      return "Pool [size=" + size + "/" + maxSize +
+          ", active=" + active +
+          ", borrowed=" + borrowed +
+          ", created=" + created +
+          ", evicted=" + evicted +
+          ", invalidated=" + invalidated +
+          ", timeouts=" + timeouts +
+          ", meanWait=" + meanWait +
+          ", maxWait=" + maxWait +
+          ", prepared=" + prepared +
+          ", statementHits=" + statementHits + "]";
+    }
+
+  }
+
+}
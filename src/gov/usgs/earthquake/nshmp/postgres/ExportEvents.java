@@ -0,0 +1,245 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of database queries and fault exports, shown
+ * under <i>NSHMP / Fault Export</i> next to the JVM's GC and I/O events.
+ *
+ * <p> Callers only see this class's static methods, which pass events around
+ * as opaque {@code Object}s, so no {@code jdk.jfr} class is loaded unless the
+ * runtime provides one (JDK 8u262+ or 11+); elsewhere, and when flight
+ * recording is disabled, every method is a no-op and {@code begin} methods
+ * return {@code null}. An event is only allocated while a recording enables
+ * its type, and no stack traces are recorded, so leaving recording on costs a
+ * timestamp and a buffer write per event.
+ */
+final class ExportEvents {
+
+  /** Whether the runtime supports flight recorder events */
+  static final boolean AVAILABLE = isAvailable();
+
+  private ExportEvents() {}
+
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event", false, ExportEvents.class.getClassLoader());
+      Recorder.init();
+      return true;
+    } catch (ClassNotFoundException | LinkageError | RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Begin a query event, before its statement is executed.
+   *
+   * @return the event, or {@code null} if not recorded
+   */
+  static Object beginQuery() {
+    return AVAILABLE ? Recorder.beginQuery() : null;
+  }
+
+  /**
+   * Set the fields known once a query has been executed.
+   *
+   * @param event The query event, may be {@code null}
+   * @param sql The SQL text
+   * @param fetchSize The fetch size, 0 if not streamed
+   * @param executeNanos The time to execute the query
+   */
+  static void queryExecuted(Object event, String sql, int fetchSize, long executeNanos) {
+    if (event != null) Recorder.queryExecuted(event, sql, fetchSize, executeNanos);
+  }
+
+  /**
+   * Commit a query event once its rows are read or its result is closed.
+   *
+   * @param event The query event, may be {@code null}
+   * @param rows The number of rows read, or -1 if not counted
+   */
+  static void commitQuery(Object event, long rows) {
+    if (event != null) Recorder.commitQuery(event, rows);
+  }
+
+  /**
+   * Begin a fault event, when the fault is submitted.
+   *
+   * @return the event, or {@code null} if not recorded
+   */
+  static Object beginFault() {
+    return AVAILABLE ? Recorder.beginFault() : null;
+  }
+
+  /**
+   * Commit a fault event once the fault is written.
+   *
+   * @param event The fault event, may be {@code null}
+   * @param id The fault {@code id}
+   * @param state The state abbreviation
+   * @param tracePoints The number of fault trace points
+   * @param bytes The size of the JSON text
+   */
+  static void commitFault(Object event, int id, String state, int tracePoints, long bytes) {
+    if (event != null) Recorder.commitFault(event, id, state, tracePoints, bytes);
+  }
+
+  /**
+   * Begin a state event, when the state query starts.
+   *
+   * @param state The state abbreviation
+   * @return the event, or {@code null} if not recorded
+   */
+  static Object beginState(String state) {
+    return AVAILABLE ? Recorder.beginState(state) : null;
+  }
+
+  /**
+   * Commit a state event once all its faults are submitted.
+   *
+   * @param event The state event, may be {@code null}
+   * @param faults The number of faults
+   */
+  static void commitState(Object event, long faults) {
+    if (event != null) Recorder.commitState(event, faults);
+  }
+
+  /* The only class linking jdk.jfr, loaded once AVAILABLE is checked */
+  private static final class Recorder {
+
+    private static final EventType QUERY = EventType.getEventType(QueryEvent.class);
+    private static final EventType FAULT = EventType.getEventType(FaultEvent.class);
+    private static final EventType STATE = EventType.getEventType(StateEvent.class);
+
+    static void init() {}
+
+    static Object beginQuery() {
+      if (!QUERY.isEnabled()) return null;
+      QueryEvent event = new QueryEvent();
+      event.begin();
+      return event;
+    }
+
+    static void queryExecuted(Object event, String sql, int fetchSize, long executeNanos) {
+      QueryEvent query = (QueryEvent) event;
+      query.sqlHash = sql.hashCode();
+      query.fetchSize = fetchSize;
+      query.executeTime = executeNanos;
+    }
+
+    static void commitQuery(Object event, long rows) {
+      QueryEvent query = (QueryEvent) event;
+      query.rows = rows;
+      query.commit();
+    }
+
+    static Object beginFault() {
+      if (!FAULT.isEnabled()) return null;
+      FaultEvent event = new FaultEvent();
+      event.begin();
+      return event;
+    }
+
+    static void commitFault(Object event, int id, String state, int tracePoints, long bytes) {
+      FaultEvent fault = (FaultEvent) event;
+      fault.faultId = id;
+      fault.state = state;
+      fault.tracePoints = tracePoints;
+      fault.bytes = bytes;
+      fault.commit();
+    }
+
+    static Object beginState(String state) {
+      if (!STATE.isEnabled()) return null;
+      StateEvent event = new StateEvent();
+      event.state = state;
+      event.begin();
+      return event;
+    }
+
+    static void commitState(Object event, long faults) {
+      StateEvent state = (StateEvent) event;
+      state.faults = faults;
+      state.commit();
+    }
+
+  }
+
+  /*
+   * A query, from execution until its rows are read through a fault record
+   * reader, or its result is closed with the session.
+   */
+  @Name("gov.usgs.earthquake.nshmp.postgres.Query")
+  @Label("Database Query")
+  @Category({ "NSHMP", "Fault Export" })
+  @Description("A PostgreSQL query, from execution until its rows are read")
+  @StackTrace(false)
+  static final class QueryEvent extends Event {
+
+    @Label("SQL Hash")
+    @Description("The hash code of the SQL text")
+    int sqlHash;
+
+    @Label("Fetch Size")
+    int fetchSize;
+
+    @Label("Execute Time")
+    @Description("Time to execute the statement and fetch the first rows")
+    @Timespan(Timespan.NANOSECONDS)
+    long executeTime;
+
+    @Label("Rows")
+    @Description("Rows read through a fault record reader, or -1 if not counted")
+    long rows;
+
+  }
+
+  /* A fault, from submission by the fetch stage until its JSON is written */
+  @Name("gov.usgs.earthquake.nshmp.postgres.FaultExport")
+  @Label("Fault Export")
+  @Category({ "NSHMP", "Fault Export" })
+  @Description("A fault, from submission until its JSON text is written")
+  @StackTrace(false)
+  static final class FaultEvent extends Event {
+
+    @Label("Fault ID")
+    int faultId;
+
+    @Label("State")
+    String state;
+
+    @Label("Trace Points")
+    int tracePoints;
+
+    @Label("Bytes Written")
+    @Description("The size of the JSON text, in characters")
+    @DataAmount
+    long bytes;
+
+  }
+
+  /* The faults of a state, from the query until all are submitted */
+  @Name("gov.usgs.earthquake.nshmp.postgres.StateExport")
+  @Label("State Export")
+  @Category({ "NSHMP", "Fault Export" })
+  @Description("The faults of a state, from the query until all are submitted")
+  @StackTrace(false)
+  static final class StateEvent extends Event {
+
+    @Label("State")
+    String state;
+
+    @Label("Faults")
+    long faults;
+
+  }
+
+}
@@ -0,0 +1,222 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hashing;
+
+/**
+ * Content hashes of exported fault files, used for incremental export.
+ *
+ * <p> The manifest holds one entry per fault, keyed by the fault {@code id}
+ * and {@code cfault_id}, with the SHA-256 hash of the file content and the
+ * file path relative to the output directory. It is stored as tab separated
+ * text next to the output directory, e.g. {@code faults/<table>.manifest}.
+ *
+ * <p> During an export each fault is
+ * {@link #record(int, String, String, Path, boolean) recorded} as it is
+ * written or found unchanged. On {@link #commit()}, files of faults in the
+ * previous manifest that were not recorded are deleted and the new manifest
+ * replaces the previous one. A failed export does not commit, so the previous
+ * manifest stays in place and the next export compares against it.
+ */
+class ExportManifest {
+
+  private static final String HEADER = "# id\tcfault_id\tsha256\tfile";
+  private static final Splitter TAB = Splitter.on('\t');
+
+  private final Path manifestPath;
+  private final Path outputPath;
+  private final Map<String, Entry> previous;
+  private final Map<String, Entry> current;
+
+  private final AtomicInteger written = new AtomicInteger();
+  private final AtomicInteger unchanged = new AtomicInteger();
+  private int deleted;
+  private boolean committed;
+
+  private ExportManifest(Path manifestPath, Path outputPath, Map<String, Entry> previous) {
+    this.manifestPath = manifestPath;
+    this.outputPath = outputPath;
+    this.previous = previous;
+    current = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Load the manifest of an output directory, or start an empty manifest if
+   * none exists.
+   *
+   * @param outputPath The output directory, e.g. {@code faults/<table>}
+   * @throws IOException
+   */
+  static ExportManifest load(Path outputPath) throws IOException {
+    Path manifestPath = outputPath.resolveSibling(outputPath.getFileName() + ".manifest");
+    Map<String, Entry> previous = new TreeMap<>();
+
+    if (Files.exists(manifestPath)) {
+      for (String line : Files.readAllLines(manifestPath, UTF_8)) {
+        if (line.isEmpty() || line.startsWith("#")) continue;
+
+        List<String> fields = TAB.splitToList(line);
+        checkState(fields.size() == 4, "Invalid manifest line: %s", line);
+        previous.put(
+            key(fields.get(0), fields.get(1)),
+            new Entry(fields.get(0), fields.get(1), fields.get(2), fields.get(3)));
+      }
+    }
+
+    return new ExportManifest(manifestPath, outputPath, previous);
+  }
+
+  /**
+   * Returns the SHA-256 hash of file content.
+   *
+   * @param content The file content
+   */
+  static String hash(String content) {
+    return Hashing.sha256().hashString(content, UTF_8).toString();
+  }
+
+  /**
+   * Returns whether a fault file is unchanged since the previous export: the
+   * previous manifest has the same hash and file for the fault and the file
+   * still exists.
+   *
+   * @param id The fault id
+   * @param cfaultId The fault cfault_id
+   * @param hash The hash of the file content
+   * @param file The fault file
+   */
+  boolean isUnchanged(int id, String cfaultId, String hash, Path file) {
+    Entry entry = previous.get(key(Integer.toString(id), cfaultId));
+
+    return entry != null &&
+        entry.hash.equals(hash) &&
+        entry.file.equals(relative(file)) &&
+        Files.exists(file);
+  }
+
+  /**
+   * Record an exported fault.
+   *
+   * @param id The fault id
+   * @param cfaultId The fault cfault_id
+   * @param hash The hash of the file content
+   * @param file The fault file
+   * @param write Whether the file was written, rather than found unchanged
+   */
+  void record(int id, String cfaultId, String hash, Path file, boolean write) {
+    String idString = Integer.toString(id);
+    current.put(
+        key(idString, cfaultId),
+        new Entry(idString, cfaultId, hash, relative(file)));
+    (write ? written : unchanged).incrementAndGet();
+  }
+
+  /**
+   * Delete the files of the previous manifest that were not recorded in this
+   * export, along with any directories left empty, and replace the stored
+   * manifest.
+   *
+   * @throws IOException
+   */
+  void commit() throws IOException {
+    checkState(!committed, "Manifest already committed");
+    committed = true;
+
+    Set<String> files = new HashSet<>();
+    current.values().forEach(entry -> files.add(entry.file));
+
+    /* A fault recorded under a new file, e.g. of another state, leaves its old one */
+    for (Entry entry : previous.values()) {
+      if (files.contains(entry.file)) continue;
+
+      Path file = outputPath.resolve(entry.file);
+
+      if (Files.deleteIfExists(file)) {
+        deleted++;
+        deleteIfEmpty(file.getParent());
+      }
+    }
+
+    Files.createDirectories(manifestPath.getParent());
+    Path temp = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+
+    try (BufferedWriter writer = Files.newBufferedWriter(temp, UTF_8)) {
+      writer.write(HEADER);
+      writer.newLine();
+
+      for (Entry entry : new TreeMap<>(current).values()) {
+        writer.write(entry.toString());
+        writer.newLine();
+      }
+    }
+
+    Files.move(temp, manifestPath, REPLACE_EXISTING, ATOMIC_MOVE);
+  }
+
+  @Override
+  public String toString() {
+    return "Manifest [written=" + written +
+        ", unchanged=" + unchanged +
+        ", deleted=" + deleted + "]";
+  }
+
+  private void deleteIfEmpty(Path directory) throws IOException {
+    if (directory == null || directory.equals(outputPath)) return;
+
+    try {
+      Files.deleteIfExists(directory);
+    } catch (DirectoryNotEmptyException e) {
+      // still holds other faults
+    }
+  }
+
+  /* Manifest files use '/' separators on every platform */
+  private String relative(Path file) {
+    return outputPath.relativize(file).toString().replace('\\', '/');
+  }
+
+  private static String key(String id, String cfaultId) {
+    return id + "\t" + cfaultId;
+  }
+
+  /* A manifest line */
+  private static class Entry {
+
+    final String id;
+    final String cfaultId;
+    final String hash;
+    final String file;
+
+    Entry(String id, String cfaultId, String hash, String file) {
+      this.id = id;
+      this.cfaultId = cfaultId;
+      this.hash = hash;
+      this.file = file;
+    }
+
+    @Override
+    public String toString() {
+      return id + "\t" + cfaultId + "\t" + hash + "\t" + file;
+    }
+
+  }
+
+}
@@ -0,0 +1,273 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * In-memory {@link MetricsRegistry}.
+ *
+ * <p> Each stage keeps a histogram of event times in power of two nanosecond
+ * buckets, so recording is a few atomic increments and percentiles are
+ * accurate to within a factor of two. Rows and bytes per second are measured
+ * over the wall clock time from the first to the last recorded event. Faults
+ * are totalled per state, and the slowest faults, by conversion and write
+ * time, are kept in a bounded heap.
+ */
+class ExportMetrics implements MetricsRegistry {
+
+  /** Default number of slowest faults kept */
+  static final int DEFAULT_SLOWEST = 10;
+
+  private static final Comparator<SlowFault> BY_TIME =
+      Comparator.comparingLong(fault -> fault.nanos);
+
+  private final Map<Stage, Histogram> stages;
+  private final Map<String, StateTotals> states;
+  private final PriorityQueue<SlowFault> slowest;
+  private final int slowestSize;
+  private final AtomicLong first;
+  private final AtomicLong last;
+
+  /** Create a registry keeping the {@link #DEFAULT_SLOWEST} slowest faults. */
+  ExportMetrics() {
+    this(DEFAULT_SLOWEST);
+  }
+
+  /**
+   * Create a registry.
+   *
+   * @param slowestSize The number of slowest faults kept
+   */
+  ExportMetrics(int slowestSize) {
+    checkArgument(slowestSize >= 0, "Slowest size must not be negative: %s", slowestSize);
+    this.slowestSize = slowestSize;
+
+    stages = new EnumMap<>(Stage.class);
+    for (Stage stage : Stage.values()) {
+      stages.put(stage, new Histogram());
+    }
+
+    states = new ConcurrentHashMap<>();
+    slowest = new PriorityQueue<>(BY_TIME);
+    first = new AtomicLong(Long.MAX_VALUE);
+    last = new AtomicLong(Long.MIN_VALUE);
+  }
+
+  @Override
+  public void record(Stage stage, long nanos, long bytes) {
+    long now = System.nanoTime();
+    first.accumulateAndGet(now - nanos, Math::min);
+    last.accumulateAndGet(now, Math::max);
+    stages.get(stage).record(nanos, bytes);
+  }
+
+  @Override
+  public void fault(String state, int id, String name, long nanos, long bytes) {
+    states.computeIfAbsent(state, key -> new StateTotals()).record(nanos, bytes);
+
+    if (slowestSize == 0) return;
+
+    synchronized (slowest) {
+      if (slowest.size() < slowestSize) {
+        slowest.add(new SlowFault(state, id, name, nanos));
+      } else if (nanos > slowest.peek().nanos) {
+        slowest.poll();
+        slowest.add(new SlowFault(state, id, name, nanos));
+      }
+    }
+  }
+
+  /** The number of events recorded for a stage */
+  long count(Stage stage) {
+    return stages.get(stage).count.sum();
+  }
+
+  /** The wall clock time from the first to the last event, in seconds */
+  double elapsedSeconds() {
+    long first = this.first.get();
+    long last = this.last.get();
+    return last > first ? (last - first) / 1e9 : 0.0;
+  }
+
+  /**
+   * Write the summary object:
+   * <ul>
+   *   <li> {@code elapsedSeconds}: wall clock time of the recorded events </li>
+   *   <li> {@code stages}: per-stage count, bytes, total, mean, min, max and
+   *       percentile times in milliseconds, and rows and bytes per second </li>
+   *   <li> {@code states}: per-state fault count, bytes and time </li>
+   *   <li> {@code slowest}: the slowest faults, slowest first </li>
+   * </ul>
+   */
+  @Override
+  public void writeSummary(JsonWriter json) throws IOException {
+    double elapsed = elapsedSeconds();
+
+    json.beginObject();
+    json.name("elapsedSeconds").value(elapsed);
+
+    json.name("stages").beginObject();
+    for (Entry<Stage, Histogram> stage : stages.entrySet()) {
+      json.name(stage.getKey().label());
+      stage.getValue().write(json, elapsed);
+    }
+    json.endObject();
+
+    json.name("states").beginObject();
+    for (Entry<String, StateTotals> state : new TreeMap<>(states).entrySet()) {
+      StateTotals totals = state.getValue();
+      json.name(state.getKey()).beginObject()
+          .name("faults").value(totals.faults.sum())
+          .name("bytes").value(totals.bytes.sum())
+          .name("totalMillis").value(millis(totals.nanos.sum()))
+          .endObject();
+    }
+    json.endObject();
+
+    json.name("slowest").beginArray();
+    for (SlowFault fault : slowest()) {
+      json.beginObject()
+          .name("state").value(fault.state)
+          .name("id").value(fault.id)
+          .name("name").value(fault.name)
+          .name("millis").value(millis(fault.nanos))
+          .endObject();
+    }
+    json.endArray();
+
+    json.endObject();
+  }
+
+  /* The slowest faults, slowest first */
+  private List<SlowFault> slowest() {
+    List<SlowFault> faults;
+    synchronized (slowest) {
+      faults = new ArrayList<>(slowest);
+    }
+    faults.sort(BY_TIME.reversed());
+    return faults;
+  }
+
+  @Override
+  public String toString() {
+    double elapsed = elapsedSeconds();
+    long rows = count(Stage.DECODE);
+
+    return String.format(
+        "Metrics [rows=%d, elapsed=%.2f s, rows/s=%.1f, states=%d]",
+        rows,
+        elapsed,
+        elapsed == 0.0 ? 0.0 : rows / elapsed,
+        states.size());
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  /* Event times in power of two nanosecond buckets */
+  private static class Histogram {
+
+    final AtomicLongArray buckets = new AtomicLongArray(64);
+    final LongAdder count = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+    final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    final AtomicLong max = new AtomicLong();
+
+    void record(long nanos, long bytes) {
+      nanos = Math.max(nanos, 0);
+      buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+      count.increment();
+      this.bytes.add(bytes);
+      this.nanos.add(nanos);
+      min.accumulateAndGet(nanos, Math::min);
+      max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /* The upper bound of the bucket holding a quantile, capped at the max */
+    long quantile(double q, long count) {
+      long rank = (long) Math.ceil(q * count);
+      long seen = 0;
+
+      for (int bucket = 0; bucket < 64; bucket++) {
+        seen += buckets.get(bucket);
+        if (seen >= rank) {
+          long upper = bucket == 0 ? 0 : bucket == 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+          return Math.min(upper, max.get());
+        }
+      }
+
+      return max.get();
+    }
+
+    void write(JsonWriter json, double elapsed) throws IOException {
+      long count = this.count.sum();
+      long bytes = this.bytes.sum();
+      long nanos = this.nanos.sum();
+
+      json.beginObject()
+          .name("count").value(count)
+          .name("bytes").value(bytes)
+          .name("totalMillis").value(millis(nanos))
+          .name("meanMillis").value(count == 0 ? 0.0 : millis(nanos) / count)
+          .name("minMillis").value(count == 0 ? 0.0 : millis(min.get()))
+          .name("maxMillis").value(millis(max.get()))
+          .name("p50Millis").value(millis(quantile(0.50, count)))
+          .name("p90Millis").value(millis(quantile(0.90, count)))
+          .name("p99Millis").value(millis(quantile(0.99, count)))
+          .name("rowsPerSecond").value(elapsed == 0.0 ? 0.0 : count / elapsed)
+          .name("bytesPerSecond").value(elapsed == 0.0 ? 0.0 : bytes / elapsed)
+          .endObject();
+    }
+
+  }
+
+  /* The faults written for a state */
+  private static class StateTotals {
+
+    final LongAdder faults = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+
+    void record(long nanos, long bytes) {
+      faults.increment();
+      this.bytes.add(bytes);
+      this.nanos.add(nanos);
+    }
+
+  }
+
+  /* A fault and its conversion and write time */
+  private static class SlowFault {
+
+    final String state;
+    final int id;
+    final String name;
+    final long nanos;
+
+    SlowFault(String state, int id, String name, long nanos) {
+      this.state = state;
+      this.id = id;
+      this.name = name;
+      this.nanos = nanos;
+    }
+
+  }
+
+}
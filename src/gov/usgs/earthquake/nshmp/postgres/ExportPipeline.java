@@ -0,0 +1,386 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Staged export pipeline decoupling database reads from file writes.
+ *
+ * <p> Inputs submitted by the fetch stage, typically one or more threads
+ * reading query results, are converted on a pool of {@code converters} threads
+ * and the results written on a pool of {@code writers} threads. Every thread
+ * of a stage reads its own bounded queue; a producer blocks when the queue it
+ * feeds is full, so a slow stage throttles the stages before it rather than
+ * buffering without limit.
+ *
+ * <p> Inputs are numbered as they are submitted and spread over the converters
+ * in turn, so a single key (e.g. one state or table file) still converts on
+ * every converter thread. Converted inputs are handed to the write stage in
+ * submission order and routed by their key: inputs with equal keys (e.g. the
+ * same output file) go to the same writer, so they are written in the order
+ * they were submitted.
+ *
+ * <p> Serialization runs in the conversion stage rather than a stage of its
+ * own: converting a row and rendering its JSON are both CPU bound and
+ * independent of other rows, so they scale with the same threads, and a
+ * streamed feature is written to JSON straight from the row with no
+ * intermediate object to hand between stages. A separate stage would only add
+ * a queue hop and a second reordering step per fault. The trace, properties
+ * and rendering times within the stage are recorded by
+ * {@link MetricsRegistry}.
+ *
+ * <p> Per-stage metrics ({@link #metrics()}) report throughput, busy time,
+ * producer blocking time and queue depth, showing which stage limits the
+ * export.
+ *
+ * @param <I> The input type
+ * @param <T> The converted type
+ */
+class ExportPipeline<I, T> {
+
+  /** Default capacity of each stage queue */
+  static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+  private static final Object END = new Object();
+  private static final Object SKIPPED = new Object();
+
+  private final Stage convertStage;
+  private final Stage writeStage;
+  private final Converter<I, T> converter;
+  private final Writer<T> writer;
+  private final AtomicReference<Exception> failure;
+  private final AtomicLong submitted;
+
+  /* Converted inputs waiting for earlier ones, guarded by itself */
+  private final Map<Long, Routed> reorder;
+  private long released;
+
+  private boolean finished;
+
+  /**
+   * Create and start a new pipeline.
+   *
+   * @param converter Converts inputs
+   * @param converters The number of conversion threads
+   * @param writer Writes converted inputs
+   * @param writers The number of writer threads
+   * @param queueCapacity The capacity of each stage queue
+   */
+  ExportPipeline(
+      Converter<I, T> converter,
+      int converters,
+      Writer<T> writer,
+      int writers,
+      int queueCapacity) {
+
+    checkArgument(converters > 0, "Converters must be positive: %s", converters);
+    checkArgument(writers > 0, "Writers must be positive: %s", writers);
+    checkArgument(queueCapacity > 0, "Queue capacity must be positive: %s", queueCapacity);
+
+    this.converter = converter;
+    this.writer = writer;
+    failure = new AtomicReference<>();
+    submitted = new AtomicLong();
+    reorder = new HashMap<>();
+
+    writeStage = new Stage("write", writers, queueCapacity, this::write);
+    convertStage = new Stage("convert", converters, queueCapacity, this::convert);
+  }
+
+  /**
+   * Submit an input, blocking while the converter queue it is routed to is
+   * full.
+   *
+   * @param key The routing key; inputs with equal keys are written in order
+   * @param input The input
+   * @throws PipelineException if a stage has failed
+   * @throws InterruptedException
+   */
+  void submit(Object key, I input) throws InterruptedException {
+    checkState(!finished, "Pipeline is finished");
+    checkFailure();
+    long sequence = submitted.getAndIncrement();
+    convertStage.put(sequence, new Routed(sequence, key, input));
+  }
+
+  /**
+   * Wait for all submitted inputs to be written and stop the stage threads.
+   *
+   * @throws PipelineException if a stage failed
+   * @throws InterruptedException
+   */
+  void finish() throws InterruptedException {
+    if (finished) return;
+    finished = true;
+
+    convertStage.finish();
+    writeStage.finish();
+    checkFailure();
+  }
+
+  /** Stop the stage threads without waiting for pending inputs. */
+  void abort() {
+    finished = true;
+    convertStage.executor.shutdownNow();
+    writeStage.executor.shutdownNow();
+  }
+
+  /** Returns a snapshot of the conversion and write stage metrics. */
+  List<StageMetrics> metrics() {
+    List<StageMetrics> metrics = new ArrayList<>();
+    metrics.add(convertStage.metrics());
+    metrics.add(writeStage.metrics());
+    return metrics;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void convert(Routed routed) throws Exception {
+    Object converted = SKIPPED;
+
+    try {
+      converted = converter.convert((I) routed.item);
+    } finally {
+      release(new Routed(routed.sequence, routed.key, converted));
+    }
+  }
+
+  /*
+   * Pass converted inputs to the write stage in submission order. A converter
+   * blocked on a full write queue holds the lock, which throttles the other
+   * converters as well.
+   */
+  private void release(Routed routed) throws InterruptedException {
+    synchronized (reorder) {
+      reorder.put(routed.sequence, routed);
+      Routed next;
+
+      while ((next = reorder.remove(released)) != null) {
+        released++;
+        if (next.item != SKIPPED) {
+          writeStage.put(next.key.hashCode(), next);
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void write(Routed routed) throws Exception {
+    writer.write((T) routed.item);
+  }
+
+  private void checkFailure() {
+    Exception e = failure.get();
+    if (e != null) {
+      throw new PipelineException(e);
+    }
+  }
+
+  /** Converts pipeline inputs. */
+  @FunctionalInterface
+  interface Converter<I, T> {
+
+    /** Convert an input */
+    T convert(I input) throws Exception;
+
+  }
+
+  /** Writes converted pipeline inputs. */
+  @FunctionalInterface
+  interface Writer<T> {
+
+    /** Write a converted input */
+    void write(T converted) throws Exception;
+
+  }
+
+  /** Thrown when a pipeline stage has failed. */
+  static class PipelineException extends RuntimeException {
+
+    private PipelineException(Exception cause) {
+      super("Export pipeline stage failed: " + cause.getMessage(), cause);
+    }
+
+  }
+
+  /** Snapshot of the metrics of a pipeline stage. */
+  static class StageMetrics {
+
+    /** The stage name */
+    final String name;
+
+    /** The number of stage threads */
+    final int threads;
+
+    /** The number of items processed */
+    final long processed;
+
+    /** The total time stage threads spent processing items */
+    final Duration busy;
+
+    /** The total time producers spent blocked on full stage queues */
+    final Duration blocked;
+
+    /** The largest number of items queued on a single stage thread */
+    final int maxDepth;
+
+    /** The mean number of items queued on a stage thread, sampled per item */
+    final double meanDepth;
+
+    private StageMetrics(
+        String name,
+        int threads,
+        long processed,
+        Duration busy,
+        Duration blocked,
+        int maxDepth,
+        double meanDepth) {
+
+      this.name = name;
+      this.threads = threads;
+      this.processed = processed;
+      this.busy = busy;
+      this.blocked = blocked;
+      this.maxDepth = maxDepth;
+      this.meanDepth = meanDepth;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Stage [%s, threads=%d, processed=%d, busy=%s, blocked=%s, " +
+              "maxDepth=%d, meanDepth=%.1f]",
+          name, threads, processed, busy, blocked, maxDepth, meanDepth);
+    }
+
+  }
+
+  /* An item, its submission number and its routing key */
+  private static class Routed {
+
+    final long sequence;
+    final Object key;
+    final Object item;
+
+    Routed(long sequence, Object key, Object item) {
+      this.sequence = sequence;
+      this.key = key;
+      this.item = item;
+    }
+
+  }
+
+  @FunctionalInterface
+  private interface Task {
+    void run(Routed routed) throws Exception;
+  }
+
+  /* A pool of threads, each consuming its own bounded queue */
+  private class Stage {
+
+    final String name;
+    final List<BlockingQueue<Object>> queues;
+    final ExecutorService executor;
+
+    final AtomicLong processed = new AtomicLong();
+    final AtomicLong busy = new AtomicLong();
+    final AtomicLong blocked = new AtomicLong();
+    final AtomicInteger maxDepth = new AtomicInteger();
+    final AtomicLong depthTotal = new AtomicLong();
+    final AtomicLong depthSamples = new AtomicLong();
+
+    Stage(String name, int threads, int queueCapacity, Task task) {
+      this.name = name;
+      queues = new ArrayList<>();
+
+      executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+          .setNameFormat("export-" + name + "-%d")
+          .setDaemon(true)
+          .build());
+
+      for (int thread = 0; thread < threads; thread++) {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueCapacity);
+        queues.add(queue);
+        executor.execute(() -> consume(queue, task));
+      }
+    }
+
+    void put(long route, Routed routed) throws InterruptedException {
+      BlockingQueue<Object> queue = queues.get((int) Math.floorMod(route, (long) queues.size()));
+
+      int depth = queue.size();
+      maxDepth.accumulateAndGet(depth, Math::max);
+      depthTotal.addAndGet(depth);
+      depthSamples.incrementAndGet();
+
+      if (!queue.offer(routed)) {
+        long start = System.nanoTime();
+        queue.put(routed);
+        blocked.addAndGet(System.nanoTime() - start);
+      }
+    }
+
+    StageMetrics metrics() {
+      long samples = depthSamples.get();
+
+      return new StageMetrics(
+          name,
+          queues.size(),
+          processed.get(),
+          Duration.ofNanos(busy.get()),
+          Duration.ofNanos(blocked.get()),
+          maxDepth.get(),
+          samples == 0 ? 0.0 : (double) depthTotal.get() / samples);
+    }
+
+    void finish() throws InterruptedException {
+      for (BlockingQueue<Object> queue : queues) {
+        queue.put(END);
+      }
+
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /* Once a stage fails, keep draining so that producers never block */
+    private void consume(BlockingQueue<Object> queue, Task task) {
+      try {
+        Object item;
+
+        while ((item = queue.take()) != END) {
+          if (failure.get() != null) continue;
+
+          long start = System.nanoTime();
+
+          try {
+            task.run((Routed) item);
+          } catch (Exception e) {
+            failure.compareAndSet(null, e);
+          }
+
+          busy.addAndGet(System.nanoTime() - start);
+          processed.incrementAndGet();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+  }
+
+}
@@ -1,5 +1,6 @@
 package gov.usgs.earthquake.nshmp.postgres;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static gov.usgs.earthquake.nshmp.eq.Earthquakes.checkCrustalDepth;
@@ -11,13 +12,13 @@ import static gov.usgs.earthquake.nshmp.internal.TextUtils.validateName;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.DEPTH;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.DIP;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.NAME;
+import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.Q_FAULT_ID;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.RATE_MODELS;
 
 import java.util.List;
+import java.util.Optional;
 
 import com.google.common.collect.ImmutableList;
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
 
 import gov.usgs.earthquake.nshmp.eq.model.SourceType;
 import gov.usgs.earthquake.nshmp.geo.LocationList;
@@ -32,10 +33,9 @@ import gov.usgs.earthquake.nshmp.geo.json.Properties;
  */
 public class Fault {
 
-  private static final Gson GSON = new Gson();
-
   private final String name;
   private final int id;
+  private final String qFaultId;
   private final LocationList trace;
   private final List<RateModel> slipRateTree;
   private final double depth;
@@ -44,6 +44,7 @@ public class Fault {
   private Fault(UncheckedBuilder builder) {
     name = builder.name;
     id = builder.id;
+    qFaultId = builder.qFaultId;
     trace = builder.trace;
     slipRateTree = builder.slipRateTree;
     depth = builder.depth;
@@ -60,6 +61,11 @@ public class Fault {
     return id;
   }
 
+  /** The Quaternary fault database id ({@code cfault_id}), if set */
+  public Optional<String> qFaultId() {
+    return Optional.ofNullable(qFaultId);
+  }
+
   /** Fault trace */
   public LocationList trace() {
     return trace;
@@ -85,6 +91,21 @@ public class Fault {
     return FAULT;
   }
 
+  /**
+   * Return an unchecked builder set to the members of this fault other than
+   * its slip rates, e.g. to read them from the shared {@link SlipRateTable}
+   * of a {@link FaultSet}.
+   */
+  UncheckedBuilder toBuilder() {
+    return uncheckedBuilder()
+        .depth(depth)
+        .dip(dip)
+        .id(id)
+        .name(name)
+        .qFaultId(qFaultId)
+        .trace(trace);
+  }
+
   /** New fault builder */
   static Builder builder() {
     return new Builder();
@@ -117,11 +138,17 @@ public class Fault {
       return (Builder) super.name(validateName(name));
     }
 
+    @Override
+    Builder qFaultId(String qFaultId) {
+      return (Builder) super.qFaultId(qFaultId);
+    }
+
     @Override
     Builder slipRateTree(List<RateModel> slipRateTree) {
       checkNotNull(slipRateTree);
 
       for (RateModel slipRate : slipRateTree) {
+        checkArgument(!Double.isNaN(slipRate.rake()), "Missing rake: %s", slipRate.id());
         checkRake(slipRate.rake());
         // checkWeight(slipRate.rate()); // How do we check rate?
       }
@@ -140,18 +167,7 @@ public class Fault {
      * @param feature The feature
      */
     static Fault fromFeature(Feature feature) {
-      Properties properties = feature.properties();
-
-      Builder builder = builder();
-
-      builder.depth(properties.getDouble(DEPTH))
-          .dip(properties.getDouble(DIP))
-          .id(feature.idAsInt())
-          .name(properties.getString(NAME))
-          .slipRateTree(getSlipRates(properties))
-          .trace(feature.asPolygonBorder());
-
-      return builder.build();
+      return readFeature(builder(), feature);
     }
 
   }
@@ -166,8 +182,9 @@ public class Fault {
 
     private String name;
     private Integer id;
+    private String qFaultId;
     private LocationList trace;
-    private ImmutableList<RateModel> slipRateTree;
+    private List<RateModel> slipRateTree;
     private Double depth;
     private Double dip;
 
@@ -223,13 +240,40 @@ public class Fault {
     }
 
     /**
-     * Set the slip rates.
+     * Set the Quaternary fault database id ({@code cfault_id}).
+     * 
+     * @param qFaultId The qFault id, or {@code null} if not known
+     * @return this builder
+     */
+    UncheckedBuilder qFaultId(String qFaultId) {
+      this.qFaultId = qFaultId;
+      return this;
+    }
+
+    /**
+     * Replace the qFault id and name with their canonical instances, shared by
+     * the sections of a qFault and by faults with the same name.
+     * 
+     * @param interner The interner of the fault set
+     * @return this builder
+     */
+    UncheckedBuilder intern(FaultInterner interner) {
+      qFaultId = interner.qFaultId(qFaultId);
+      name = interner.name(name);
+      return this;
+    }
+
+    /**
+     * Set the slip rates. Lists built by {@link RateModel} or read from a
+     * {@link SlipRateTable} are kept as they are; other lists are packed in a
+     * table of their own. Faults added to a {@link FaultSet} as builders read
+     * their slip rates from the table of the set instead.
      * 
      * @param slipRates Fault slip rates
      * @return this builder
      */
     UncheckedBuilder slipRateTree(List<RateModel> slipRateTree) {
-      this.slipRateTree = ImmutableList.copyOf(slipRateTree);
+      this.slipRateTree = SlipRateTable.pack(slipRateTree);
       return this;
     }
 
@@ -257,18 +301,13 @@ public class Fault {
      * @param feature The feature
      */
     static Fault fromFeature(Feature feature) {
-      Properties properties = feature.properties();
-
-      UncheckedBuilder builder = uncheckedBuilder();
-
-      builder.depth(properties.getDouble(DEPTH))
-          .dip(properties.getDouble(DIP))
-          .id(feature.idAsInt())
-          .name(properties.getString(NAME))
-          .slipRateTree(getSlipRates(properties))
-          .trace(feature.asPolygonBorder());
+      return readFeature(uncheckedBuilder(), feature);
+    }
 
-      return builder.build();
+    /* The fault id, e.g. to sort builders before they are built */
+    int id() {
+      checkState(id != null);
+      return id;
     }
 
     private void validateState() {
@@ -283,10 +322,48 @@ public class Fault {
 
   }
 
+  /**
+   * Set the members of a fault builder from a GeoJSON feature, adding its
+   * rate models to the current slip rate tree of a table rather than setting
+   * the slip rates of the builder, e.g. to add the fault to a
+   * {@link FaultSet.UncheckedBuilder#slipRates() fault set}.
+   * 
+   * @param builder The fault builder
+   * @param feature The feature
+   * @param slipRates The slip rate table
+   * @return the fault builder
+   */
+  static UncheckedBuilder fromFeature(
+      UncheckedBuilder builder,
+      Feature feature,
+      SlipRateTable.Builder slipRates) {
+
+    Properties properties = feature.properties();
+    RateModel.addProperty(slipRates, properties.get(RATE_MODELS));
+
+    return builder.depth(properties.getDouble(DEPTH))
+        .dip(properties.getDouble(DIP))
+        .id(feature.idAsInt())
+        .name(properties.getString(NAME))
+        .qFaultId(getQFaultId(properties))
+        .trace(feature.asPolygonBorder());
+  }
+
+  /* Build a fault from a GeoJSON feature, its slip rates in a table of their own */
+  private static Fault readFeature(UncheckedBuilder builder, Feature feature) {
+    SlipRateTable.Builder slipRates = SlipRateTable.builder();
+    fromFeature(builder, feature, slipRates);
+    return builder.slipRateTree(slipRates.endGroup().build().rateModels(0)).build();
+  }
+
+  /* Get the optional qFault id from GeoJSON property */
+  private static String getQFaultId(Properties properties) {
+    return properties.containsKey(Q_FAULT_ID) ? properties.getString(Q_FAULT_ID) : null;
+  }
+
   /* Get slip rates from GeoJSON property */
-  private static List<RateModel> getSlipRates(Properties properties) {
-    JsonElement slipRatesEl = GSON.toJsonTree(properties.get(RATE_MODELS));
-    return ImmutableList.copyOf(GSON.fromJson(slipRatesEl, RateModel[].class));
+  static List<RateModel> getSlipRates(Properties properties) {
+    return RateModel.fromProperty(properties.get(RATE_MODELS));
   }
 
 }
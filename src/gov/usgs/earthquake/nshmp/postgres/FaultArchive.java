@@ -0,0 +1,274 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.geo.LocationList;
+
+/**
+ * Compact binary archive of a {@link FaultSet}.
+ *
+ * <p> An archive is {@link #write(FaultSet, Path) written} once, e.g. next to
+ * the GeoJSON it was loaded from, and {@link #read(Path) read} by memory
+ * mapping the file and decoding each fault directly from the mapped bytes:
+ * there is no text parsing and no intermediate {@code FeatureCollection}.
+ *
+ * <p> Layout, big-endian; strings are an {@code int} byte length followed by
+ * UTF-8 bytes:
+ *
+ * <pre>
+ * int     magic ("NSHF")
+ * int     version
+ * int     fault set id
+ * string  fault set name
+ * int     number of names in the dictionary
+ * string  dictionary names: rate model ids and rate types
+ * int     number of faults
+ * faults:
+ *   int     id
+ *   string  name
+ *   string  qFault id, length -1 if not set
+ *   double  depth
+ *   double  dip
+ *   int     number of trace locations
+ *   double  lat, lon, depth of each location
+ *   int     number of rate models
+ *   rate models:
+ *     byte    dictionary index of the id, unsigned
+ *     byte    dictionary index of the rate type, unsigned
+ *     double  value, NaN if not set
+ *     double  rake, NaN if not set
+ * </pre>
+ *
+ * <p> The dictionary holds at most {@value #MAX_NAMES} names. Rate models are
+ * read straight into the slip rate table of the fault set.
+ */
+class FaultArchive {
+
+  private static final int MAGIC = 0x4E534846;
+  private static final int VERSION = 2;
+
+  /** The maximum number of dictionary names, indexed by an unsigned byte */
+  static final int MAX_NAMES = 256;
+
+  private FaultArchive() {}
+
+  /**
+   * Write a fault set to an archive.
+   *
+   * @param faultSet The fault set
+   * @param archive The archive file
+   * @throws IOException
+   */
+  static void write(FaultSet faultSet, Path archive) throws IOException {
+    List<String> dictionary = new ArrayList<>();
+
+    for (Fault fault : faultSet) {
+      for (RateModel rateModel : fault.slipRateTree()) {
+        addName(dictionary, rateModel.id());
+        addName(dictionary, rateModel.type().name());
+      }
+    }
+
+    if (dictionary.size() > MAX_NAMES) {
+      throw new IOException("Too many rate model names for a fault archive: " +
+          dictionary.size() + " > " + MAX_NAMES);
+    }
+
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(archive), 1 << 16))) {
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(faultSet.id());
+      writeString(out, faultSet.name());
+
+      out.writeInt(dictionary.size());
+      for (String name : dictionary) {
+        writeString(out, name);
+      }
+
+      out.writeInt(faultSet.sources().size());
+
+      for (Fault fault : faultSet) {
+        out.writeInt(fault.id());
+        writeString(out, fault.name());
+        writeString(out, fault.qFaultId().orElse(null));
+        out.writeDouble(fault.depth());
+        out.writeDouble(fault.dip());
+
+        out.writeInt(fault.trace().size());
+        for (Location loc : fault.trace()) {
+          out.writeDouble(loc.lat());
+          out.writeDouble(loc.lon());
+          out.writeDouble(loc.depth());
+        }
+
+        out.writeInt(fault.slipRateTree().size());
+        for (RateModel rateModel : fault.slipRateTree()) {
+          out.writeByte(dictionary.indexOf(rateModel.id()));
+          out.writeByte(dictionary.indexOf(rateModel.type().name()));
+          out.writeDouble(rateModel.value());
+          out.writeDouble(rateModel.rake());
+        }
+      }
+    }
+  }
+
+  /**
+   * Read a fault set from a memory mapped archive. Faults are read with the
+   * unchecked builders, as the fault set may have been loaded from a table
+   * with rate models that have no rake; rate models are added to the slip
+   * rate table of the fault set as they are read.
+   *
+   * @param archive The archive file
+   * @throws IOException if the file could not be read or is not a valid
+   *         archive
+   */
+  static FaultSet read(Path archive) throws IOException {
+    MappedByteBuffer buffer;
+
+    try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+      buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    try {
+      return read(buffer);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("Truncated fault archive: " + archive, e);
+    }
+  }
+
+  private static FaultSet read(ByteBuffer buffer) throws IOException {
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Not a fault archive");
+    }
+
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported fault archive version: " + version);
+    }
+
+    FaultSet.UncheckedBuilder faultSet = FaultSet.uncheckedBuilder()
+        .id(buffer.getInt())
+        .name(readString(buffer));
+
+    int names = buffer.getInt();
+    if (names < 0 || names > MAX_NAMES) {
+      throw new IOException("Invalid fault archive dictionary size: " + names);
+    }
+
+    String[] dictionary = new String[names];
+    RateType[] types = new RateType[names];
+
+    for (int index = 0; index < dictionary.length; index++) {
+      dictionary[index] = readString(buffer);
+      types[index] = rateType(dictionary[index]);
+    }
+
+    int faults = buffer.getInt();
+
+    for (int fault = 0; fault < faults; fault++) {
+      Fault.UncheckedBuilder builder = Fault.uncheckedBuilder();
+      builder.id(buffer.getInt())
+          .name(readString(buffer))
+          .qFaultId(readString(buffer))
+          .depth(buffer.getDouble())
+          .dip(buffer.getDouble());
+
+      int locations = buffer.getInt();
+      LocationList.Builder trace = LocationList.builder();
+
+      for (int loc = 0; loc < locations; loc++) {
+        trace.add(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+      }
+
+      int rateModels = buffer.getInt();
+
+      for (int rateModel = 0; rateModel < rateModels; rateModel++) {
+        String id = dictionary[index(buffer, names)];
+        int type = index(buffer, names);
+
+        if (types[type] == null) {
+          throw new IOException("Not a rate type in fault archive: " + dictionary[type]);
+        }
+
+        RateModel.add(
+            faultSet.slipRates(),
+            id,
+            types[type],
+            buffer.getDouble(),
+            buffer.getDouble());
+      }
+
+      faultSet.add(builder.trace(trace.build()));
+    }
+
+    if (buffer.hasRemaining()) {
+      throw new IOException("Unexpected trailing bytes in fault archive");
+    }
+
+    return faultSet.build();
+  }
+
+  /* Read an unsigned dictionary index */
+  private static int index(ByteBuffer buffer, int names) throws IOException {
+    int index = buffer.get() & 0xff;
+
+    if (index >= names) {
+      throw new IOException("Invalid fault archive dictionary index: " + index +
+          " of " + names + " names");
+    }
+
+    return index;
+  }
+
+  private static void addName(List<String> dictionary, String name) {
+    if (!dictionary.contains(name)) {
+      dictionary.add(name);
+    }
+  }
+
+  /* Dictionary names that are not rate types map to null */
+  private static RateType rateType(String name) {
+    for (RateType type : RateType.values()) {
+      if (type.name().equals(name)) return type;
+    }
+    return null;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) return null;
+
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+}
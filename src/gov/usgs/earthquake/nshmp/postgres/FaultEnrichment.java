@@ -0,0 +1,130 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Enrichment stage of {@link FaultExporter}: adds per-fault attributes from
+ * one or more {@link AttributeTable}s, e.g. the maximum magnitude, to each
+ * exported feature.
+ *
+ * <p> The tables are read once, by {@link #load()}, when an export starts, so
+ * a missing or invalid table stops the export before any file is written.
+ * They are compiled into a single immutable hash lookup from
+ * {@code cfault_id} to the properties of the fault, so enriching a row is one
+ * lookup. When tables export the same property for a fault, later tables
+ * override earlier ones.
+ */
+class FaultEnrichment {
+
+  private final List<AttributeTable> tables;
+  private volatile ImmutableMap<String, ImmutableList<Attribute>> attributes;
+
+  private FaultEnrichment(List<AttributeTable> tables) {
+    this.tables = ImmutableList.copyOf(tables);
+  }
+
+  /**
+   * Create an enrichment stage.
+   *
+   * @param tables The attribute tables, in override order
+   */
+  static FaultEnrichment of(AttributeTable... tables) {
+    return new FaultEnrichment(ImmutableList.copyOf(tables));
+  }
+
+  /** The default enrichment: {@link AttributeTable#maxMagnitudes()} */
+  static FaultEnrichment defaults() {
+    return of(AttributeTable.maxMagnitudes());
+  }
+
+  /** The attribute tables */
+  List<AttributeTable> tables() {
+    return tables;
+  }
+
+  /**
+   * Read and compile the attribute tables, if not already loaded.
+   *
+   * @throws IOException if a table could not be read or is invalid
+   */
+  synchronized void load() throws IOException {
+    if (attributes != null) return;
+
+    Map<String, Map<String, Object>> properties = new LinkedHashMap<>();
+
+    for (AttributeTable table : tables) {
+      for (Entry<String, ImmutableMap<String, Object>> fault : table.load().entrySet()) {
+        properties.computeIfAbsent(fault.getKey(), key -> new LinkedHashMap<>())
+            .putAll(fault.getValue());
+      }
+    }
+
+    ImmutableMap.Builder<String, ImmutableList<Attribute>> compiled = ImmutableMap.builder();
+
+    for (Entry<String, Map<String, Object>> fault : properties.entrySet()) {
+      ImmutableList.Builder<Attribute> faultAttributes = ImmutableList.builder();
+
+      for (Entry<String, Object> property : fault.getValue().entrySet()) {
+        faultAttributes.add(new Attribute(property.getKey(), property.getValue()));
+      }
+
+      compiled.put(fault.getKey(), faultAttributes.build());
+    }
+
+    attributes = compiled.build();
+  }
+
+  /**
+   * Return the attributes of a fault, in table and column order.
+   *
+   * @param cfaultId The fault {@code cfault_id}, may be {@code null}
+   * @throws IllegalStateException if the tables are not loaded
+   */
+  List<Attribute> attributes(String cfaultId) {
+    ImmutableMap<String, ImmutableList<Attribute>> attributes = this.attributes;
+    checkState(attributes != null, "Fault enrichment is not loaded");
+
+    if (cfaultId == null) return ImmutableList.of();
+    ImmutableList<Attribute> faultAttributes = attributes.get(cfaultId);
+    return faultAttributes == null ? ImmutableList.of() : faultAttributes;
+  }
+
+  @Override
+  public String toString() {
+    return "FaultEnrichment [tables=" + tables + "]";
+  }
+
+  /** A GeoJSON property of a fault */
+  static final class Attribute {
+
+    private final String name;
+    private final Object value;
+
+    private Attribute(String name, Object value) {
+      this.name = checkNotNull(name);
+      this.value = checkNotNull(value);
+    }
+
+    /** The property name */
+    String name() {
+      return name;
+    }
+
+    /** The value, a {@code Double} or a {@code String} */
+    Object value() {
+      return value;
+    }
+
+  }
+
+}
@@ -1,15 +1,14 @@
 package gov.usgs.earthquake.nshmp.postgres;
 
-import static gov.usgs.earthquake.nshmp.postgres.Util.CFAULT_ID_SKIP;
-import static gov.usgs.earthquake.nshmp.postgres.Util.MAX_MAGNITUDES;
-import static gov.usgs.earthquake.nshmp.postgres.Util.getSQLDouble;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.CFAULT_ID;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.DEPTH;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.DIP;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.FAULT_TRACE;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.GEO_RAKE;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.ID;
-import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.M_MAX;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.NAME;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.PRIMARY_STATE;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.PROBABILITY_OF_ACTIVITY;
@@ -17,7 +16,9 @@ import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.Q_FAULT_ID;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.RATE_MODELS;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.STATE_ABBREV;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.UPPER_DEPTH;
+import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.WKB_FAULT_TRACE;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.WKT_FAULT_TRACE;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -26,12 +27,22 @@ import java.nio.file.Paths;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.gson.stream.JsonWriter;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.ParseException;
@@ -39,7 +50,6 @@ import com.vividsolutions.jts.io.WKTReader;
 
 import gov.usgs.earthquake.nshmp.geo.LocationList;
 import gov.usgs.earthquake.nshmp.geo.json.Feature;
-import gov.usgs.earthquake.nshmp.geo.json.GeoJson;
 import gov.usgs.earthquake.nshmp.geo.json.Properties;
 
 /**
@@ -52,52 +62,449 @@ import gov.usgs.earthquake.nshmp.geo.json.Properties;
  *    <li> password: password for database </li>
  *    <li> url: Database url of form jdbc:postgresql:host:port </li>
  *    <li> username: Database username </li>
+ *    <li> maxConnections: Optional maximum number of pooled connections </li>
+ *    <li> fetchSize: Optional number of fault rows fetched per round trip </li>
+ *    <li> statementCacheSize: Optional number of prepared statements cached
+ *         per connection </li>
  * </ul>
  * 
+ * <p> The main method accepts the options described in
+ * {@link #configure(String[])}.
+ * 
  * @author Brandon Clayton
  */
 public class FaultExporter {
-  
+
+  /** Default number of export workers (serial export) */
+  static final int DEFAULT_THREADS = 1;
+
+  /** Default number of feature conversion threads */
+  static final int DEFAULT_CONVERTERS = 1;
+
+  /** Default number of file writer threads */
+  static final int DEFAULT_WRITERS = 1;
+
+  /*
+   * WKT parser of each conversion thread; a WKTReader is not thread safe and
+   * allocates its geometry factory and tokenizer state when created.
+   */
+  private static final ThreadLocal<WKTReader> WKT_READER =
+      ThreadLocal.withInitial(WKTReader::new);
+
   PostgreSQL postgres;
   Path outputPath;
-  
+  int threads;
+  int converters;
+  int writers;
+  boolean singlePass;
+  PostgreSQL.CopyFormat copyFormat;
+  boolean binaryTraces;
+  FaultWriter.Mode outputMode;
+  boolean incremental;
+  boolean streaming;
+  boolean compress;
+  FaultEnrichment enrichment;
+  MetricsRegistry metrics;
+
+  /* Columns of the fault fields read from every row, see resolve() */
+  FaultRecord.Column cfaultIdColumn;
+  FaultRecord.Column dipColumn;
+  FaultRecord.Column geoRakeColumn;
+  FaultRecord.Column idColumn;
+  FaultRecord.Column nameColumn;
+  FaultRecord.Column probabilityOfActivityColumn;
+  FaultRecord.Column stateAbbrevColumn;
+  FaultRecord.Column upperDepthColumn;
+  FaultRecord.Column traceColumn;
+
+  private ExportPipeline<FaultWriter.Output, FaultWriter.Output> pipeline;
+  private FaultWriter writer;
+  private FaultRecord.Columns columns;
+
   FaultExporter(String table) throws IOException {
-    postgres = Util.getPostgres(table);
+    this(Util.getPostgres(table));
+  }
+
+  /**
+   * Create an exporter of a database table. The database is not connected
+   * until {@link #export()}.
+   * 
+   * @param postgres The database
+   */
+  FaultExporter(PostgreSQL postgres) {
+    this.postgres = postgres;
     outputPath = Paths.get("faults", postgres.table());
+    threads = DEFAULT_THREADS;
+    converters = DEFAULT_CONVERTERS;
+    writers = DEFAULT_WRITERS;
+    binaryTraces = false;
+    outputMode = FaultWriter.Mode.FEATURE;
+    streaming = false;
+    enrichment = FaultEnrichment.defaults();
+    metrics = new ExportMetrics();
   }
 
   /**
-   * Query the PostgreSQL database and write a GeoJSON file for each fault.
+   * Set the number of export workers. Each worker owns a pooled database
+   * connection and exports whole states, so no more than one worker per state,
+   * or per pooled connection, is used.
    * 
-   * @param postgres PostgreSQL to query
-   * @param out Output path for GeoJSON files
+   * @param threads The number of workers
+   * @return this exporter
    */
-  void export() {
+  FaultExporter threads(int threads) {
+    checkArgument(threads > 0, "Threads must be positive: %s", threads);
+    this.threads = threads;
+    return this;
+  }
 
-    try {
-      postgres.connect();
-      Set<String> states = getDistinctStates(postgres);
+  /**
+   * Set the number of threads converting fault rows to features.
+   * 
+   * @param converters The number of conversion threads
+   * @return this exporter
+   * @see ExportPipeline
+   */
+  FaultExporter converters(int converters) {
+    checkArgument(converters > 0, "Converters must be positive: %s", converters);
+    this.converters = converters;
+    return this;
+  }
 
-      System.out.println("Creating GeoJSON files for: ");
+  /**
+   * Set the number of threads serializing and writing GeoJSON files.
+   * 
+   * @param writers The number of writer threads
+   * @return this exporter
+   * @see ExportPipeline
+   */
+  FaultExporter writers(int writers) {
+    checkArgument(writers > 0, "Writers must be positive: %s", writers);
+    this.writers = writers;
+    return this;
+  }
 
-      for (String stateAbbrev : states) {
-        System.out.println(stateAbbrev);
+  /**
+   * Set whether to export with a single query ordered by state and name,
+   * splitting the rows into per-state directories as they stream in, rather
+   * than one query per state. A single pass export uses one connection and
+   * ignores {@link #threads(int)}.
+   * 
+   * @param singlePass Whether to export in a single pass
+   * @return this exporter
+   */
+  FaultExporter singlePass(boolean singlePass) {
+    this.singlePass = singlePass;
+    return this;
+  }
 
-        Path faultOut = outputPath.resolve(stateAbbrev);
-        Files.createDirectories(faultOut);
+  /**
+   * Set whether to extract the table in bulk with
+   * {@code COPY (SELECT ...) TO STDOUT} rather than a {@code SELECT} read
+   * through the JDBC row protocol, decoding the copy stream directly into
+   * fault records. The query selects the same
+   * {@link #getSQLSelectFields() fields}. A copy export is a single pass
+   * export, see {@link #singlePass(boolean)}.
+   * 
+   * @param copyFormat The copy format, or {@code null} to {@code SELECT}
+   * @return this exporter
+   * @see PostgreSQL.Session#copy(String, PostgreSQL.CopyFormat)
+   */
+  FaultExporter copy(PostgreSQL.CopyFormat copyFormat) {
+    this.copyFormat = copyFormat;
+    return this;
+  }
+
+  /**
+   * Set whether fault traces are transferred as well-known binary
+   * ({@code ST_AsBinary}) and decoded directly into a {@code LocationList}, or
+   * as well-known text ({@code ST_AsText}) parsed with JTS. Text transfer is
+   * the default, as it reproduces the coordinates of earlier exports, which
+   * PostGIS rounds to 15 significant digits. Binary transfer is faster and
+   * carries the stored coordinates exactly, so its output, and the manifest
+   * hashes of an incremental export, differ from text transfer in the last
+   * digits.
+   * 
+   * @param binaryTraces Whether to transfer traces as WKB
+   * @return this exporter
+   */
+  FaultExporter binaryTraces(boolean binaryTraces) {
+    this.binaryTraces = binaryTraces;
+    return this;
+  }
 
-        ResultSet result = queryFault(postgres, stateAbbrev);
-        writeFiles(result, faultOut);
+  /**
+   * Set the output layout. The default, {@link FaultWriter.Mode#FEATURE},
+   * writes one file per fault; the other layouts aggregate faults per state
+   * or per table and write each file sequentially through a buffered stream.
+   * 
+   * @param outputMode The output layout
+   * @return this exporter
+   */
+  FaultExporter outputMode(FaultWriter.Mode outputMode) {
+    this.outputMode = checkNotNull(outputMode);
+    return this;
+  }
 
-        result.close();
+  /**
+   * Set whether to export incrementally. An incremental export keeps a
+   * manifest of the content hash of each fault file, keyed by fault
+   * {@code id} and {@code cfault_id}, in {@code faults/<table>.manifest}. Only
+   * files whose content changed, including derived properties, are rewritten,
+   * and the files of faults no longer in the table are deleted. Requires the
+   * {@link FaultWriter.Mode#FEATURE FEATURE} output layout.
+   * 
+   * @param incremental Whether to export incrementally
+   * @return this exporter
+   * @see ExportManifest
+   */
+  FaultExporter incremental(boolean incremental) {
+    this.incremental = incremental;
+    return this;
+  }
+
+  /**
+   * Set whether fault features are streamed straight from the query rows to
+   * JSON text with a {@link GeoJsonWriter}, rather than built as
+   * {@code Feature} objects and serialized with {@code GeoJson}, the default.
+   * Streaming is meant to produce the same files; it stays opt-in until
+   * {@code GeoJsonWriterTest} has run against the {@code GeoJson} output in
+   * the full build.
+   * 
+   * @param streaming Whether to stream features
+   * @return this exporter
+   */
+  FaultExporter streaming(boolean streaming) {
+    this.streaming = streaming;
+    return this;
+  }
+
+  /**
+   * Set whether output files are gzip compressed, adding {@code .gz} to each
+   * file name. {@link FaultWriter.Mode#FEATURE FEATURE} files are compressed
+   * by the writer threads as they are written. {@code STATE}, {@code TABLE}
+   * and {@code NDJSON} output is cut into chunks compressed on a separate
+   * pool of compression threads, so those {@code .gz} files are
+   * concatenations of gzip members: {@code GZIPInputStream} and the gzip tool
+   * read them as one stream, but other readers must support multi-member
+   * files. {@link FaultSet.UncheckedBuilder#fromGeoJson(String, int, Path)} reads
+   * compressed files directly.
+   * 
+   * @param compress Whether to compress output files
+   * @return this exporter
+   */
+  FaultExporter compress(boolean compress) {
+    this.compress = compress;
+    return this;
+  }
+
+  /**
+   * Set the enrichment stage that adds per-fault attributes, by default the
+   * maximum magnitudes of {@link AttributeTable#maxMagnitudes()}. Its tables
+   * are loaded when the export starts.
+   * 
+   * @param enrichment The enrichment stage
+   * @return this exporter
+   */
+  FaultExporter enrichment(FaultEnrichment enrichment) {
+    this.enrichment = checkNotNull(enrichment);
+    return this;
+  }
+
+  /**
+   * Set the registry recording per-stage timings, per-state totals and the
+   * slowest faults, by default an {@link ExportMetrics}. The registry is also
+   * set on the database, to record query times. Unless it is
+   * {@link MetricsRegistry#NONE}, its summary is written to
+   * {@code faults/<table>.metrics.json} at the end of {@link #export()}.
+   * 
+   * @param metrics The metrics registry
+   * @return this exporter
+   */
+  FaultExporter metrics(MetricsRegistry metrics) {
+    this.metrics = checkNotNull(metrics);
+    return this;
+  }
+
+  /**
+   * Configure this exporter from main method arguments:
+   * <ul>
+   *   <li> --threads=N: number of export workers, see {@link #threads(int)} </li>
+   *   <li> --converters=N: number of conversion threads, see
+   *       {@link #converters(int)} </li>
+   *   <li> --writers=N: number of writer threads, see {@link #writers(int)} </li>
+   *   <li> --single-pass: export in a single query, see
+   *       {@link #singlePass(boolean)} </li>
+   *   <li> --copy[=BINARY|CSV]: extract with COPY, in binary format by
+   *       default, see {@link #copy(PostgreSQL.CopyFormat)} </li>
+   *   <li> --wkb-traces: transfer fault traces as binary, see
+   *       {@link #binaryTraces(boolean)} </li>
+   *   <li> --wkt-traces: transfer fault traces as text, the default </li>
+   *   <li> --output=FEATURE|STATE|TABLE|NDJSON: output layout, see
+   *       {@link #outputMode(FaultWriter.Mode)} </li>
+   *   <li> --incremental: rewrite only changed faults, see
+   *       {@link #incremental(boolean)} </li>
+   *   <li> --streaming: stream features to JSON without building them, see
+   *       {@link #streaming(boolean)} </li>
+   *   <li> --gzip: compress output files, see {@link #compress(boolean)} </li>
+   *   <li> --no-metrics: do not record metrics, see
+   *       {@link #metrics(MetricsRegistry)} </li>
+   * </ul>
+   * 
+   * @param args The main method arguments
+   * @return this exporter
+   */
+  FaultExporter configure(String[] args) {
+    for (String arg : args) {
+      List<String> option = Splitter.on('=').limit(2).splitToList(arg);
+      String value = option.size() > 1 ? option.get(1) : null;
+
+      switch (option.get(0)) {
+        case "--threads":
+          threads(parseInt(arg, value));
+          break;
+        case "--converters":
+          converters(parseInt(arg, value));
+          break;
+        case "--writers":
+          writers(parseInt(arg, value));
+          break;
+        case "--single-pass":
+          singlePass(true);
+          break;
+        case "--copy":
+          copy(value == null ? PostgreSQL.CopyFormat.BINARY
+              : PostgreSQL.CopyFormat.valueOf(value.toUpperCase()));
+          break;
+        case "--wkb-traces":
+          binaryTraces(true);
+          break;
+        case "--wkt-traces":
+          binaryTraces(false);
+          break;
+        case "--output":
+          outputMode(FaultWriter.Mode.valueOf(
+              checkNotNull(value, "Missing value: %s", arg).toUpperCase()));
+          break;
+        case "--incremental":
+          incremental(true);
+          break;
+        case "--streaming":
+          streaming(true);
+          break;
+        case "--gzip":
+          compress(true);
+          break;
+        case "--no-metrics":
+          metrics(MetricsRegistry.NONE);
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported argument: " + arg);
       }
+    }
+
+    return this;
+  }
+
+  /**
+   * Query the PostgreSQL database and write the faults as GeoJSON, by default
+   * a file for each fault.
+   * 
+   * <p> States are exported in alphabetical order. When exporting state by
+   * state, states are handed out to the workers in alphabetical order and
+   * each state is written to its own directory by a single worker, so the
+   * console output and the resulting file tree do not depend on the number of
+   * workers or on the export mode.
+   * 
+   * <p> Rows are read by the export workers and handed to an
+   * {@link ExportPipeline} that converts them to features and writes the
+   * files on separate threads. Rows for the same file are always written in
+   * query order. Pipeline stage and rendering metrics are printed to standard
+   * error, and the summary of the {@link #metrics(MetricsRegistry) metrics
+   * registry}, with the pipeline and connection pool metrics, is written to
+   * {@code faults/<table>.metrics.json}. A flight recording shows a
+   * {@link ExportEvents} event for each query, state and fault.
+   * 
+   * <p> If the export fails, the pipeline is stopped, open output files are
+   * closed without being completed, the connection pool is closed and the
+   * failure is rethrown. Files already written are left in place and the
+   * manifest of an incremental export is not updated.
+   * 
+   * @throws IOException if the manifest of an incremental export or an
+   *         attribute table of the enrichment stage could not be read, or an
+   *         output file could not be written
+   * @throws SQLException if a query failed
+   * @throws ClassNotFoundException if the PostgreSQL driver is not available
+   * @throws InterruptedException if interrupted while waiting on the pipeline
+   * @throws ExportPipeline.PipelineException if a pipeline stage failed
+   */
+  void export()
+      throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+    columns = null;
+    enrichment.load();
+    ExportManifest manifest = incremental ? ExportManifest.load(outputPath) : null;
+    writer = FaultWriter.create(
+        outputMode,
+        outputPath,
+        postgres.table(),
+        manifest,
+        compress);
+    pipeline = new ExportPipeline<>(
+        this::convert,
+        converters,
+        this::write,
+        writers,
+        ExportPipeline.DEFAULT_QUEUE_CAPACITY);
+
+    ConnectionPool.Metrics poolMetrics;
 
-      postgres.close();
+    try {
+      postgres.metrics(metrics);
+      postgres.connect();
 
-      System.out.println("Files located in [" + outputPath.toString() + "]");
+      try {
+        if (singlePass || copyFormat != null) {
+          System.out.println("Creating GeoJSON files for: ");
+          exportSinglePass();
+        } else {
+          exportByState();
+        }
+
+        pipeline.finish();
+        writer.close();
+        poolMetrics = postgres.poolMetrics();
+      } finally {
+        postgres.close();
+      }
     } catch (Exception e) {
-      e.printStackTrace();
+      pipeline.abort();
+      try {
+        writer.abort();
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
     }
+
+    if (manifest != null) {
+      manifest.commit();
+      System.out.println(manifest);
+    }
+
+    System.out.println("Files located in [" + outputPath.toString() + "]");
+    pipeline.metrics().forEach(System.err::println);
+    System.err.println(writer.metrics());
+
+    if (metrics != MetricsRegistry.NONE) {
+      Path metricsPath = writeMetrics(poolMetrics);
+      System.err.println(metrics);
+      System.err.println("Metrics located in [" + metricsPath + "]");
+    }
+  }
+
+  /* Parse an integer option value */
+  private static int parseInt(String arg, String value) {
+    return Integer.parseInt(checkNotNull(value, "Missing value: %s", arg));
   }
 
   /** Returns a list of strings of all fields to query */
@@ -112,115 +519,437 @@ public class FaultExporter {
     selectFields.add(PROBABILITY_OF_ACTIVITY);
     selectFields.add(STATE_ABBREV);
     selectFields.add(UPPER_DEPTH);
-    selectFields.add(WKT_FAULT_TRACE);
+    selectFields.add(binaryTraces ? WKB_FAULT_TRACE : WKT_FAULT_TRACE);
 
     return selectFields;
   }
 
+  /**
+   * Resolve the columns read from each row from the columns of a query. The
+   * first query of an export resolves them with
+   * {@link #resolveColumns(FaultRecord.Columns)}; every later query must have
+   * the same columns.
+   * 
+   * @param columns The columns of a query
+   * @throws IllegalStateException if the columns differ from the first query
+   */
+  synchronized void resolve(FaultRecord.Columns columns) {
+    if (this.columns == null) {
+      resolveColumns(columns);
+      this.columns = columns;
+      return;
+    }
+    checkState(this.columns.equals(columns), "Query columns differ from the first query");
+  }
+
+  /**
+   * Resolve the columns of the fields read by this exporter, once per export.
+   * Subclasses reading other fields resolve them here, after calling super.
+   * 
+   * @param columns The columns of the first query
+   */
+  void resolveColumns(FaultRecord.Columns columns) {
+    cfaultIdColumn = columns.column(CFAULT_ID);
+    dipColumn = columns.column(DIP);
+    /* Not every table has a geo rake */
+    geoRakeColumn = columns.contains(GEO_RAKE) ? columns.column(GEO_RAKE) : null;
+    idColumn = columns.column(ID);
+    nameColumn = columns.column(NAME);
+    probabilityOfActivityColumn = columns.column(PROBABILITY_OF_ACTIVITY);
+    stateAbbrevColumn = columns.column(STATE_ABBREV);
+    upperDepthColumn = columns.column(UPPER_DEPTH);
+    traceColumn = columns.column(FAULT_TRACE);
+  }
+
   /**
    * Returns a list of rate models.
    * 
-   * @param result The PostgreSQL result set
-   * @throws SQLException
+   * @param record The fault record
    */
-  List<RateModel> getRateModels(ResultSet result) throws SQLException {
-    return checkProbabilityOfActivity(result, getSQLDouble(result, GEO_RAKE));
+  List<RateModel> getRateModels(FaultRecord record) {
+    Double rake = geoRakeColumn == null ? null : record.getDouble(geoRakeColumn);
+    return checkProbabilityOfActivity(record, rake);
   }
 
   /**
    * Returns a rate model of a priori if POA < 1, else an empty list of rate models.
    * 
-   * @param result The PostgreSQL result set
+   * @param record The fault record
    * @param rake The rake
-   * @throws SQLException
    */
-  List<RateModel> checkProbabilityOfActivity(ResultSet result, Double rake) throws SQLException {
-    Double probOfActivity = getSQLDouble(result, PROBABILITY_OF_ACTIVITY);
+  List<RateModel> checkProbabilityOfActivity(FaultRecord record, Double rake) {
+    Double probOfActivity = record.getDouble(probabilityOfActivityColumn);
     RateModel.Builder rateModel = RateModel.builder();
     
     if (probOfActivity != null && probOfActivity < 1) {
-      rateModel.aPriori(probOfActivity, getSQLDouble(result, GEO_RAKE));
+      rateModel.aPriori(probOfActivity, rake);
     }
     
     return rateModel.build();
   }
 
   /* Create a list of states that are in the database */
-  private Set<String> getDistinctStates(PostgreSQL postgres)
-      throws SQLException {
+  private Set<String> getDistinctStates() throws SQLException {
+    try (PostgreSQL.Session session = postgres.session()) {
+      ResultSet result = PostgreSQL.queryBuilder()
+          .selectDistinct(STATE_ABBREV)
+          .from(postgres.table())
+          .orderByAscend(STATE_ABBREV)
+          .query(session);
+
+      Set<String> states = new TreeSet<>();
+
+      while (result.next()) {
+        states.add(result.getString(STATE_ABBREV));
+      }
+
+      return states;
+    }
+  }
+
+  /* Query the states, then export each state on the worker pool */
+  private void exportByState() throws SQLException {
+    Set<String> states = getDistinctStates();
 
-    ResultSet result = PostgreSQL.queryBuilder()
-        .selectDistinct(STATE_ABBREV)
+    System.out.println("Creating GeoJSON files for: ");
+
+    Queue<String> pending = new ConcurrentLinkedQueue<>(states);
+    Map<String, CompletableFuture<Void>> exported = new LinkedHashMap<>();
+    states.forEach(state -> exported.put(state, new CompletableFuture<>()));
+
+    int workers = Math.max(1, Math.min(
+        Math.min(threads, postgres.maxConnections()),
+        states.size()));
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+
+    try {
+      for (int worker = 0; worker < workers; worker++) {
+        executor.execute(() -> exportStates(pending, exported));
+      }
+
+      for (Entry<String, CompletableFuture<Void>> entry : exported.entrySet()) {
+        entry.getValue().join();
+        System.out.println(entry.getKey());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /*
+   * Query all faults ordered by state and name in one streaming query, or
+   * one COPY, and start a new state directory whenever the state changes.
+   */
+  private void exportSinglePass()
+      throws IOException, InterruptedException, SQLException {
+    PostgreSQL.QueryBuilder query = PostgreSQL.queryBuilder()
+        .select(selectFields())
         .from(postgres.table())
-        .orderByAscend(STATE_ABBREV)
-        .query(postgres);
+        .orderByAscend(STATE_ABBREV + "," + NAME);
+
+    try (PostgreSQL.Session session = postgres.session();
+        FaultRecord.Reader reader = copyFormat == null ?
+            query.records(session) :
+            query.copy(session, copyFormat)) {
+      resolve(reader.columns());
+      FaultRecord record;
+      String stateAbbrev = null;
+      Object stateEvent = null;
+      long stateFaults = 0;
+
+      while ((record = next(reader)) != null) {
+        String rowState = record.getString(stateAbbrevColumn);
+
+        if (!rowState.equals(stateAbbrev)) {
+          ExportEvents.commitState(stateEvent, stateFaults);
+
+          stateAbbrev = rowState;
+          System.out.println(stateAbbrev);
+          writer.startState(stateAbbrev);
+
+          stateEvent = ExportEvents.beginState(stateAbbrev);
+          stateFaults = 0;
+        }
+
+        submit(record, stateAbbrev);
+        stateFaults++;
+      }
 
-    Set<String> states = new TreeSet<>();
+      ExportEvents.commitState(stateEvent, stateFaults);
+    }
+  }
+
+  /*
+   * Export states from the queue in a dedicated session until the queue is
+   * empty, completing the future of each state as it is written. If no
+   * connection can be borrowed, the states still pending are failed so that
+   * export() does not wait on them.
+   */
+  private void exportStates(
+      Queue<String> pending,
+      Map<String, CompletableFuture<Void>> exported) {
+
+    try (PostgreSQL.Session session = postgres.session()) {
+      String stateAbbrev;
+
+      while ((stateAbbrev = pending.poll()) != null) {
+        try {
+          exportState(session, stateAbbrev);
+          exported.get(stateAbbrev).complete(null);
+        } catch (Exception e) {
+          exported.get(stateAbbrev).completeExceptionally(e);
+        }
+      }
+    } catch (Exception e) {
+      String stateAbbrev;
 
-    while (result.next()) {
-      states.add(result.getString(STATE_ABBREV));
+      while ((stateAbbrev = pending.poll()) != null) {
+        exported.get(stateAbbrev).completeExceptionally(e);
+      }
     }
+  }
+
+  /* Query and write all faults for a state */
+  private void exportState(PostgreSQL.Session session, String stateAbbrev)
+      throws IOException, InterruptedException, SQLException {
+
+    Object event = ExportEvents.beginState(stateAbbrev);
+    writer.startState(stateAbbrev);
 
-    return states;
+    try (FaultRecord.Reader reader = queryFault(session, stateAbbrev)) {
+      resolve(reader.columns());
+      ExportEvents.commitState(event, writeFiles(reader, stateAbbrev));
+    }
   }
 
-  /* Query fault database */
-  private ResultSet queryFault(PostgreSQL postgres, String stateAbbrev) throws SQLException {
-    String selectFields = getSQLSelectFields()
-        .stream()
-        .collect(Collectors.joining(","));
-    
+  /* Query fault database, streaming rows through a server-side cursor */
+  private FaultRecord.Reader queryFault(PostgreSQL.Session session, String stateAbbrev)
+      throws SQLException {
+
     return PostgreSQL.queryBuilder()
-        .select(selectFields)
+        .select(selectFields())
         .from(postgres.table())
-        .where(STATE_ABBREV + "='" + stateAbbrev + "'")
+        .whereEquals(STATE_ABBREV, stateAbbrev)
         .orderByAscend(NAME)
-        .query(postgres);
+        .records(session);
+  }
+
+  /* Submit each fault of a state, returning the number of faults */
+  private long writeFiles(FaultRecord.Reader reader, String stateAbbrev)
+      throws InterruptedException, SQLException {
+
+    FaultRecord record;
+    long faults = 0;
+
+    while ((record = next(reader)) != null) {
+      submit(record, stateAbbrev);
+      faults++;
+    }
+
+    return faults;
+  }
+
+  /* Fetch and decode the next row, timed as the DECODE stage */
+  private FaultRecord next(FaultRecord.Reader reader) throws SQLException {
+    long start = System.nanoTime();
+    FaultRecord record = reader.next();
+
+    if (record != null) {
+      metrics.record(MetricsRegistry.Stage.DECODE, System.nanoTime() - start, 0);
+    }
+
+    return record;
+  }
+
+  /* Submit a fault to the pipeline, routed by its output file */
+  private void submit(FaultRecord record, String stateAbbrev) throws InterruptedException {
+    FaultWriter.Output output = new FaultWriter.Output(
+        stateAbbrev,
+        cleanName(record.getString(nameColumn)),
+        record.getInt(idColumn),
+        record.getString(cfaultIdColumn),
+        record);
+
+    output.event = ExportEvents.beginFault();
+    pipeline.submit(writer.key(output), output);
+  }
+
+  /* Pipeline conversion stage: render the record to JSON text */
+  private FaultWriter.Output convert(FaultWriter.Output output)
+      throws IOException, ParseException {
+
+    long start = System.nanoTime();
+    LocationList trace = trace(output.record);
+    output.tracePoints = trace.size();
+
+    if (streaming) {
+      output.json = writer.render(json -> writeFeature(json, output.record, trace));
+    } else {
+      output.json = writer.render(resultToFeature(output.record, trace));
+    }
+
+    output.convertNanos = System.nanoTime() - start;
+    metrics.record(MetricsRegistry.Stage.RENDER, output.convertNanos, output.json.length());
+    return output;
+  }
+
+  /* Pipeline write stage: write the fault */
+  private void write(FaultWriter.Output output) throws IOException {
+    long start = System.nanoTime();
+    writer.write(output);
+
+    long nanos = System.nanoTime() - start;
+    metrics.record(MetricsRegistry.Stage.WRITE, nanos, output.json.length());
+    metrics.fault(
+        output.state,
+        output.id,
+        output.name,
+        output.convertNanos + nanos,
+        output.json.length());
+
+    ExportEvents.commitFault(
+        output.event,
+        output.id,
+        output.state,
+        output.tracePoints,
+        output.json.length());
   }
 
-  /* Write a GeoJson file for each fault */
-  private void writeFiles(ResultSet result, Path faultOut)
-      throws IOException, ParseException, SQLException {
+  /*
+   * Write the metrics summary, with the pipeline and connection pool metrics,
+   * next to the output directory.
+   */
+  private Path writeMetrics(ConnectionPool.Metrics pool) throws IOException {
+    Path path = outputPath.resolveSibling(outputPath.getFileName() + ".metrics.json");
+    Files.createDirectories(path.getParent());
+
+    try (JsonWriter json = new JsonWriter(Files.newBufferedWriter(path, UTF_8))) {
+      json.setIndent("  ");
+      json.beginObject();
+      json.name("table").value(postgres.table());
+      json.name("output").value(outputMode.name());
+      json.name("metrics");
+      metrics.writeSummary(json);
+
+      json.name("pipeline").beginArray();
+      for (ExportPipeline.StageMetrics stage : pipeline.metrics()) {
+        json.beginObject()
+            .name("name").value(stage.name)
+            .name("threads").value(stage.threads)
+            .name("processed").value(stage.processed)
+            .name("busyMillis").value(stage.busy.toMillis())
+            .name("blockedMillis").value(stage.blocked.toMillis())
+            .name("maxDepth").value(stage.maxDepth)
+            .name("meanDepth").value(stage.meanDepth)
+            .endObject();
+      }
+      json.endArray();
+
+      json.name("pool").beginObject()
+          .name("maxSize").value(pool.maxSize)
+          .name("created").value(pool.created)
+          .name("borrowed").value(pool.borrowed)
+          .name("timeouts").value(pool.timeouts)
+          .name("meanWaitMillis").value(pool.meanWait.toMillis())
+          .name("maxWaitMillis").value(pool.maxWait.toMillis())
+          .name("prepared").value(pool.prepared)
+          .name("statementHits").value(pool.statementHits)
+          .endObject();
+
+      json.endObject();
+    }
+
+    return path;
+  }
+
+  /* The fields to query, comma separated */
+  private String selectFields() {
+    return getSQLSelectFields()
+        .stream()
+        .collect(Collectors.joining(","));
+  }
+
+  /*
+   * Stream the query row as a feature. Properties are written in the same
+   * order as resultToFeature adds them.
+   */
+  private void writeFeature(GeoJsonWriter json, FaultRecord record, LocationList trace)
+      throws IOException {
 
-    while (result.next()) {
-      GeoJson.Builder geojson = GeoJson.builder();
+    String cfaultId = record.getString(cfaultIdColumn);
 
-      Feature feature = resultToFeature(result);
-      String fileName = cleanName(feature.properties().getString(NAME));
+    long start = System.nanoTime();
+    List<RateModel> rateModels = getRateModels(record);
+    List<FaultEnrichment.Attribute> attributes = enrichment.attributes(cfaultId);
+    metrics.record(MetricsRegistry.Stage.PROPERTIES, System.nanoTime() - start, 0);
 
-      geojson.add(feature);
-      geojson.write(faultOut.resolve(fileName + ".geojson"));
+    json.beginFeature(record.getInt(idColumn), trace)
+        .property(NAME, record.getString(nameColumn))
+        .property(DEPTH, record.getDouble(upperDepthColumn))
+        .property(DIP, record.getDouble(dipColumn))
+        .property(Q_FAULT_ID, cfaultId)
+        .property(RATE_MODELS, rateModels);
+
+    for (FaultEnrichment.Attribute attribute : attributes) {
+      json.property(attribute.name(), attribute.value());
     }
+
+    json.endFeature();
   }
 
-  /* Convert the query to a feature */
-  private Feature resultToFeature(ResultSet result) throws ParseException, SQLException {
-    String faultTraceWkt = result.getString(FAULT_TRACE);
-    LocationList trace = wktToLocationList(faultTraceWkt);
+  /* Convert the query row to a feature */
+  Feature resultToFeature(FaultRecord record) throws ParseException {
+    return resultToFeature(record, trace(record));
+  }
 
-    String cfaultId = result.getString(CFAULT_ID);
+  /* Convert the query row, with its decoded trace, to a feature */
+  private Feature resultToFeature(FaultRecord record, LocationList trace) {
+    String cfaultId = record.getString(cfaultIdColumn);
+    long start = System.nanoTime();
     
     Properties.Builder builder = Properties.builder()
-        .put(NAME, result.getString(NAME))
-        .put(DEPTH, getSQLDouble(result, UPPER_DEPTH))
-        .put(DIP, getSQLDouble(result, DIP))
+        .put(NAME, record.getString(nameColumn))
+        .put(DEPTH, record.getDouble(upperDepthColumn))
+        .put(DIP, record.getDouble(dipColumn))
         .put(Q_FAULT_ID, cfaultId)
-        .put(RATE_MODELS, getRateModels(result));
-    
-    if (MAX_MAGNITUDES.containsKey(cfaultId) && !CFAULT_ID_SKIP.contains(cfaultId)) {
-      builder.put(M_MAX, MAX_MAGNITUDES.get(cfaultId));
+        .put(RATE_MODELS, getRateModels(record));
+
+    for (FaultEnrichment.Attribute attribute : enrichment.attributes(cfaultId)) {
+      builder.put(attribute.name(), attribute.value());
     }
 
+    Properties properties = builder.build();
+    metrics.record(MetricsRegistry.Stage.PROPERTIES, System.nanoTime() - start, 0);
+
     return Feature.lineString(trace)
-        .id(result.getInt(ID))
-        .properties(builder.build())
+        .id(record.getInt(idColumn))
+        .properties(properties)
         .build();
   }
 
+  /* Decode the fault trace of the query row, timed as the TRACE stage */
+  private LocationList trace(FaultRecord record) throws ParseException {
+    long start = System.nanoTime();
+    LocationList trace;
+    long bytes;
+
+    if (binaryTraces) {
+      byte[] wkb = record.getBytes(traceColumn);
+      trace = WkbReader.read(wkb);
+      bytes = wkb.length;
+    } else {
+      String wkt = record.getString(traceColumn);
+      trace = wktToLocationList(wkt);
+      bytes = wkt.length();
+    }
+
+    metrics.record(MetricsRegistry.Stage.TRACE, System.nanoTime() - start, bytes);
+    return trace;
+  }
+
   /* Convert WKT to location list */
-  private LocationList wktToLocationList(String wkt) throws ParseException {
-    WKTReader wktReader = new WKTReader();
-    Geometry faultTraceGeom = wktReader.read(wkt);
+  static LocationList wktToLocationList(String wkt) throws ParseException {
+    Geometry faultTraceGeom = WKT_READER.get().read(wkt);
     LocationList.Builder trace = LocationList.builder();
 
     for (Coordinate coord : faultTraceGeom.getCoordinates()) {
@@ -231,7 +960,7 @@ public class FaultExporter {
   }
 
   /* Clean up fault name for file output */
-  private String cleanName(String name) {
+  static String cleanName(String name) {
     return CharMatcher.whitespace().collapseFrom(name
         .replace("faults", "")
         .replace("fault", "")
@@ -243,5 +972,5 @@ public class FaultExporter {
         .replace(";", " : "),
         ' ').trim();
   }
-  
+
 }
@@ -1,15 +1,10 @@
 package gov.usgs.earthquake.nshmp.postgres;
 
-import static gov.usgs.earthquake.nshmp.postgres.Util.getSQLDouble;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.DISPLACEMENT_RATE;
-import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.PROBABILITY_OF_ACTIVITY;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.RAKE;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.SLIP_RATE;
-import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.STATE_ABBREV;
 
 import java.io.IOException;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.List;
 
 /**
@@ -19,12 +14,22 @@ public class FaultExporter2008 extends FaultExporter {
 
   private static final String HAZFAULTS_2008 = "hazfaults_2008";
 
+  private FaultRecord.Column displacementRateColumn;
+  private FaultRecord.Column rakeColumn;
+  private FaultRecord.Column slipRateColumn;
+
   public FaultExporter2008(String table) throws IOException {
     super(table);
   }
 
-  public static void main(String[] args) throws IOException {
-    new FaultExporter2008(HAZFAULTS_2008).export();
+  FaultExporter2008(PostgreSQL postgres) {
+    super(postgres);
+  }
+
+  public static void main(String[] args) throws Exception {
+    new FaultExporter2008(HAZFAULTS_2008)
+        .configure(args)
+        .export();
   }
 
   @Override
@@ -39,31 +44,27 @@ public class FaultExporter2008 extends FaultExporter {
   }
 
   @Override
-  List<RateModel> getRateModels(ResultSet result) throws SQLException {
+  void resolveColumns(FaultRecord.Columns columns) {
+    super.resolveColumns(columns);
+    displacementRateColumn = columns.column(DISPLACEMENT_RATE);
+    rakeColumn = columns.column(RAKE);
+    slipRateColumn = columns.column(SLIP_RATE);
+  }
 
-    Double rake = getSQLDouble(result, RAKE);
-    List<RateModel> rateModels = checkProbabilityOfActivity(result, rake);
+  @Override
+  List<RateModel> getRateModels(FaultRecord record) {
+
+    Double rake = record.getDouble(rakeColumn);
+    List<RateModel> rateModels = checkProbabilityOfActivity(record, rake);
 
     if (!rateModels.isEmpty()) return rateModels;
 
     RateModel.Builder rateModel = RateModel.builder();
 
-    if ("CA".equals(result.getString(STATE_ABBREV).trim())) {
-      rateModel.slip(getSQLDouble(result, SLIP_RATE), rake).build();
+    if ("CA".equals(record.getString(stateAbbrevColumn).trim())) {
+      rateModel.slip(record.getDouble(slipRateColumn), rake);
     } else {
-      rateModel.geo(getSQLDouble(result, DISPLACEMENT_RATE), rake).build();
-    }
-
-    return rateModel.build();
-  }
-
-  @Override
-  List<RateModel> checkProbabilityOfActivity(ResultSet result, Double rake) throws SQLException {
-    Double probOfActivity = getSQLDouble(result, PROBABILITY_OF_ACTIVITY);
-    RateModel.Builder rateModel = RateModel.builder();
-
-    if (probOfActivity != null && probOfActivity < 1) {
-      rateModel.aPriori(probOfActivity, getSQLDouble(result, RAKE));
+      rateModel.geo(record.getDouble(displacementRateColumn), rake);
     }
 
     return rateModel.build();
@@ -1,14 +1,11 @@
 package gov.usgs.earthquake.nshmp.postgres;
 
-import static gov.usgs.earthquake.nshmp.postgres.Util.getSQLDouble;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.BIRD_RATE;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.GEO_RAKE;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.GEO_RATE;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.ZENG_RATE;
 
 import java.io.IOException;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.List;
 
 /**
@@ -18,26 +15,43 @@ public class FaultExporter2014 extends FaultExporter {
 
   private static final String HAZFAULTS_2014 = "hazfaults_2014";
 
+  private FaultRecord.Column birdRateColumn;
+  private FaultRecord.Column geoRateColumn;
+  private FaultRecord.Column zengRateColumn;
+
   FaultExporter2014(String table) throws IOException {
     super(table);
   }
 
-  public static void main(String[] args) throws IOException {
-    new FaultExporter2014(HAZFAULTS_2014).export();
+  FaultExporter2014(PostgreSQL postgres) {
+    super(postgres);
+  }
+
+  public static void main(String[] args) throws Exception {
+    new FaultExporter2014(HAZFAULTS_2014)
+        .configure(args)
+        .export();
   }
 
   @Override
-  List<RateModel> getRateModels(ResultSet result) throws SQLException {
-    List<RateModel> rateModels = super.getRateModels(result);
+  void resolveColumns(FaultRecord.Columns columns) {
+    super.resolveColumns(columns);
+    birdRateColumn = columns.column(BIRD_RATE);
+    geoRateColumn = columns.column(GEO_RATE);
+    zengRateColumn = columns.column(ZENG_RATE);
+  }
 
-    if (!rateModels.isEmpty()) return rateModels;
+  @Override
+  List<RateModel> getRateModels(FaultRecord record) {
+    Double rake = record.getDouble(geoRakeColumn);
+    List<RateModel> rateModels = checkProbabilityOfActivity(record, rake);
 
-    Double rake = getSQLDouble(result, GEO_RAKE);
+    if (!rateModels.isEmpty()) return rateModels;
 
     return RateModel.builder()
-        .bird(getSQLDouble(result, BIRD_RATE), rake)
-        .geo(getSQLDouble(result, GEO_RATE), rake)
-        .zeng(getSQLDouble(result, ZENG_RATE), rake)
+        .bird(record.getDouble(birdRateColumn), rake)
+        .geo(record.getDouble(geoRateColumn), rake)
+        .zeng(record.getDouble(zengRateColumn), rake)
         .build();
   }
 
@@ -0,0 +1,193 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.geo.LocationList;
+import gov.usgs.earthquake.nshmp.geo.Locations;
+
+/**
+ * Spatial index of fault traces.
+ *
+ * <p> The bounding box of each trace, in degrees of longitude and latitude,
+ * is packed into a JTS {@link STRtree} once, when the index is created.
+ * Queries select candidate faults from the tree, so their cost grows with the
+ * number of candidates rather than the number of faults, and then check each
+ * candidate against its trace. Query results are in the order of the indexed
+ * faults; the matching indices are sorted, so ordering costs
+ * {@code O(k log k)} in the number of matches, independent of the index size.
+ *
+ * <p> Longitudes are not wrapped at the antimeridian. A trace is bounded by the
+ * minimum and maximum longitudes of its locations, so a trace that crosses
+ * ±180° gets a bounding box that spans the whole globe in longitude. Such a
+ * trace is a candidate of every query at its latitudes, and
+ * {@link #faultsIntersecting(Location, Location)} tests it as a line that goes
+ * the long way around. Query rectangles are not wrapped either, so a query
+ * near ±180° misses faults just across the antimeridian. The NSHM fault sets
+ * indexed here lie within one continuous longitude range. Faults that cross
+ * the antimeridian must be given in that range, e.g. with longitudes in
+ * [0°, 360°), and queries must use the same range.
+ *
+ * <p> An index is immutable and may be queried from multiple threads.
+ *
+ * @see FaultSet#faultsWithin(Location, double)
+ * @see FaultSet#faultsIntersecting(Location, Location)
+ */
+class FaultIndex {
+
+  /* Mean earth radius in km */
+  private static final double EARTH_RADIUS = 6371.0072;
+  private static final double KM_PER_DEGREE = EARTH_RADIUS * Math.PI / 180.0;
+
+  private static final GeometryFactory GEOMETRY = new GeometryFactory();
+
+  private final List<Fault> faults;
+  private final STRtree tree;
+
+  private FaultIndex(List<Fault> faults) {
+    this.faults = faults;
+    tree = new STRtree();
+
+    for (int index = 0; index < faults.size(); index++) {
+      tree.insert(envelope(faults.get(index).trace()), index);
+    }
+
+    /* Build now; STRtree builds lazily and not thread safely otherwise */
+    tree.build();
+  }
+
+  /**
+   * Create a spatial index of faults.
+   *
+   * @param faults The faults
+   */
+  static FaultIndex create(List<Fault> faults) {
+    return new FaultIndex(ImmutableList.copyOf(faults));
+  }
+
+  /**
+   * Return the faults with a trace within a distance of a location.
+   *
+   * @param location The location
+   * @param distance The maximum horizontal distance in km
+   */
+  List<Fault> faultsWithin(Location location, double distance) {
+    checkNotNull(location);
+    checkArgument(distance >= 0.0, "Distance must not be negative: %s", distance);
+
+    List<Integer> candidates = candidates(envelope(location, distance));
+    int[] matches = new int[candidates.size()];
+    int count = 0;
+
+    for (int index : candidates) {
+      if (Locations.minDistanceToLine(location, faults.get(index).trace()) <= distance) {
+        matches[count++] = index;
+      }
+    }
+
+    return select(matches, count);
+  }
+
+  /**
+   * Return the faults with a trace that intersects a longitude and latitude
+   * rectangle.
+   *
+   * @param min The minimum latitude and longitude
+   * @param max The maximum latitude and longitude
+   */
+  List<Fault> faultsIntersecting(Location min, Location max) {
+    checkArgument(
+        min.lat() <= max.lat() && min.lon() <= max.lon(),
+        "Invalid bounds: %s, %s", min, max);
+
+    Envelope bounds = new Envelope(min.lon(), max.lon(), min.lat(), max.lat());
+    Geometry rectangle = GEOMETRY.toGeometry(bounds);
+    List<Integer> candidates = candidates(bounds);
+    int[] matches = new int[candidates.size()];
+    int count = 0;
+
+    for (int index : candidates) {
+      if (geometry(faults.get(index).trace()).intersects(rectangle)) {
+        matches[count++] = index;
+      }
+    }
+
+    return select(matches, count);
+  }
+
+  /** The number of indexed faults */
+  int size() {
+    return faults.size();
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Integer> candidates(Envelope envelope) {
+    return tree.query(envelope);
+  }
+
+  /* The faults of the first count matching indices, in index order */
+  private List<Fault> select(int[] matches, int count) {
+    Arrays.sort(matches, 0, count);
+    List<Fault> selected = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      selected.add(faults.get(matches[i]));
+    }
+
+    return selected;
+  }
+
+  private static Envelope envelope(LocationList trace) {
+    Envelope envelope = new Envelope();
+
+    for (Location loc : trace) {
+      envelope.expandToInclude(loc.lon(), loc.lat());
+    }
+
+    return envelope;
+  }
+
+  /*
+   * A rectangle that contains every point within a distance of a location,
+   * widened in longitude by the latitude furthest from the equator.
+   */
+  private static Envelope envelope(Location location, double distance) {
+    double dLat = distance / KM_PER_DEGREE;
+    double minLat = Math.max(location.lat() - dLat, -90.0);
+    double maxLat = Math.min(location.lat() + dLat, 90.0);
+    double cosLat = Math.cos(Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat))));
+    double dLon = cosLat * 180.0 > dLat ? dLat / cosLat : 180.0;
+
+    return new Envelope(
+        location.lon() - dLon,
+        location.lon() + dLon,
+        minLat,
+        maxLat);
+  }
+
+  private static Geometry geometry(LocationList trace) {
+    Coordinate[] coords = new Coordinate[trace.size()];
+
+    for (int index = 0; index < coords.length; index++) {
+      Location loc = trace.get(index);
+      coords[index] = new Coordinate(loc.lon(), loc.lat());
+    }
+
+    return coords.length == 1
+        ? GEOMETRY.createPoint(coords[0])
+        : GEOMETRY.createLineString(coords);
+  }
+
+}
@@ -0,0 +1,148 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Canonicalizes the values that repeat across the faults of one
+ * {@link FaultSet}: qFault ids, shared by the sections of a Quaternary fault,
+ * fault names, repeated by faults split into pieces, and slip rate trees, e.g.
+ * the same {@code A_PRIORI} probability and rake.
+ *
+ * <p> Each fault set builder has its own interner; equal slip rate trees
+ * share rows of the fault set {@link SlipRateTable} rather than being interned
+ * here, and are only counted. Faults keep no state abbreviations or property
+ * maps, so there are no other strings to intern. Once the fault set is built
+ * the interner {@link #finish(SlipRateTable) drops} its canonical strings and
+ * keeps the counts, available from {@link FaultSet#interning()}.
+ *
+ * <p> Heap savings are estimates for a 64-bit JVM with compressed references:
+ * a shared slip rate tree saves its list, rows and rate model views, an
+ * interned string its {@code String} and {@code char[]}.
+ */
+class FaultInterner {
+
+  /* List view and its view array */
+  private static final long TREE_OVERHEAD = 16 + 16;
+  /* Table columns, view array entry and view object */
+  private static final long RATE_MODEL_BYTES = 18 + 4 + 24;
+  private static final long STRING_OVERHEAD = 24 + 16;
+
+  private Map<String, String> strings = new HashMap<>();
+
+  private int treeRequests;
+  private int treeHits;
+  private int qFaultIdRequests;
+  private int qFaultIdHits;
+  private int nameRequests;
+  private int nameHits;
+  private long savedBytes;
+
+  /**
+   * Return the canonical instance of a qFault id; {@code null} is returned as
+   * is.
+   *
+   * @param qFaultId The qFault id
+   */
+  String qFaultId(String qFaultId) {
+    if (qFaultId == null) return null;
+
+    String canonical = intern(qFaultId);
+    qFaultIdRequests++;
+    if (canonical != qFaultId) qFaultIdHits++;
+    return canonical;
+  }
+
+  /**
+   * Return the canonical instance of a fault name; {@code null} is returned as
+   * is.
+   *
+   * @param name The fault name
+   */
+  String name(String name) {
+    if (name == null) return null;
+
+    String canonical = intern(name);
+    nameRequests++;
+    if (canonical != name) nameHits++;
+    return canonical;
+  }
+
+  /*
+   * The canonical instance of a string, counting the heap saved when it
+   * replaces an equal string.
+   */
+  private String intern(String string) {
+    String canonical = strings.putIfAbsent(string, string);
+
+    if (canonical == null || canonical == string) {
+      return string;
+    }
+
+    savedBytes += STRING_OVERHEAD + ((2L * string.length() + 7) & ~7);
+    return canonical;
+  }
+
+  /**
+   * Count the slip rate trees of the finished fault set table that share
+   * rows, and drop the canonical strings.
+   *
+   * @param slipRates The slip rate table of the fault set
+   * @return this interner
+   */
+  FaultInterner finish(SlipRateTable slipRates) {
+    long rows = 0;
+
+    for (int group = 0; group < slipRates.groups(); group++) {
+      rows += slipRates.end(group) - slipRates.start(group);
+    }
+
+    treeRequests = slipRates.groups();
+    treeHits = slipRates.groups() - slipRates.distinctGroups();
+    savedBytes += TREE_OVERHEAD * treeHits + RATE_MODEL_BYTES * (rows - slipRates.size());
+    strings = null;
+    return this;
+  }
+
+  /** The fraction of slip rate trees that share the rows of an earlier tree */
+  double slipRateTreeDedupRatio() {
+    return ratio(treeHits, treeRequests);
+  }
+
+  /** The fraction of interned qFault ids that were duplicates */
+  double qFaultIdDedupRatio() {
+    return ratio(qFaultIdHits, qFaultIdRequests);
+  }
+
+  /** The fraction of interned fault names that were duplicates */
+  double nameDedupRatio() {
+    return ratio(nameHits, nameRequests);
+  }
+
+  /** The estimated heap saved by interning, in bytes */
+  long savedBytes() {
+    return savedBytes;
+  }
+
+  private static double ratio(long hits, long requests) {
+    return requests == 0 ? 0.0 : (double) hits / requests;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "Interning [slipRateTrees=%d/%d (%.1f%%), qFaultIds=%d/%d (%.1f%%), " +
+            "names=%d/%d (%.1f%%), saved=%.1f kB]",
+        treeHits,
+        treeRequests,
+        slipRateTreeDedupRatio() * 100,
+        qFaultIdHits,
+        qFaultIdRequests,
+        qFaultIdDedupRatio() * 100,
+        nameHits,
+        nameRequests,
+        nameDedupRatio() * 100,
+        savedBytes() / 1e3);
+  }
+
+}
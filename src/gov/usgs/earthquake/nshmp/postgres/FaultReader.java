@@ -0,0 +1,346 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import gov.usgs.earthquake.nshmp.geo.LocationList;
+
+/**
+ * Pull-based GeoJSON reader that builds {@link Fault}s token by token.
+ *
+ * <p> Reads a FeatureCollection, a single Feature, or newline-delimited
+ * features (NDJSON) and returns one fault per feature from {@link #next()}.
+ * Only the members of the current feature are held, so memory use is bounded
+ * by the largest feature, not by the size of the document. Members may appear
+ * in any order; members other than the id, geometry and the {@code name},
+ * {@code depth}, {@code dip}, {@code qFaultId} and {@code rateModels}
+ * properties are skipped.
+ *
+ * <p> Line string geometries are read as the fault trace, as are the exterior
+ * rings of polygons. Faults are built with the checked {@link Fault.Builder}
+ * or the {@link Fault.UncheckedBuilder}. {@link #next(SlipRateTable.Builder)}
+ * returns the builder instead, with the rate models added to a shared table,
+ * e.g. that of a {@link FaultSet.UncheckedBuilder#slipRates() fault set}.
+ */
+class FaultReader implements Closeable {
+
+  private static final String FEATURES = "features";
+
+  private final JsonReader json;
+  private final boolean checked;
+  private boolean inFeatures;
+
+  private FaultReader(Reader reader, boolean checked) {
+    json = new JsonReader(reader);
+    json.setLenient(true);
+    this.checked = checked;
+  }
+
+  /**
+   * Open a reader of a GeoJSON file. Files ending in {@code .gz} are
+   * decompressed.
+   *
+   * @param json The GeoJSON file
+   * @param checked Whether faults are built with the checked builder
+   * @throws IOException
+   */
+  static FaultReader open(Path json, boolean checked) throws IOException {
+    InputStream in = Files.newInputStream(json);
+
+    if (json.getFileName().toString().endsWith(".gz")) {
+      in = new GZIPInputStream(in, 1 << 16);
+    }
+
+    return new FaultReader(new BufferedReader(new InputStreamReader(in, UTF_8)), checked);
+  }
+
+  /**
+   * Create a reader of GeoJSON text.
+   *
+   * @param reader The GeoJSON text
+   * @param checked Whether faults are built with the checked builder
+   */
+  static FaultReader of(Reader reader, boolean checked) {
+    return new FaultReader(reader, checked);
+  }
+
+  /**
+   * Read the next feature as a fault.
+   *
+   * @return the fault, or {@code null} if there are no more features
+   * @throws IOException if the text is not valid JSON
+   * @throws IllegalStateException if a feature is missing a fault member
+   * @throws IllegalArgumentException if a checked fault member is invalid
+   */
+  Fault next() throws IOException {
+    SlipRateTable.Builder slipRates = SlipRateTable.builder();
+    Fault.UncheckedBuilder fault = next(slipRates);
+
+    return fault == null ? null : fault
+        .slipRateTree(slipRates.endGroup().build().rateModels(0))
+        .build();
+  }
+
+  /**
+   * Read the next feature as a fault builder with all members but the slip
+   * rates set. The rate models are added to the current slip rate tree of a
+   * table; the tree is not ended.
+   *
+   * @param slipRates The slip rate table
+   * @return the fault builder, or {@code null} if there are no more features
+   * @throws IOException if the text is not valid JSON
+   * @throws IllegalArgumentException if a checked fault member is invalid
+   */
+  Fault.UncheckedBuilder next(SlipRateTable.Builder slipRates) throws IOException {
+    while (true) {
+      if (inFeatures) {
+        if (json.hasNext()) {
+          json.beginObject();
+          return readFeature(new Parts(slipRates));
+        }
+
+        json.endArray();
+        inFeatures = false;
+
+        while (json.hasNext()) {
+          json.nextName();
+          json.skipValue();
+        }
+
+        json.endObject();
+        continue;
+      }
+
+      if (json.peek() == JsonToken.END_DOCUMENT) {
+        return null;
+      }
+
+      /*
+       * A top level object is a FeatureCollection once its features member
+       * is reached, and a Feature otherwise.
+       */
+      json.beginObject();
+      Parts parts = new Parts(slipRates);
+
+      while (json.hasNext()) {
+        String name = json.nextName();
+
+        if (name.equals(FEATURES)) {
+          json.beginArray();
+          inFeatures = true;
+          break;
+        }
+
+        readMember(name, parts);
+      }
+
+      if (!inFeatures) {
+        json.endObject();
+        return parts.build();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    json.close();
+  }
+
+  /* Read the remaining members of a feature object */
+  private Fault.UncheckedBuilder readFeature(Parts parts) throws IOException {
+    while (json.hasNext()) {
+      readMember(json.nextName(), parts);
+    }
+
+    json.endObject();
+    return parts.build();
+  }
+
+  private void readMember(String name, Parts parts) throws IOException {
+    if (json.peek() == JsonToken.NULL) {
+      json.nextNull();
+      return;
+    }
+
+    switch (name) {
+      case "id":
+        parts.id = json.nextInt();
+        break;
+      case "geometry":
+        readGeometry(parts);
+        break;
+      case "properties":
+        readProperties(parts);
+        break;
+      default:
+        json.skipValue();
+    }
+  }
+
+  private void readGeometry(Parts parts) throws IOException {
+    json.beginObject();
+
+    while (json.hasNext()) {
+      String name = json.nextName();
+
+      if (name.equals("type")) {
+        parts.geometryType = json.nextString();
+      } else if (name.equals("coordinates")) {
+        parts.trace = readTrace();
+      } else {
+        json.skipValue();
+      }
+    }
+
+    json.endObject();
+  }
+
+  /*
+   * Read the first line of a coordinates array: the positions of a line
+   * string, or the exterior ring of a polygon.
+   */
+  private LocationList readTrace() throws IOException {
+    LocationList.Builder trace = LocationList.builder();
+    json.beginArray();
+
+    if (json.hasNext()) {
+      json.beginArray();
+
+      /* A line string; its positions end with the coordinates array */
+      if (json.peek() == JsonToken.NUMBER) {
+        readPosition(trace);
+        readPositions(trace);
+        return trace.build();
+      }
+
+      readPositions(trace);
+
+      while (json.hasNext()) {
+        json.skipValue();
+      }
+    }
+
+    json.endArray();
+    return trace.build();
+  }
+
+  /* Read positions until the end of the enclosing array */
+  private void readPositions(LocationList.Builder trace) throws IOException {
+    while (json.hasNext()) {
+      json.beginArray();
+      readPosition(trace);
+    }
+
+    json.endArray();
+  }
+
+  /* Read an opened position, [lon, lat, depth], and its closing bracket */
+  private void readPosition(LocationList.Builder trace) throws IOException {
+    double lon = json.nextDouble();
+    double lat = json.nextDouble();
+    double depth = json.hasNext() ? json.nextDouble() : 0.0;
+
+    while (json.hasNext()) {
+      json.skipValue();
+    }
+
+    json.endArray();
+    trace.add(lat, lon, depth);
+  }
+
+  private void readProperties(Parts parts) throws IOException {
+    json.beginObject();
+
+    while (json.hasNext()) {
+      String name = json.nextName();
+
+      if (json.peek() == JsonToken.NULL) {
+        json.nextNull();
+        continue;
+      }
+
+      switch (name) {
+        case Util.Keys.NAME:
+          parts.name = json.nextString();
+          break;
+        case Util.Keys.DEPTH:
+          parts.depth = json.nextDouble();
+          break;
+        case Util.Keys.DIP:
+          parts.dip = json.nextDouble();
+          break;
+        case Util.Keys.Q_FAULT_ID:
+          parts.qFaultId = json.nextString();
+          break;
+        case Util.Keys.RATE_MODELS:
+          readRateModels(parts.slipRates);
+          break;
+        default:
+          json.skipValue();
+      }
+    }
+
+    json.endObject();
+  }
+
+  private void readRateModels(SlipRateTable.Builder slipRates) throws IOException {
+    json.beginArray();
+
+    while (json.hasNext()) {
+      RateModel.ADAPTER.read(json, slipRates);
+    }
+
+    json.endArray();
+  }
+
+  /* The fault members of the current feature; rate models go to the table */
+  private class Parts {
+
+    final SlipRateTable.Builder slipRates;
+
+    Integer id;
+    String geometryType;
+    LocationList trace;
+    String name;
+    String qFaultId;
+    Double depth;
+    Double dip;
+
+    Parts(SlipRateTable.Builder slipRates) {
+      this.slipRates = slipRates;
+    }
+
+    Fault.UncheckedBuilder build() {
+      if (geometryType != null &&
+          !geometryType.equals("LineString") &&
+          !geometryType.equals("Polygon")) {
+        throw new IllegalArgumentException("Unsupported fault geometry: " + geometryType);
+      }
+
+      Fault.UncheckedBuilder builder = checked ? Fault.builder() : Fault.uncheckedBuilder();
+
+      if (id != null) builder.id(id);
+      if (name != null) builder.name(name);
+      if (depth != null) builder.depth(depth);
+      if (dip != null) builder.dip(dip);
+      if (qFaultId != null) builder.qFaultId(qFaultId);
+      if (trace != null) builder.trace(trace);
+
+      return builder;
+    }
+
+  }
+
+}
@@ -0,0 +1,842 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A row of a fault query, decoded once from a {@code ResultSet}.
+ *
+ * <p> Column indices and types are resolved once per result set from its
+ * {@code ResultSetMetaData} ({@link Columns}). Each column of a row is then
+ * read exactly once, numeric columns as primitives checked with
+ * {@code wasNull()}. Code reading the same columns of many rows resolves a
+ * {@link Column} handle once per query ({@link Columns#column(String)}) and
+ * reads each value by index; lookups by column label hash the label on every
+ * access. Records do not reference the result set and may be handed to other
+ * threads.
+ *
+ * <p> Use {@link #reader(ResultSet)} to read the records of a result set,
+ * or {@link #copyReader(InputStream, ResultSetMetaData, PostgreSQL.CopyFormat)}
+ * to decode the rows of a {@code COPY ... TO STDOUT} stream directly, without
+ * the JDBC row protocol.
+ */
+class FaultRecord {
+
+  /* Size of the read buffer of copy streams */
+  private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+  private final Columns columns;
+  private final double[] numbers;
+  private final Object[] objects;
+
+  private FaultRecord(Columns columns) {
+    this.columns = columns;
+    numbers = new double[columns.size()];
+    objects = new Object[columns.size()];
+  }
+
+  /**
+   * Returns the value of a numeric column, or {@code null} if the value is SQL
+   * NULL. Text columns are parsed.
+   *
+   * @param label The column label
+   * @throws NumberFormatException if a text value is not a number
+   */
+  Double getDouble(String label) {
+    int index = columns.numberIndex(label);
+    return objects[index] == null ? null : number(index, label);
+  }
+
+  /**
+   * Returns the value of a numeric column, or {@code null} if the value is SQL
+   * NULL. Text columns are parsed.
+   *
+   * @param column The resolved column
+   * @throws NumberFormatException if a text value is not a number
+   */
+  Double getDouble(Column column) {
+    int index = columns.numberIndex(column.index, column.label);
+    return objects[index] == null ? null : number(index, column.label);
+  }
+
+  /**
+   * Returns the value of a numeric column as an {@code int}. Text columns are
+   * parsed.
+   *
+   * @param label The column label
+   * @throws NullPointerException if the value is SQL NULL
+   * @throws NumberFormatException if a text value is not a number
+   */
+  int getInt(String label) {
+    return intValue(columns.numberIndex(label), label);
+  }
+
+  /**
+   * Returns the value of a numeric column as an {@code int}. Text columns are
+   * parsed.
+   *
+   * @param column The resolved column
+   * @throws NullPointerException if the value is SQL NULL
+   * @throws NumberFormatException if a text value is not a number
+   */
+  int getInt(Column column) {
+    return intValue(columns.numberIndex(column.index, column.label), column.label);
+  }
+
+  private int intValue(int index, String label) {
+    if (objects[index] == null) {
+      throw new NullPointerException("Column [" + label + "] is null");
+    }
+    return (int) number(index, label);
+  }
+
+  /* The non-null value of a numeric column, or a parsed text column */
+  private double number(int index, String label) {
+    if (columns.kinds[index] == Kind.NUMBER) return numbers[index];
+
+    String text = (String) objects[index];
+    try {
+      return Double.parseDouble(text.trim());
+    } catch (NumberFormatException e) {
+      throw new NumberFormatException(
+          "Column [" + label + "] is not a number: '" + text + "'");
+    }
+  }
+
+  /**
+   * Returns the value of a text column, or {@code null} if the value is SQL
+   * NULL.
+   *
+   * @param label The column label
+   */
+  String getString(String label) {
+    return (String) objects[columns.index(label, Kind.TEXT)];
+  }
+
+  /**
+   * Returns the value of a text column, or {@code null} if the value is SQL
+   * NULL.
+   *
+   * @param column The resolved column
+   */
+  String getString(Column column) {
+    return (String) objects[columns.index(column.index, column.label, Kind.TEXT)];
+  }
+
+  /**
+   * Returns the value of a binary column, or {@code null} if the value is SQL
+   * NULL.
+   *
+   * @param label The column label
+   */
+  byte[] getBytes(String label) {
+    return (byte[]) objects[columns.index(label, Kind.BINARY)];
+  }
+
+  /**
+   * Returns the value of a binary column, or {@code null} if the value is SQL
+   * NULL.
+   *
+   * @param column The resolved column
+   */
+  byte[] getBytes(Column column) {
+    return (byte[]) objects[columns.index(column.index, column.label, Kind.BINARY)];
+  }
+
+  /** Returns a reader of the records of a result set. */
+  static Reader reader(ResultSet result) throws SQLException {
+    return new ResultSetReader(result);
+  }
+
+  /**
+   * Returns a reader of the records of a {@code COPY (SELECT ...) TO STDOUT}
+   * stream.
+   *
+   * @param in The copy stream
+   * @param metadata The metadata of the {@code SELECT} query
+   * @param format The copy format
+   * @throws SQLException if a column type is not supported by the format
+   */
+  static Reader copyReader(
+      InputStream in,
+      ResultSetMetaData metadata,
+      PostgreSQL.CopyFormat format) throws SQLException {
+
+    switch (format) {
+      case BINARY:
+        return new BinaryCopyReader(in, metadata);
+      case CSV:
+        return new CsvCopyReader(in, metadata);
+      default:
+        throw new IllegalStateException("Unsupported copy format: " + format);
+    }
+  }
+
+  /**
+   * Reads fault records, one row at a time, counting them. A query event
+   * ({@link ExportEvents#beginQuery()}) may be attached; it is committed with
+   * the row count when the rows are exhausted or the reader is closed.
+   */
+  abstract static class Reader implements AutoCloseable {
+
+    final Columns columns;
+    private long rows;
+    private Object event;
+    private Runnable closeAction;
+
+    private Reader(Columns columns) {
+      this.columns = columns;
+    }
+
+    /** The resolved columns of the rows */
+    Columns columns() {
+      return columns;
+    }
+
+    /** The number of rows read */
+    long rows() {
+      return rows;
+    }
+
+    /**
+     * Attach a query event, committed once the rows are read.
+     *
+     * @param event The event, may be {@code null}
+     */
+    void event(Object event) {
+      this.event = event;
+    }
+
+    /**
+     * Set an action run once when the reader is closed, e.g. to release it
+     * from its session.
+     *
+     * @param closeAction The action
+     */
+    void onClose(Runnable closeAction) {
+      this.closeAction = closeAction;
+    }
+
+    /**
+     * Read and decode the next row.
+     *
+     * @return the record, or {@code null} if there are no more rows
+     * @throws SQLException
+     */
+    final FaultRecord next() throws SQLException {
+      FaultRecord record = readRecord();
+
+      if (record == null) {
+        commitEvent();
+      } else {
+        rows++;
+      }
+
+      return record;
+    }
+
+    /**
+     * Close the underlying result set or stream, committing the query event
+     * if the rows were not exhausted.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+      commitEvent();
+
+      try {
+        closeSource();
+      } finally {
+        Runnable action = closeAction;
+        closeAction = null;
+        if (action != null) action.run();
+      }
+    }
+
+    private void commitEvent() {
+      ExportEvents.commitQuery(event, rows);
+      event = null;
+    }
+
+    /* Read and decode the next row, or null */
+    abstract FaultRecord readRecord() throws SQLException;
+
+    /* Close the result set or stream */
+    abstract void closeSource() throws SQLException;
+
+  }
+
+  /* Reads the records of a result set */
+  private static class ResultSetReader extends Reader {
+
+    private final ResultSet result;
+
+    private ResultSetReader(ResultSet result) throws SQLException {
+      super(Columns.of(result.getMetaData()));
+      this.result = result;
+    }
+
+    @Override
+    void closeSource() throws SQLException {
+      result.close();
+    }
+
+    @Override
+    FaultRecord readRecord() throws SQLException {
+      if (!result.next()) return null;
+
+      FaultRecord record = new FaultRecord(columns);
+
+      for (int index = 0; index < columns.size(); index++) {
+        int column = index + 1;
+
+        switch (columns.kinds[index]) {
+          case NUMBER:
+            double number = result.getDouble(column);
+            if (!result.wasNull()) {
+              record.numbers[index] = number;
+              record.objects[index] = Boolean.TRUE;
+            }
+            break;
+          case BINARY:
+            record.objects[index] = result.getBytes(column);
+            break;
+          case TEXT:
+            record.objects[index] = result.getString(column);
+            break;
+        }
+      }
+
+      return record;
+    }
+
+  }
+
+  /*
+   * Reads COPY ... TO STDOUT WITH (FORMAT csv) text: comma separated fields,
+   * a newline after each row, double quoted fields with doubled quotes, NULL
+   * as an unquoted empty field and bytea in hex ("\x..."). Fields are
+   * scanned from a reused character buffer, so numbers and text are the only
+   * allocations per row.
+   */
+  private static class CsvCopyReader extends Reader {
+
+    private final java.io.Reader in;
+    private final char[] buffer;
+    private final StringBuilder field;
+    private int position;
+    private int limit;
+    private boolean quoted;
+
+    private CsvCopyReader(InputStream in, ResultSetMetaData metadata) throws SQLException {
+      super(Columns.of(metadata));
+      this.in = new InputStreamReader(in, UTF_8);
+      buffer = new char[COPY_BUFFER_SIZE];
+      field = new StringBuilder();
+    }
+
+    @Override
+    void closeSource() throws SQLException {
+      closeStream(in);
+    }
+
+    @Override
+    FaultRecord readRecord() throws SQLException {
+      try {
+        if (peek() < 0) return null;
+
+        FaultRecord record = new FaultRecord(columns);
+        int last = columns.size() - 1;
+
+        for (int index = 0; index <= last; index++) {
+          int terminator = readField();
+          int expected = index == last ? '\n' : ',';
+
+          if (terminator != expected && !(index == last && terminator < 0)) {
+            throw new SQLException("Malformed COPY row: expected " + columns.size() + " fields");
+          }
+
+          if (quoted || field.length() > 0) {
+            decode(record, index);
+          }
+        }
+
+        return record;
+      } catch (IOException e) {
+        throw new SQLException("Could not read COPY stream", e);
+      }
+    }
+
+    /* Store the field of a column; NULL fields are skipped */
+    private void decode(FaultRecord record, int index) throws SQLException {
+      switch (columns.kinds[index]) {
+        case NUMBER:
+          record.numbers[index] = Double.parseDouble(field.toString());
+          record.objects[index] = Boolean.TRUE;
+          break;
+        case BINARY:
+          record.objects[index] = hex(field);
+          break;
+        case TEXT:
+          record.objects[index] = field.toString();
+          break;
+      }
+    }
+
+    /* Read a field into the field buffer, returning its terminator or -1 */
+    private int readField() throws IOException {
+      field.setLength(0);
+      quoted = false;
+      int c = read();
+
+      if (c == '"') {
+        quoted = true;
+
+        while (true) {
+          c = read();
+          if (c < 0) throw new EOFException("Unterminated quoted COPY field");
+
+          if (c == '"') {
+            c = read();
+            if (c != '"') return c;
+          }
+
+          field.append((char) c);
+        }
+      }
+
+      while (c >= 0 && c != ',' && c != '\n') {
+        field.append((char) c);
+        c = read();
+      }
+
+      return c;
+    }
+
+    private int peek() throws IOException {
+      if (position == limit && !fill()) return -1;
+      return buffer[position];
+    }
+
+    private int read() throws IOException {
+      if (position == limit && !fill()) return -1;
+      return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+      int read = in.read(buffer);
+      position = 0;
+      limit = Math.max(read, 0);
+      return read > 0;
+    }
+
+    /* Decode bytea hex output */
+    private static byte[] hex(CharSequence text) throws SQLException {
+      if (text.length() < 2 || text.charAt(0) != '\\' || text.charAt(1) != 'x' ||
+          text.length() % 2 != 0) {
+        throw new SQLException("Unsupported bytea output, expected hex format");
+      }
+
+      byte[] bytes = new byte[(text.length() - 2) / 2];
+
+      for (int index = 0; index < bytes.length; index++) {
+        int high = Character.digit(text.charAt(2 + 2 * index), 16);
+        int low = Character.digit(text.charAt(3 + 2 * index), 16);
+        if (high < 0 || low < 0) throw new SQLException("Invalid bytea hex: " + text);
+        bytes[index] = (byte) (high << 4 | low);
+      }
+
+      return bytes;
+    }
+
+  }
+
+  /*
+   * Reads COPY ... TO STDOUT WITH (FORMAT binary): a signature header, then
+   * for each row a 16 bit field count and each field as a 32 bit length
+   * (-1 for NULL) followed by the value in its binary send format, ended by a
+   * field count of -1. Values are decoded by the type of their column, so no
+   * text is parsed and bytea is read as is.
+   */
+  private static class BinaryCopyReader extends Reader {
+
+    private static final byte[] SIGNATURE = {
+        'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0 };
+
+    /* Numeric sign flags of positive and negative values */
+    private static final int NUMERIC_POSITIVE = 0x0000;
+    private static final int NUMERIC_NEGATIVE = 0x4000;
+
+    /* Numeric sign flags of special values, infinities since PostgreSQL 14 */
+    private static final int NUMERIC_NAN = 0xc000;
+    private static final int NUMERIC_POSITIVE_INFINITY = 0xd000;
+    private static final int NUMERIC_NEGATIVE_INFINITY = 0xf000;
+
+    private final DataInputStream in;
+    private final BinaryType[] types;
+    private boolean started;
+    private boolean ended;
+
+    private BinaryCopyReader(InputStream in, ResultSetMetaData metadata) throws SQLException {
+      super(Columns.of(metadata));
+      this.in = new DataInputStream(new BufferedInputStream(in, COPY_BUFFER_SIZE));
+      types = new BinaryType[columns.size()];
+
+      for (int index = 0; index < types.length; index++) {
+        String typeName = metadata.getColumnTypeName(index + 1);
+        types[index] = BinaryType.of(typeName);
+
+        if (types[index] == null || types[index].kind != columns.kinds[index]) {
+          throw new SQLException("Unsupported binary COPY column type: " +
+              metadata.getColumnLabel(index + 1) + " (" + typeName + ")");
+        }
+      }
+    }
+
+    @Override
+    void closeSource() throws SQLException {
+      closeStream(in);
+    }
+
+    @Override
+    FaultRecord readRecord() throws SQLException {
+      if (ended) return null;
+
+      try {
+        if (!started) {
+          readHeader();
+          started = true;
+        }
+
+        short fields = in.readShort();
+
+        if (fields == -1) {
+          ended = true;
+          return null;
+        }
+
+        if (fields != columns.size()) {
+          throw new SQLException("Malformed COPY row: expected " + columns.size() +
+              " fields, found " + fields);
+        }
+
+        FaultRecord record = new FaultRecord(columns);
+
+        for (int index = 0; index < fields; index++) {
+          int length = in.readInt();
+          if (length == -1) continue;
+
+          if (types[index].kind == Kind.NUMBER) {
+            record.numbers[index] = readNumber(types[index], length);
+            record.objects[index] = Boolean.TRUE;
+          } else {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            record.objects[index] = types[index] == BinaryType.BYTEA ? bytes
+                : new String(bytes, UTF_8);
+          }
+        }
+
+        return record;
+      } catch (IOException e) {
+        throw new SQLException("Could not read COPY stream", e);
+      }
+    }
+
+    private void readHeader() throws IOException, SQLException {
+      byte[] signature = new byte[SIGNATURE.length];
+      in.readFully(signature);
+
+      if (!Arrays.equals(signature, SIGNATURE)) {
+        throw new SQLException("Invalid binary COPY signature");
+      }
+
+      int flags = in.readInt();
+      if ((flags & 1 << 16) != 0) {
+        throw new SQLException("Binary COPY with OIDs is not supported");
+      }
+
+      int extension = in.readInt();
+      if (extension < 0) {
+        throw new SQLException("Invalid binary COPY header extension length: " + extension);
+      }
+      /* skipBytes may skip less; reading fully keeps the stream in step */
+      in.readFully(new byte[extension]);
+    }
+
+    private double readNumber(BinaryType type, int length) throws IOException {
+      switch (type) {
+        case FLOAT8:
+          return in.readDouble();
+        case FLOAT4:
+          /* Widen the shortest decimal form, as parsed from text and CSV */
+          return Double.parseDouble(Float.toString(in.readFloat()));
+        case INT2:
+          return in.readShort();
+        case INT4:
+          return in.readInt();
+        case INT8:
+          return in.readLong();
+        case NUMERIC:
+          return readNumeric();
+        default:
+          throw new IllegalStateException("Not a number type: " + type);
+      }
+    }
+
+    /*
+     * Numeric: digit count, weight, sign and display scale, then base 10000
+     * digits, the first multiplied by 10000^weight. The digits are parsed as
+     * one decimal string so rounding matches getDouble() on the text form.
+     */
+    private double readNumeric() throws IOException {
+      int digits = in.readShort();
+      int weight = in.readShort();
+      int sign = in.readShort() & 0xffff;
+      in.readShort();
+
+      switch (sign) {
+        case NUMERIC_NAN:
+          return Double.NaN;
+        case NUMERIC_POSITIVE_INFINITY:
+          return Double.POSITIVE_INFINITY;
+        case NUMERIC_NEGATIVE_INFINITY:
+          return Double.NEGATIVE_INFINITY;
+        case NUMERIC_POSITIVE:
+        case NUMERIC_NEGATIVE:
+          break;
+        default:
+          throw new IOException("Invalid numeric sign: 0x" + Integer.toHexString(sign));
+      }
+
+      if (digits == 0) return 0.0;
+
+      StringBuilder text = new StringBuilder(digits * 4 + 8);
+      if (sign == NUMERIC_NEGATIVE) text.append('-');
+
+      for (int index = 0; index < digits; index++) {
+        int digit = in.readShort();
+        text.append((char) ('0' + digit / 1000))
+            .append((char) ('0' + digit / 100 % 10))
+            .append((char) ('0' + digit / 10 % 10))
+            .append((char) ('0' + digit % 10));
+      }
+
+      text.append('E').append(4 * (weight - digits + 1));
+      return Double.parseDouble(text.toString());
+    }
+
+  }
+
+  /* Close a copy stream, cancelling the copy if it is unfinished */
+  private static void closeStream(Closeable in) throws SQLException {
+    try {
+      in.close();
+    } catch (IOException e) {
+      throw new SQLException("Could not close COPY stream", e);
+    }
+  }
+
+  /* Binary COPY value formats, by PostgreSQL type name */
+  private enum BinaryType {
+    FLOAT8(Kind.NUMBER),
+    FLOAT4(Kind.NUMBER),
+    INT2(Kind.NUMBER),
+    INT4(Kind.NUMBER),
+    INT8(Kind.NUMBER),
+    NUMERIC(Kind.NUMBER),
+    BYTEA(Kind.BINARY),
+    TEXT(Kind.TEXT);
+
+    final Kind kind;
+
+    private BinaryType(Kind kind) {
+      this.kind = kind;
+    }
+
+    /* The format of a type, or null if not supported */
+    static BinaryType of(String typeName) {
+      switch (typeName) {
+        case "float8":
+          return FLOAT8;
+        case "float4":
+          return FLOAT4;
+        case "int2":
+          return INT2;
+        case "int4":
+        case "serial":
+          return INT4;
+        case "int8":
+        case "bigserial":
+          return INT8;
+        case "numeric":
+          return NUMERIC;
+        case "bytea":
+          return BYTEA;
+        case "text":
+        case "varchar":
+        case "bpchar":
+        case "name":
+          return TEXT;
+        default:
+          return null;
+      }
+    }
+  }
+
+  /**
+   * The labels and value kinds of the columns of a result set, resolved once.
+   */
+  static class Columns {
+
+    private final ImmutableMap<String, Integer> indices;
+    private final Kind[] kinds;
+
+    private Columns(ImmutableMap<String, Integer> indices, Kind[] kinds) {
+      this.indices = indices;
+      this.kinds = kinds;
+    }
+
+    /** Resolve the columns of a result set */
+    static Columns of(ResultSetMetaData metadata) throws SQLException {
+      ImmutableMap.Builder<String, Integer> indices = ImmutableMap.builder();
+      Kind[] kinds = new Kind[metadata.getColumnCount()];
+
+      for (int index = 0; index < kinds.length; index++) {
+        indices.put(metadata.getColumnLabel(index + 1), index);
+        kinds[index] = Kind.of(metadata.getColumnType(index + 1));
+      }
+
+      return new Columns(indices.build(), kinds);
+    }
+
+    /** The number of columns */
+    int size() {
+      return kinds.length;
+    }
+
+    /** Whether a column with the label exists */
+    boolean contains(String label) {
+      return indices.containsKey(label);
+    }
+
+    /**
+     * Resolve a column label to a handle reading the column by index. A
+     * handle may be used with the records of any query with equal columns.
+     *
+     * @param label The column label
+     * @throws IllegalArgumentException if there is no column with the label
+     */
+    Column column(String label) {
+      return new Column(label, index(label));
+    }
+
+    /** Columns are equal if they have the same labels, indices and kinds. */
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof Columns)) return false;
+      Columns other = (Columns) obj;
+      return indices.equals(other.indices) && Arrays.equals(kinds, other.kinds);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * indices.hashCode() + Arrays.hashCode(kinds);
+    }
+
+    private int index(String label, Kind kind) {
+      return index(index(label), label, kind);
+    }
+
+    private int index(int index, String label, Kind kind) {
+      checkArgument(kinds[index] == kind,
+          "Column [%s] is %s, not %s", label, kinds[index], kind);
+      return index;
+    }
+
+    /* Numbers may also be stored in text columns, and are parsed on access */
+    private int numberIndex(String label) {
+      return numberIndex(index(label), label);
+    }
+
+    private int numberIndex(int index, String label) {
+      checkArgument(kinds[index] != Kind.BINARY,
+          "Column [%s] is %s, not %s", label, kinds[index], Kind.NUMBER);
+      return index;
+    }
+
+    private int index(String label) {
+      Integer index = indices.get(label);
+      checkArgument(index != null, "Unknown column: %s", label);
+      return index;
+    }
+
+  }
+
+  /**
+   * A column label resolved to its index, see {@link Columns#column(String)}.
+   */
+  static final class Column {
+
+    final String label;
+    final int index;
+
+    private Column(String label, int index) {
+      this.label = label;
+      this.index = index;
+    }
+
+    @Override
+    public String toString() {
+      return label;
+    }
+
+  }
+
+  /* How a column value is read and stored */
+  private enum Kind {
+    NUMBER,
+    BINARY,
+    TEXT;
+
+    static Kind of(int sqlType) {
+      switch (sqlType) {
+        case Types.BIGINT:
+        case Types.DECIMAL:
+        case Types.DOUBLE:
+        case Types.FLOAT:
+        case Types.INTEGER:
+        case Types.NUMERIC:
+        case Types.REAL:
+        case Types.SMALLINT:
+        case Types.TINYINT:
+          return NUMBER;
+        case Types.BINARY:
+        case Types.BLOB:
+        case Types.LONGVARBINARY:
+        case Types.VARBINARY:
+          return BINARY;
+        default:
+          return TEXT;
+      }
+    }
+  }
+
+}
@@ -1,26 +1,43 @@
 package gov.usgs.earthquake.nshmp.postgres;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static gov.usgs.earthquake.nshmp.eq.model.SourceType.FAULT;
 import static gov.usgs.earthquake.nshmp.internal.TextUtils.validateName;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 
 import gov.usgs.earthquake.nshmp.eq.model.SourceType;
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.geo.json.Feature;
 import gov.usgs.earthquake.nshmp.geo.json.FeatureCollection;
-import gov.usgs.earthquake.nshmp.geo.json.GeoJson;
 
 /**
  * Container class for faults.
  * 
  * <p> A fault set can only be created from a {@code FeatureCollection}
  * ({@link FaultSet.Builder#fromFeatureCollection(String, int, FeatureCollection)})
- * or a GeoJSON file ({@link FaultSet.Builder#fromGeoJson(String, int, Path)}).
+ * or a GeoJSON file ({@link FaultSet.Builder#fromGeoJson(String, int, Path)},
+ * or streamed with {@link FaultSet.Builder#fromGeoJsonStream(String, int, Path)}).
+ * These builders reject rate models without a rake; tables with missing rakes
+ * are read with the equivalent {@link FaultSet.UncheckedBuilder} methods.
+ * 
+ * <p> The slip rates of all faults are packed once, as they are read, in a
+ * single {@link SlipRateTable}; faults with equal slip rate trees share rows,
+ * and faults are only built when the table is complete. qFault ids and names
+ * are interned with a {@link FaultInterner} of the set. Spatial queries use a
+ * {@link FaultIndex} built on first use. Lookups by fault id and qFault id are
+ * hashed; fault ids must be unique.
  * 
  * @author Brandon Clayton
  */
@@ -29,11 +46,41 @@ public class FaultSet implements Iterable<Fault> {
   private final String name;
   private final int id;
   private final List<Fault> sources;
+  private final SlipRateTable slipRates;
+  private final IdIndex ids;
+  private final ImmutableListMultimap<String, Fault> qFaultIds;
+  private final FaultInterner interning;
+  private volatile FaultIndex index;
 
   private FaultSet(UncheckedBuilder builder) {
     name = builder.name;
     id = builder.id;
-    sources = builder.sources.build();
+
+    /* Faults read their slip rates from the packed table */
+    slipRates = builder.slipRates.build();
+    ImmutableList.Builder<Fault> faults = ImmutableList.builder();
+
+    for (int index = 0; index < builder.sources.size(); index++) {
+      faults.add(builder.sources.get(index)
+          .intern(builder.interner)
+          .slipRateTree(slipRates.rateModels(index))
+          .build());
+    }
+
+    sources = faults.build();
+    interning = builder.interner.finish(slipRates);
+
+    ids = new IdIndex(sources.size());
+    ImmutableListMultimap.Builder<String, Fault> qFaultIds = ImmutableListMultimap.builder();
+
+    for (int index = 0; index < sources.size(); index++) {
+      Fault fault = sources.get(index);
+      int duplicate = ids.put(fault.id(), index);
+      checkArgument(duplicate < 0, "Duplicate fault id: %s", fault.id());
+      fault.qFaultId().ifPresent(qFaultId -> qFaultIds.put(qFaultId, fault));
+    }
+
+    this.qFaultIds = qFaultIds.build();
   }
 
   /** Fault set name */
@@ -51,6 +98,84 @@ public class FaultSet implements Iterable<Fault> {
     return sources;
   }
 
+  /**
+   * Return the fault with an id.
+   * 
+   * @param id The fault id
+   */
+  public Optional<Fault> faultById(int id) {
+    int index = ids.get(id);
+    return index < 0 ? Optional.empty() : Optional.of(sources.get(index));
+  }
+
+  /**
+   * Return the faults with a Quaternary fault database id
+   * ({@code cfault_id}), in source order. Sections of one qFault share its
+   * id.
+   * 
+   * @param qFaultId The qFault id
+   */
+  public List<Fault> faultsByQFaultId(String qFaultId) {
+    return qFaultIds.get(qFaultId);
+  }
+
+  /**
+   * The slip rates of all faults in one table. The slip rate tree of the
+   * fault at index {@code i} of {@link #sources()} is group {@code i}, and
+   * the rate models of the faults are views of the table. Faults with equal
+   * slip rate trees share rows and views.
+   */
+  SlipRateTable slipRates() {
+    return slipRates;
+  }
+
+  /**
+   * The counts and estimated heap savings of the slip rate trees that share
+   * rows and of the interned qFault ids and names of this fault set.
+   */
+  FaultInterner interning() {
+    return interning;
+  }
+
+  /**
+   * Return the faults with a trace within a distance of a location, in source
+   * order.
+   * 
+   * @param location The location
+   * @param distance The maximum horizontal distance in km
+   */
+  public List<Fault> faultsWithin(Location location, double distance) {
+    return index().faultsWithin(location, distance);
+  }
+
+  /**
+   * Return the faults with a trace that intersects a longitude and latitude
+   * rectangle, in source order.
+   * 
+   * @param min The minimum latitude and longitude
+   * @param max The maximum latitude and longitude
+   */
+  public List<Fault> faultsIntersecting(Location min, Location max) {
+    return index().faultsIntersecting(min, max);
+  }
+
+  /* The spatial index, built on first use */
+  private FaultIndex index() {
+    FaultIndex index = this.index;
+
+    if (index == null) {
+      synchronized (this) {
+        index = this.index;
+        if (index == null) {
+          index = FaultIndex.create(sources);
+          this.index = index;
+        }
+      }
+    }
+
+    return index;
+  }
+
   /** The {@code SourceType} */
   public SourceType type() {
     return FAULT;
@@ -61,6 +186,52 @@ public class FaultSet implements Iterable<Fault> {
     return sources.iterator();
   }
 
+  /*
+   * Open addressing hash map of fault ids to indices of sources, without
+   * boxing; absent keys map to -1.
+   */
+  private static final class IdIndex {
+
+    private final int[] keys;
+    private final int[] values;
+    private final int mask;
+
+    IdIndex(int size) {
+      int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+      keys = new int[capacity];
+      values = new int[capacity];
+      mask = capacity - 1;
+      Arrays.fill(values, -1);
+    }
+
+    /* Add a key, returning the existing value of a duplicate key or -1 */
+    int put(int key, int value) {
+      int slot = slot(key);
+      while (values[slot] >= 0) {
+        if (keys[slot] == key) return values[slot];
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      values[slot] = value;
+      return -1;
+    }
+
+    int get(int key) {
+      int slot = slot(key);
+      while (values[slot] >= 0) {
+        if (keys[slot] == key) return values[slot];
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    private int slot(int key) {
+      int hash = key * 0x9E3779B9;
+      return (hash ^ (hash >>> 16)) & mask;
+    }
+
+  }
+
   /** New fault set builder */
   static Builder builder() {
     return new Builder();
@@ -78,6 +249,11 @@ public class FaultSet implements Iterable<Fault> {
       return (Builder) super.add(checkNotNull(source));
     }
 
+    @Override
+    Builder add(Fault.UncheckedBuilder source) {
+      return (Builder) super.add(checkNotNull(source));
+    }
+
     @Override
     Builder id(int id) {
       return (Builder) super.id(id);
@@ -89,14 +265,43 @@ public class FaultSet implements Iterable<Fault> {
     }
 
     /**
-     * Return a new fault set from a GeoJSON file.
+     * Return a new fault set from a GeoJSON file, optionally gzip compressed
+     * ({@code .gz}).
      * 
      * @param name Fault set name
      * @param id Fault set id
      * @param json GeoJSON file path
      */
     public static FaultSet fromGeoJson(String name, int id, Path json) {
-      return fromFeatureCollection(name, id, GeoJson.from(json).toFeatureCollection());
+      return fromFeatureCollection(name, id, Util.readGeoJson(json).toFeatureCollection());
+    }
+
+    /**
+     * Return a new fault set from a GeoJSON file, optionally gzip compressed
+     * ({@code .gz}), streaming one feature at a time with a
+     * {@link FaultReader} rather than parsing a {@code FeatureCollection}.
+     * Accepts a FeatureCollection, a single Feature or newline-delimited
+     * features.
+     * 
+     * @param name Fault set name
+     * @param id Fault set id
+     * @param json GeoJSON file path
+     * @throws IOException
+     */
+    public static FaultSet fromGeoJsonStream(String name, int id, Path json)
+        throws IOException {
+      Builder builder = builder()
+          .id(id)
+          .name(name);
+
+      try (FaultReader reader = FaultReader.open(json, true)) {
+        Fault.UncheckedBuilder fault;
+        while ((fault = reader.next(builder.slipRates())) != null) {
+          builder.add(fault);
+        }
+      }
+
+      return builder.build();
     }
 
     /**
@@ -111,9 +316,9 @@ public class FaultSet implements Iterable<Fault> {
           .id(id)
           .name(name);
 
-      fc.features().stream()
-          .map(Fault.Builder::fromFeature)
-          .forEach(builder::add);
+      for (Feature feature : fc.features()) {
+        builder.add(Fault.fromFeature(Fault.builder(), feature, builder.slipRates()));
+      }
 
       return builder.build();
     }
@@ -130,22 +335,54 @@ public class FaultSet implements Iterable<Fault> {
 
     private String name;
     private Integer id;
-    private ImmutableList.Builder<Fault> sources;
+    private List<Fault.UncheckedBuilder> sources;
+    private SlipRateTable.Builder slipRates;
+    private FaultInterner interner;
 
     private boolean built;
 
     private UncheckedBuilder() {
       built = false;
-      sources = new ImmutableList.Builder<>();
+      sources = new ArrayList<>();
+      slipRates = SlipRateTable.builder();
+      interner = new FaultInterner();
     }
 
     /**
-     * Add a fault to the fault set.
+     * Add a fault to the fault set. Its slip rates are copied to the table of
+     * the set and the fault is built again with the set; faults read for a
+     * set should be {@link #add(Fault.UncheckedBuilder) added as builders}.
      * 
      * @param source The fault
      * @return this builder
      */
     UncheckedBuilder add(Fault source) {
+      for (RateModel rateModel : source.slipRateTree()) {
+        slipRates.add(rateModel);
+      }
+      return add(source.toBuilder());
+    }
+
+    /**
+     * The slip rate table of the fault set. The rate models added since the
+     * last fault are the slip rates of the next fault
+     * {@link #add(Fault.UncheckedBuilder) added}.
+     */
+    SlipRateTable.Builder slipRates() {
+      return slipRates;
+    }
+
+    /**
+     * Add a fault to the fault set, built with the set. Its slip rates are the
+     * rate models added to {@link #slipRates()} since the last fault, sharing
+     * the rows of an earlier fault with the same slip rates; slip rates set on
+     * the fault builder are replaced.
+     * 
+     * @param source The fault builder
+     * @return this builder
+     */
+    UncheckedBuilder add(Fault.UncheckedBuilder source) {
+      slipRates.endSharedGroup();
       sources.add(source);
       return this;
     }
@@ -180,14 +417,39 @@ public class FaultSet implements Iterable<Fault> {
     }
 
     /**
-     * Return a new fault set from a GeoJSON file.
+     * Return a new fault set from a GeoJSON file, optionally gzip compressed
+     * ({@code .gz}).
      * 
      * @param name Fault set name
      * @param id Fault set id
      * @param json GeoJSON file path
      */
     static FaultSet fromGeoJson(String name, int id, Path json) {
-      return fromFeatureCollection(name, id, GeoJson.from(json).toFeatureCollection());
+      return fromFeatureCollection(name, id, Util.readGeoJson(json).toFeatureCollection());
+    }
+
+    /**
+     * Return a new fault set from a GeoJSON file, streaming one feature at a
+     * time with a {@link FaultReader}.
+     * 
+     * @param name Fault set name
+     * @param id Fault set id
+     * @param json GeoJSON file path
+     * @throws IOException
+     */
+    static FaultSet fromGeoJsonStream(String name, int id, Path json) throws IOException {
+      UncheckedBuilder builder = uncheckedBuilder()
+          .id(id)
+          .name(name);
+
+      try (FaultReader reader = FaultReader.open(json, false)) {
+        Fault.UncheckedBuilder fault;
+        while ((fault = reader.next(builder.slipRates())) != null) {
+          builder.add(fault);
+        }
+      }
+
+      return builder.build();
     }
 
     /**
@@ -202,9 +464,9 @@ public class FaultSet implements Iterable<Fault> {
           .id(id)
           .name(name);
 
-      fc.features().stream()
-          .map(Fault.UncheckedBuilder::fromFeature)
-          .forEach(builder::add);
+      for (Feature feature : fc.features()) {
+        builder.add(Fault.fromFeature(Fault.uncheckedBuilder(), feature, builder.slipRates()));
+      }
 
       return builder.build();
     }
@@ -213,7 +475,7 @@ public class FaultSet implements Iterable<Fault> {
       checkState(!built);
       checkState(id != null);
       checkState(name != null);
-      checkState(!sources.build().isEmpty());
+      checkState(!sources.isEmpty());
     }
   }
 
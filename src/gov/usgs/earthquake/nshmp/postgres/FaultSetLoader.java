@@ -0,0 +1,288 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Loads fault sets from a directory tree written by {@link FaultExporter},
+ * e.g. {@code faults/<table>}.
+ *
+ * <p> The tree is walked with NIO for GeoJSON files ({@code .geojson} or
+ * {@code .geojson.gz}) and newline-delimited features ({@code .ndjson} or
+ * {@code .ndjson.gz}), and each file is streamed through a
+ * {@link FaultReader} on a pool of {@code threads} threads, so that loading
+ * many small files uses all cores. Each file reads the rate models of its
+ * faults into a table of its own; faults are then ordered by id, independent
+ * of the file system and of the thread schedule, and added to a fault set as
+ * builders, so their slip rates are packed and each fault built only once.
+ * Faults are read with the unchecked builders: exported tables may have rate
+ * models without a rake, which the checked {@link Fault.Builder} rejects.
+ *
+ * <p> A file belongs to the state of its directory below the root, e.g.
+ * {@code faults/<table>/CA/<fault>.geojson}, or, for files directly in the
+ * root, to the state in its file name, e.g. {@code faults/<table>/CA.geojson}.
+ * A file named after the root, e.g. {@code faults/<table>/<table>.ndjson} of
+ * the {@code TABLE} and {@code NDJSON} layouts, holds all states and can only
+ * be {@link #load(String, int, Path) loaded} as a whole.
+ */
+class FaultSetLoader {
+
+  /** Default number of parsing threads */
+  static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+  private static final List<String> EXTENSIONS = ImmutableList.of(
+      ".geojson", ".geojson.gz", ".ndjson", ".ndjson.gz");
+
+  private final int threads;
+
+  private FaultSetLoader(Builder builder) {
+    threads = builder.threads;
+  }
+
+  /**
+   * Load all faults in a directory tree into one fault set.
+   *
+   * @param name Fault set name
+   * @param id Fault set id
+   * @param root The directory tree
+   * @throws IOException if the tree or a file could not be read
+   */
+  FaultSet load(String name, int id, Path root) throws IOException {
+    FaultSet.UncheckedBuilder faultSet = FaultSet.uncheckedBuilder()
+        .id(id)
+        .name(name);
+
+    List<Loaded> faults = new ArrayList<>();
+    loadFaults(root, false).values().forEach(faults::addAll);
+    add(faultSet, faults);
+    return faultSet.build();
+  }
+
+  /**
+   * Load the faults in a directory tree into one fault set per state, named
+   * by the state abbreviation. States are in alphabetical order and numbered
+   * from {@code firstId}.
+   *
+   * @param firstId The id of the first state fault set
+   * @param root The directory tree
+   * @throws IOException if the tree or a file could not be read
+   * @throws IllegalArgumentException if the tree has a whole table file, which
+   *         is not split by state
+   */
+  Map<String, FaultSet> loadByState(int firstId, Path root) throws IOException {
+    Map<String, FaultSet> faultSets = new LinkedHashMap<>();
+    int id = firstId;
+
+    for (Entry<String, List<Loaded>> state : loadFaults(root, true).entrySet()) {
+      FaultSet.UncheckedBuilder faultSet = FaultSet.uncheckedBuilder()
+          .id(id++)
+          .name(state.getKey());
+
+      add(faultSet, state.getValue());
+      faultSets.put(state.getKey(), faultSet.build());
+    }
+
+    return faultSets;
+  }
+
+  /*
+   * Parse all files in parallel, returning the faults of each state, or, if
+   * not by state, of the whole tree under the root name.
+   */
+  private Map<String, List<Loaded>> loadFaults(Path root, boolean byState)
+      throws IOException {
+
+    checkArgument(Files.isDirectory(root), "Not a directory: %s", root);
+
+    List<Path> files;
+
+    try (Stream<Path> paths = Files.walk(root)) {
+      files = paths
+          .filter(Files::isRegularFile)
+          .filter(file -> baseName(file) != null)
+          .sorted()
+          .collect(Collectors.toList());
+    }
+
+    if (byState) {
+      for (Path file : files) {
+        checkArgument(!isTableFile(root, file),
+            "Not split by state, load it as a whole: %s", file);
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(threads, files.size())),
+        new ThreadFactoryBuilder()
+            .setNameFormat("fault-loader-%d")
+            .setDaemon(true)
+            .build());
+
+    try {
+      Map<Path, Future<List<Loaded>>> parsed = new LinkedHashMap<>();
+
+      for (Path file : files) {
+        parsed.put(file, executor.submit(() -> parse(file)));
+      }
+
+      Map<String, List<Loaded>> states = new TreeMap<>();
+
+      for (Entry<Path, Future<List<Loaded>>> file : parsed.entrySet()) {
+        String state = byState ? state(root, file.getKey()) : root.getFileName().toString();
+        states.computeIfAbsent(state, key -> new ArrayList<>())
+            .addAll(get(file.getKey(), file.getValue()));
+      }
+
+      return states;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static List<Loaded> parse(Path file) throws IOException {
+    List<Loaded> faults = new ArrayList<>();
+    SlipRateTable.Builder slipRates = SlipRateTable.builder();
+
+    try (FaultReader reader = FaultReader.open(file, false)) {
+      Fault.UncheckedBuilder fault;
+      while ((fault = reader.next(slipRates)) != null) {
+        slipRates.endGroup();
+        faults.add(new Loaded(fault, slipRates, faults.size()));
+      }
+    }
+
+    return faults;
+  }
+
+  /* Add faults to a fault set in id order, copying their rate models */
+  private static void add(FaultSet.UncheckedBuilder faultSet, List<Loaded> faults) {
+    faults.sort(Comparator.comparingInt(loaded -> loaded.id));
+
+    for (Loaded loaded : faults) {
+      faultSet.slipRates().add(loaded.slipRates, loaded.group);
+      faultSet.add(loaded.fault);
+    }
+  }
+
+  /* Wait for a parsed file, unwrapping the failure of its task */
+  private static List<Loaded> get(Path file, Future<List<Loaded>> faults) throws IOException {
+    try {
+      return faults.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted loading: " + file, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+
+      if (cause instanceof IOException) {
+        throw new IOException("Could not read: " + file, cause);
+      }
+
+      throw new IllegalArgumentException("Invalid fault file: " + file, cause);
+    }
+  }
+
+  /* The file name without its fault file extension, or null if not a fault file */
+  private static String baseName(Path file) {
+    String name = file.getFileName().toString();
+
+    for (String extension : EXTENSIONS) {
+      if (name.endsWith(extension)) {
+        return name.substring(0, name.length() - extension.length());
+      }
+    }
+
+    return null;
+  }
+
+  /* A file in the root named after it, holding a whole table */
+  private static boolean isTableFile(Path root, Path file) {
+    return root.relativize(file).getNameCount() == 1 &&
+        baseName(file).equals(root.toAbsolutePath().getFileName().toString());
+  }
+
+  private static String state(Path root, Path file) {
+    Path relative = root.relativize(file);
+
+    if (relative.getNameCount() > 1) {
+      return relative.getName(0).toString();
+    }
+
+    return baseName(file);
+  }
+
+  /** New fault set loader builder */
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /** Fault set loader builder */
+  static class Builder {
+
+    private int threads;
+    private boolean built;
+
+    private Builder() {
+      threads = DEFAULT_THREADS;
+      built = false;
+    }
+
+    /**
+     * Set the number of parsing threads.
+     *
+     * @param threads The number of threads
+     * @return this builder
+     */
+    Builder threads(int threads) {
+      checkArgument(threads > 0, "Threads must be positive: %s", threads);
+      this.threads = threads;
+      return this;
+    }
+
+    /** Create a new fault set loader */
+    FaultSetLoader build() {
+      checkState(!built);
+      built = true;
+      return new FaultSetLoader(this);
+    }
+
+  }
+
+  /* A parsed fault and its slip rate tree in the table of its file */
+  private static final class Loaded {
+
+    final Fault.UncheckedBuilder fault;
+    final int id;
+    final SlipRateTable.Builder slipRates;
+    final int group;
+
+    Loaded(Fault.UncheckedBuilder fault, SlipRateTable.Builder slipRates, int group) {
+      this.fault = fault;
+      id = fault.id();
+      this.slipRates = slipRates;
+      this.group = group;
+    }
+
+  }
+
+}
@@ -0,0 +1,777 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vividsolutions.jts.io.ParseException;
+
+import gov.usgs.earthquake.nshmp.geo.json.Feature;
+import gov.usgs.earthquake.nshmp.geo.json.GeoJson;
+
+/**
+ * Writes exported faults in one of the {@link Mode output layouts}.
+ *
+ * <p> Faults reach a writer through the {@link ExportPipeline}: the
+ * conversion stage {@link #render(Encoder) renders} each fault to JSON text
+ * and the write stage {@link #write(Output) writes} it. Faults with the same
+ * {@link #key(Output) key} are written by one thread in query order, so a
+ * writer never shares an open file between threads.
+ *
+ * <p> Aggregated layouts write each state sequentially through a buffered
+ * stream. Layouts with one file for the whole table first write a part file
+ * per state and join the parts in state order on {@link #close()}, so the
+ * result does not depend on the order in which states were exported.
+ *
+ * <p> Any layout may be gzip compressed, adding {@code .gz} to each file name.
+ * Per-fault files are compressed on the write stage threads. Aggregated
+ * layouts write a state from a single thread, so their text is instead cut
+ * into chunks that a pool of compression threads turns into gzip members,
+ * written to the file in order as they complete. A compressed state or table
+ * file is thus a concatenation of gzip members, which gzip readers decompress
+ * as a single stream.
+ */
+abstract class FaultWriter implements AutoCloseable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /* Characters of aggregated output compressed as one gzip member */
+  private static final int CHUNK_SIZE = 1 << 18;
+  private static final int COMPRESSORS = Runtime.getRuntime().availableProcessors();
+  private static final int MAX_PENDING = 2 * COMPRESSORS;
+
+  private static final String COLLECTION_HEADER =
+      "{\n  \"type\": \"FeatureCollection\",\n  \"features\": [\n";
+  private static final String COLLECTION_FOOTER = "\n  ]\n}\n";
+  private static final String COLLECTION_SEPARATOR = ",\n";
+  private static final String COLLECTION_INDENT = "    ";
+  private static final String LINE_SEPARATOR = "\n";
+
+  private static final String COMPACT_COLLECTION_HEADER =
+      "{\"type\":\"FeatureCollection\",\"features\":[";
+  private static final String COMPACT_COLLECTION_FOOTER = "]}";
+
+  private static final ThreadLocal<StringWriter> BUFFER =
+      ThreadLocal.withInitial(StringWriter::new);
+
+  final Path outputPath;
+  final boolean compress;
+
+  private final AtomicLong rendered = new AtomicLong();
+  private final AtomicLong renderedChars = new AtomicLong();
+  private final AtomicLong renderTime = new AtomicLong();
+
+  private FaultWriter(Path outputPath, boolean compress) {
+    this.outputPath = outputPath;
+    this.compress = compress;
+  }
+
+  /**
+   * Create a writer.
+   *
+   * @param mode The output layout
+   * @param outputPath The output directory for the table
+   * @param table The table name
+   * @param manifest The manifest of an incremental export, or {@code null};
+   *        only supported by the {@link Mode#FEATURE FEATURE} layout
+   * @param compress Whether to gzip the output files
+   */
+  static FaultWriter create(
+      Mode mode,
+      Path outputPath,
+      String table,
+      ExportManifest manifest,
+      boolean compress) {
+
+    if (manifest != null && mode != Mode.FEATURE) {
+      throw new IllegalArgumentException("Incremental export requires FEATURE output: " + mode);
+    }
+
+    switch (mode) {
+      case FEATURE:
+        return new FeatureWriter(outputPath, compress, manifest);
+      case STATE:
+        return new StateWriter(outputPath, compress);
+      case TABLE:
+        return new TableWriter(outputPath, compress, table + ".geojson", true);
+      case NDJSON:
+        return new TableWriter(outputPath, compress, table + ".ndjson", false);
+      default:
+        throw new IllegalStateException("Unsupported output mode: " + mode);
+    }
+  }
+
+  /**
+   * Called by the fetch stage before the faults of a state are submitted.
+   *
+   * @param state The state abbreviation
+   * @throws IOException
+   */
+  void startState(String state) throws IOException {}
+
+  /** The routing key of a fault; faults with equal keys are written in order */
+  abstract Object key(Output output);
+
+  /**
+   * Render a fault, streamed by an encoder, to the JSON text written for it;
+   * called by the conversion stage. Text is built in a buffer reused by each
+   * conversion thread.
+   *
+   * @param encoder Writes the fault feature
+   * @throws IOException
+   * @throws ParseException if the fault trace could not be decoded
+   */
+  String render(Encoder encoder) throws IOException, ParseException {
+    long start = System.nanoTime();
+    StringWriter buffer = BUFFER.get();
+    buffer.getBuffer().setLength(0);
+
+    encode(encoder, buffer);
+    String json = buffer.toString();
+
+    record(json, start);
+    return json;
+  }
+
+  /**
+   * Render a fault feature to the JSON text written for it with
+   * {@code GeoJson}; called by the conversion stage unless streaming output
+   * is enabled.
+   *
+   * @param feature The fault feature
+   */
+  String render(Feature feature) {
+    long start = System.nanoTime();
+    String json = toJson(feature);
+    record(json, start);
+    return json;
+  }
+
+  /** Stream a feature, with any framing, to a buffer */
+  abstract void encode(Encoder encoder, Writer buffer) throws IOException, ParseException;
+
+  /** The JSON text of a feature, with any framing, from {@code GeoJson} */
+  abstract String toJson(Feature feature);
+
+  /**
+   * Write a rendered fault; called by the write stage.
+   *
+   * @param output The rendered fault
+   * @throws IOException
+   */
+  abstract void write(Output output) throws IOException;
+
+  /**
+   * Complete all files once every fault has been written.
+   *
+   * @throws IOException
+   */
+  @Override
+  public abstract void close() throws IOException;
+
+  /**
+   * Close any open files without completing them, after a failed export.
+   * Files already written, and partial state or part files, are left in
+   * place.
+   *
+   * @throws IOException
+   */
+  void abort() throws IOException {}
+
+  /**
+   * Returns a summary of the rendering throughput. Sizes are counted in
+   * characters, equal to bytes for the ASCII text of most faults.
+   */
+  String metrics() {
+    long chars = renderedChars.get();
+    Duration time = Duration.ofNanos(renderTime.get());
+    double seconds = time.toNanos() / 1e9;
+
+    return String.format(
+        "Render [faults=%d, size=%.1f MB, time=%s, throughput=%.1f MB/s]",
+        rendered.get(),
+        chars / 1e6,
+        time,
+        seconds == 0.0 ? 0.0 : chars / 1e6 / seconds);
+  }
+
+  private void record(String json, long start) {
+    renderTime.addAndGet(System.nanoTime() - start);
+    renderedChars.addAndGet(json.length());
+    rendered.incrementAndGet();
+  }
+
+  /*
+   * Compact, single line JSON of a feature: the GeoJson text of a one feature
+   * collection, serialized once, with the whitespace between tokens and the
+   * collection framing removed in a single scan.
+   */
+  static String toJsonLine(Feature feature) {
+    String json = GeoJson.builder().add(feature).toJson();
+    StringBuilder line = new StringBuilder(json.length());
+    boolean string = false;
+
+    for (int index = 0; index < json.length(); index++) {
+      char c = json.charAt(index);
+
+      if (string) {
+        line.append(c);
+        if (c == '\\') {
+          line.append(json.charAt(++index));
+        } else if (c == '"') {
+          string = false;
+        }
+      } else if (c == '"') {
+        string = true;
+        line.append(c);
+      } else if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        line.append(c);
+      }
+    }
+
+    checkState(
+        line.indexOf(COMPACT_COLLECTION_HEADER) == 0 &&
+            line.lastIndexOf(COMPACT_COLLECTION_FOOTER) ==
+                line.length() - COMPACT_COLLECTION_FOOTER.length(),
+        "Not a one feature collection: %s", json);
+    return line.substring(
+        COMPACT_COLLECTION_HEADER.length(),
+        line.length() - COMPACT_COLLECTION_FOOTER.length());
+  }
+
+  /** The name of an output file, with the compression extension */
+  String fileName(String name) {
+    return compress ? name + ".gz" : name;
+  }
+
+  /** Write the text of a whole output file */
+  void writeFile(Path path, String text) throws IOException {
+    byte[] bytes = text.getBytes(UTF_8);
+
+    if (!compress) {
+      Files.write(path, bytes);
+      return;
+    }
+
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+      out.write(bytes);
+    }
+  }
+
+
+  /** Streams a fault feature. */
+  @FunctionalInterface
+  interface Encoder {
+
+    /** Write the feature */
+    void encode(GeoJsonWriter json) throws IOException, ParseException;
+
+  }
+
+  /** Output layouts. */
+  enum Mode {
+
+    /**
+     * One GeoJSON FeatureCollection per fault:
+     * {@code faults/<table>/<state>/<fault name>.geojson}.
+     */
+    FEATURE,
+
+    /**
+     * One GeoJSON FeatureCollection per state:
+     * {@code faults/<table>/<state>.geojson}.
+     */
+    STATE,
+
+    /**
+     * One GeoJSON FeatureCollection for the table:
+     * {@code faults/<table>/<table>.geojson}.
+     */
+    TABLE,
+
+    /**
+     * Newline-delimited GeoJSON, one feature per line, for the table:
+     * {@code faults/<table>/<table>.ndjson}.
+     */
+    NDJSON;
+
+  }
+
+  /** A fault moving through the export pipeline */
+  static class Output {
+
+    final String state;
+    final String name;
+    final int id;
+    final String cfaultId;
+    final FaultRecord record;
+    String json;
+
+    /* Conversion time, in nanoseconds */
+    long convertNanos;
+
+    /* Number of fault trace points */
+    int tracePoints;
+
+    /* Flight recorder event committed once written, or null */
+    Object event;
+
+    /**
+     * @param state The state abbreviation
+     * @param name The cleaned fault name
+     * @param id The fault id
+     * @param cfaultId The qFault id, may be {@code null}
+     * @param record The fault record
+     */
+    Output(String state, String name, int id, String cfaultId, FaultRecord record) {
+      this.state = state;
+      this.name = name;
+      this.id = id;
+      this.cfaultId = cfaultId;
+      this.record = record;
+    }
+
+  }
+
+  /*
+   * One file per fault, in a directory per state. In an incremental export,
+   * files whose content hash matches the manifest are not rewritten. A file
+   * shared by faults with the same name is always written once any of them
+   * has been written in this export, so the last fault still wins. The
+   * rendered text is the whole file, the text GeoJson writes for the feature
+   * (see GeoJsonWriterTest), so built features are not serialized again.
+   */
+  private static class FeatureWriter extends FaultWriter {
+
+    private final ExportManifest manifest;
+    private final Set<Path> written;
+
+    FeatureWriter(Path outputPath, boolean compress, ExportManifest manifest) {
+      super(outputPath, compress);
+      this.manifest = manifest;
+      written = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    void startState(String state) throws IOException {
+      Files.createDirectories(outputPath.resolve(state));
+    }
+
+    @Override
+    Object key(Output output) {
+      return path(output);
+    }
+
+    @Override
+    void encode(Encoder encoder, Writer buffer) throws IOException, ParseException {
+      GeoJsonWriter json = GeoJsonWriter.pretty(buffer).beginFeatureCollection();
+      encoder.encode(json);
+      json.endFeatureCollection().flush();
+    }
+
+    @Override
+    String toJson(Feature feature) {
+      return GeoJson.builder().add(feature).toJson();
+    }
+
+    @Override
+    void write(Output output) throws IOException {
+      Path path = path(output);
+
+      if (manifest == null) {
+        writeFile(path, output.json);
+        return;
+      }
+
+      String hash = ExportManifest.hash(output.json);
+      boolean write = written.contains(path) ||
+          !manifest.isUnchanged(output.id, output.cfaultId, hash, path);
+
+      if (write) {
+        writeFile(path, output.json);
+        written.add(path);
+      }
+
+      manifest.record(output.id, output.cfaultId, hash, path, write);
+    }
+
+    @Override
+    public void close() {}
+
+    private Path path(Output output) {
+      return outputPath.resolve(output.state).resolve(fileName(output.name + ".geojson"));
+    }
+
+  }
+
+  /*
+   * Faults appended to one open stream per state. Each state is written by a
+   * single thread; the map only guards the set of open streams.
+   */
+  private static abstract class StreamWriter extends FaultWriter {
+
+    private final Map<String, Writer> writers;
+    private final ExecutorService compressors;
+
+    StreamWriter(Path outputPath, boolean compress) {
+      super(outputPath, compress);
+      writers = new ConcurrentHashMap<>();
+      compressors = compress
+          ? Executors.newFixedThreadPool(COMPRESSORS, new ThreadFactoryBuilder()
+              .setNameFormat("export-gzip-%d")
+              .setDaemon(true)
+              .build())
+          : null;
+    }
+
+    @Override
+    void startState(String state) throws IOException {
+      Files.createDirectories(outputPath);
+    }
+
+    @Override
+    Object key(Output output) {
+      return output.state;
+    }
+
+    @Override
+    void encode(Encoder encoder, Writer buffer) throws IOException, ParseException {
+      GeoJsonWriter json = GeoJsonWriter.compact(buffer);
+      encoder.encode(json);
+      json.flush();
+    }
+
+    @Override
+    String toJson(Feature feature) {
+      return toJsonLine(feature);
+    }
+
+    /** The file the faults of a state are appended to */
+    abstract Path statePath(String state);
+
+    /** Written before the first fault of a state */
+    abstract String header();
+
+    /** Written between faults */
+    abstract String separator();
+
+    /** Written before each fault */
+    abstract String indent();
+
+    @Override
+    void write(Output output) throws IOException {
+      Writer writer = writers.get(output.state);
+
+      if (writer == null) {
+        writer = newWriter(statePath(output.state));
+        writers.put(output.state, writer);
+        writer.write(header());
+      } else {
+        writer.write(separator());
+      }
+
+      writer.write(indent());
+      writer.write(output.json);
+    }
+
+    @Override
+    void abort() throws IOException {
+      IOException error = null;
+
+      try {
+        for (Writer writer : writers.values()) {
+          try {
+            if (writer instanceof GzipMemberWriter) {
+              ((GzipMemberWriter) writer).discard();
+            } else {
+              writer.close();
+            }
+          } catch (IOException e) {
+            if (error == null) error = e;
+            else error.addSuppressed(e);
+          }
+        }
+      } finally {
+        writers.clear();
+        if (compressors != null) compressors.shutdownNow();
+      }
+
+      if (error != null) throw error;
+    }
+
+    /** Close all state streams, writing footer to each; returns the states in order */
+    Iterable<String> closeStates(String footer) throws IOException {
+      Map<String, Writer> sorted = new TreeMap<>(writers);
+
+      try {
+        for (Writer writer : sorted.values()) {
+          writer.write(footer);
+          writer.close();
+        }
+      } finally {
+        if (compressors != null) compressors.shutdownNow();
+      }
+
+      writers.clear();
+      return sorted.keySet();
+    }
+
+    /* Open a buffered writer of a state file */
+    private Writer newWriter(Path path) throws IOException {
+      OutputStream out = Files.newOutputStream(path);
+
+      if (compress) {
+        return new GzipMemberWriter(out, compressors);
+      }
+
+      return new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE);
+    }
+
+  }
+
+  /* One FeatureCollection file per state */
+  private static class StateWriter extends StreamWriter {
+
+    StateWriter(Path outputPath, boolean compress) {
+      super(outputPath, compress);
+    }
+
+    @Override
+    Path statePath(String state) {
+      return outputPath.resolve(fileName(state + ".geojson"));
+    }
+
+    @Override
+    String header() {
+      return COLLECTION_HEADER;
+    }
+
+    @Override
+    String separator() {
+      return COLLECTION_SEPARATOR;
+    }
+
+    @Override
+    String indent() {
+      return COLLECTION_INDENT;
+    }
+
+    @Override
+    public void close() throws IOException {
+      closeStates(COLLECTION_FOOTER);
+    }
+
+  }
+
+  /*
+   * One file for the table, either a FeatureCollection or newline-delimited
+   * features, assembled from per-state part files in state order.
+   */
+  private static class TableWriter extends StreamWriter {
+
+    private final Path tablePath;
+    private final boolean collection;
+
+    TableWriter(Path outputPath, boolean compress, String fileName, boolean collection) {
+      super(outputPath, compress);
+      tablePath = outputPath.resolve(fileName(fileName));
+      this.collection = collection;
+    }
+
+    @Override
+    Path statePath(String state) {
+      return outputPath.resolve("." + state + ".part");
+    }
+
+    @Override
+    String header() {
+      return "";
+    }
+
+    @Override
+    String separator() {
+      return collection ? COLLECTION_SEPARATOR : LINE_SEPARATOR;
+    }
+
+    @Override
+    String indent() {
+      return collection ? COLLECTION_INDENT : "";
+    }
+
+    @Override
+    public void close() throws IOException {
+      Iterable<String> states = closeStates("");
+      Files.createDirectories(outputPath);
+
+      try (OutputStream table = new BufferedOutputStream(
+          Files.newOutputStream(tablePath),
+          BUFFER_SIZE)) {
+
+        boolean first = true;
+        if (collection) writeText(table, COLLECTION_HEADER);
+
+        for (String state : states) {
+          if (!first) writeText(table, separator());
+          first = false;
+
+          Path part = statePath(state);
+          Files.copy(part, table);
+          Files.delete(part);
+        }
+
+        if (collection) {
+          writeText(table, COLLECTION_FOOTER);
+        } else if (!first) {
+          writeText(table, LINE_SEPARATOR);
+        }
+      }
+    }
+
+    /* Write framing text, as its own gzip member when compressing */
+    private void writeText(OutputStream table, String text) throws IOException {
+      if (!compress) {
+        table.write(text.getBytes(UTF_8));
+        return;
+      }
+
+      /* Closing a member must leave the table stream open */
+      OutputStream unclosed = new FilterOutputStream(table) {
+        @Override
+        public void close() throws IOException {
+          flush();
+        }
+      };
+
+      try (OutputStream member = new GZIPOutputStream(unclosed)) {
+        member.write(text.getBytes(UTF_8));
+      }
+    }
+
+  }
+
+  /*
+   * Gzip text compressed off the writing thread. Text is buffered in chunks;
+   * each full chunk is compressed to its own gzip member on a shared pool and
+   * members are written to the file in order, as they complete. At most
+   * MAX_PENDING members are in flight; the writing thread then waits for the
+   * oldest, so compression throttles it rather than buffering without limit.
+   */
+  private static class GzipMemberWriter extends Writer {
+
+    private final OutputStream out;
+    private final ExecutorService compressors;
+    private final Deque<Future<byte[]>> pending;
+    private final StringBuilder chunk;
+
+    GzipMemberWriter(OutputStream out, ExecutorService compressors) {
+      this.out = out;
+      this.compressors = compressors;
+      pending = new ArrayDeque<>();
+      chunk = new StringBuilder(CHUNK_SIZE);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+      chunk.append(chars, offset, length);
+      if (chunk.length() >= CHUNK_SIZE) submit();
+    }
+
+    @Override
+    public void write(String text) throws IOException {
+      chunk.append(text);
+      if (chunk.length() >= CHUNK_SIZE) submit();
+    }
+
+    @Override
+    public void flush() throws IOException {
+      submit();
+      while (!pending.isEmpty()) {
+        writeMember();
+      }
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        out.close();
+      }
+    }
+
+    /* Close the file, dropping buffered text and members not yet written */
+    void discard() throws IOException {
+      chunk.setLength(0);
+      pending.forEach(member -> member.cancel(true));
+      pending.clear();
+      out.close();
+    }
+
+    private void submit() throws IOException {
+      if (chunk.length() > 0) {
+        String text = chunk.toString();
+        chunk.setLength(0);
+        pending.add(compressors.submit(() -> gzip(text)));
+      }
+
+      while (!pending.isEmpty() &&
+          (pending.size() > MAX_PENDING || pending.peek().isDone())) {
+        writeMember();
+      }
+    }
+
+    /* Write the oldest member, waiting for it if needed */
+    private void writeMember() throws IOException {
+      try {
+        out.write(pending.poll().get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted compressing output");
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), IOException.class);
+        throw new IOException("Could not compress output", e.getCause());
+      }
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+      byte[] bytes = text.getBytes(UTF_8);
+      ByteArrayOutputStream member = new ByteArrayOutputStream(bytes.length / 4);
+
+      try (OutputStream gzip = new GZIPOutputStream(member, BUFFER_SIZE)) {
+        gzip.write(bytes);
+      }
+
+      return member.toByteArray();
+    }
+
+  }
+
+}
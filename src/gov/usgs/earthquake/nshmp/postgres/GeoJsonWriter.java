@@ -0,0 +1,147 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.geo.LocationList;
+
+/**
+ * Streaming GeoJSON emitter for line string features.
+ *
+ * <p> Features are written token by token to a {@code Writer}, with no
+ * intermediate {@code Feature}, {@code Properties} or {@code GeoJson.Builder}
+ * objects. A {@link #pretty(Writer) pretty} writer lays features out the way
+ * {@code GeoJson} does: member order {@code type}, {@code id},
+ * {@code geometry}, {@code properties}, two space indentation, coordinates as
+ * {@code [lon, lat]} and properties in the order they are written. A
+ * {@link #compact(Writer) compact} writer emits the same tokens on a single
+ * line.
+ *
+ * <p> Property values other than strings and numbers are serialized with Gson
+ * directly into the stream. {@code GeoJsonWriterTest} checks the layout
+ * against the files {@code GeoJson} itself writes.
+ */
+class GeoJsonWriter {
+
+  private static final Gson GSON = new GsonBuilder()
+      .disableHtmlEscaping()
+      .create();
+
+  private final JsonWriter json;
+
+  private GeoJsonWriter(Writer out, String indent) {
+    json = new JsonWriter(out);
+    json.setIndent(indent);
+    json.setHtmlSafe(false);
+    json.setSerializeNulls(false);
+  }
+
+  /** Create a writer with the layout of {@code GeoJson} */
+  static GeoJsonWriter pretty(Writer out) {
+    return new GeoJsonWriter(out, "  ");
+  }
+
+  /** Create a writer that emits each value on a single line */
+  static GeoJsonWriter compact(Writer out) {
+    return new GeoJsonWriter(out, "");
+  }
+
+  /** Begin a FeatureCollection; features follow. */
+  GeoJsonWriter beginFeatureCollection() throws IOException {
+    json.beginObject()
+        .name("type").value("FeatureCollection")
+        .name("features").beginArray();
+    return this;
+  }
+
+  /** End a FeatureCollection. */
+  GeoJsonWriter endFeatureCollection() throws IOException {
+    json.endArray().endObject();
+    return this;
+  }
+
+  /**
+   * Begin a line string feature, writing its id and geometry; properties
+   * follow.
+   *
+   * @param id The feature id
+   * @param trace The line string
+   */
+  GeoJsonWriter beginFeature(int id, LocationList trace) throws IOException {
+    json.beginObject()
+        .name("type").value("Feature")
+        .name("id").value(id)
+        .name("geometry").beginObject()
+        .name("type").value("LineString")
+        .name("coordinates").beginArray();
+
+    for (Location loc : trace) {
+      json.beginArray()
+          .value(loc.lon())
+          .value(loc.lat())
+          .endArray();
+    }
+
+    json.endArray()
+        .endObject()
+        .name("properties").beginObject();
+    return this;
+  }
+
+  /**
+   * Write a string property; {@code null} values are omitted.
+   *
+   * @param name The property name
+   * @param value The value
+   */
+  GeoJsonWriter property(String name, String value) throws IOException {
+    json.name(name).value(value);
+    return this;
+  }
+
+  /**
+   * Write a numeric property; {@code null} values are omitted.
+   *
+   * @param name The property name
+   * @param value The value
+   */
+  GeoJsonWriter property(String name, Number value) throws IOException {
+    json.name(name).value(value);
+    return this;
+  }
+
+  /**
+   * Write a property serialized with Gson; {@code null} values are omitted.
+   *
+   * @param name The property name
+   * @param value The value
+   */
+  GeoJsonWriter property(String name, Object value) throws IOException {
+    json.name(name);
+
+    if (value == null) {
+      json.nullValue();
+    } else {
+      GSON.toJson(value, value.getClass(), json);
+    }
+
+    return this;
+  }
+
+  /** End a feature and its properties. */
+  GeoJsonWriter endFeature() throws IOException {
+    json.endObject().endObject();
+    return this;
+  }
+
+  /** Flush the underlying writer. */
+  void flush() throws IOException {
+    json.flush();
+  }
+
+}
@@ -0,0 +1,90 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Records the timings of an export, by stage and by fault.
+ *
+ * <p> A registry is set on a {@link FaultExporter}, which also sets it on its
+ * {@link PostgreSQL} database. It is called from the fetch, conversion and
+ * write threads, so implementations must be thread safe and cheap; the
+ * default, {@link ExportMetrics}, keeps histograms in memory. {@link #NONE}
+ * discards everything.
+ */
+interface MetricsRegistry {
+
+  /** A registry that records nothing */
+  MetricsRegistry NONE = new MetricsRegistry() {
+
+    @Override
+    public void record(Stage stage, long nanos, long bytes) {}
+
+    @Override
+    public void fault(String state, int id, String name, long nanos, long bytes) {}
+
+    @Override
+    public void writeSummary(JsonWriter json) throws IOException {
+      json.beginObject().endObject();
+    }
+
+  };
+
+  /**
+   * Record one timed event of a stage.
+   *
+   * @param stage The stage
+   * @param nanos The elapsed time, in nanoseconds
+   * @param bytes The size of the data handled, or 0 if unknown
+   */
+  void record(Stage stage, long nanos, long bytes);
+
+  /**
+   * Record a fault once it has been written.
+   *
+   * @param state The state abbreviation
+   * @param id The fault {@code id}
+   * @param name The cleaned fault name
+   * @param nanos The time spent converting and writing the fault
+   * @param bytes The size of the JSON text of the fault
+   */
+  void fault(String state, int id, String name, long nanos, long bytes);
+
+  /**
+   * Write a machine-readable summary of the recorded metrics as a JSON value.
+   *
+   * @param json The writer
+   * @throws IOException
+   */
+  void writeSummary(JsonWriter json) throws IOException;
+
+  /** Timed export stages. */
+  enum Stage {
+
+    /** Execution of a query statement, up to the first fetched rows */
+    QUERY,
+
+    /** Fetching and decoding a row into a {@link FaultRecord} */
+    DECODE,
+
+    /** Decoding the WKB or WKT fault trace of a row */
+    TRACE,
+
+    /** Building the rate models and enrichment attributes of a fault */
+    PROPERTIES,
+
+    /** Converting a fault to JSON text, including its trace and properties */
+    RENDER,
+
+    /** Writing the JSON text of a fault */
+    WRITE;
+
+    /** The lower case name used in summaries */
+    String label() {
+      return name().toLowerCase();
+    }
+
+  }
+
+}
@@ -1,5 +1,7 @@
 package gov.usgs.earthquake.nshmp.postgres;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.ASCEND;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.DESCEND;
@@ -9,29 +11,69 @@ import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.SELECT;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.SELECT_DISTINCT;
 import static gov.usgs.earthquake.nshmp.postgres.Util.Keys.WHERE;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.PGCopyInputStream;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+
+import gov.usgs.earthquake.nshmp.postgres.ConnectionPool.PooledConnection;
 
 /**
  * Connect and query a PostgeSQL database.
  * 
- * <p> Use {@code Builder} for new instance.
+ * <p> Use {@code Builder} for new instance. Queries are made through a
+ * {@link Session}, which borrows a connection from a bounded pool for the
+ * duration of the session.
  * 
  * @author Brandon Clayton
  */
 public class PostgreSQL {
 
-  private static Connection connection;
-  private static Statement statement;
+  /** Default maximum number of pooled connections */
+  static final int DEFAULT_MAX_CONNECTIONS = Runtime.getRuntime().availableProcessors();
+
+  /** Default maximum time to wait for a pooled connection */
+  static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30);
+
+  /** Default time after which an idle pooled connection is closed */
+  static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(10);
+
+  /** Default number of rows fetched per round trip by streaming queries */
+  static final int DEFAULT_FETCH_SIZE = 1000;
+
+  /** Default number of prepared statements cached per pooled connection */
+  static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+
+  private ConnectionPool pool;
+  private volatile MetricsRegistry metrics = MetricsRegistry.NONE;
 
   private final String database;
   private final String password;
   private final String table;
   private final String url;
   private final String username;
+  private final int maxConnections;
+  private final Duration maxWait;
+  private final Duration idleTimeout;
+  private final int fetchSize;
+  private final int statementCacheSize;
 
   private PostgreSQL(Builder builder) {
     database = builder.database;
@@ -39,6 +81,11 @@ public class PostgreSQL {
     table = builder.table;
     username = builder.username;
     url = builder.url;
+    maxConnections = builder.maxConnections;
+    maxWait = builder.maxWait;
+    idleTimeout = builder.idleTimeout;
+    fetchSize = builder.fetchSize;
+    statementCacheSize = builder.statementCacheSize;
   }
 
   /** The database table name */
@@ -51,48 +98,378 @@ public class PostgreSQL {
     return database;
   }
 
+  /** The maximum number of pooled connections */
+  int maxConnections() {
+    return maxConnections;
+  }
+
+  /** The default number of rows fetched per round trip by streaming queries */
+  int fetchSize() {
+    return fetchSize;
+  }
+
+  /** The registry recording query times */
+  MetricsRegistry metrics() {
+    return metrics;
+  }
+
+  /**
+   * Set the registry recording the execution time of each query, as the
+   * {@link MetricsRegistry.Stage#QUERY QUERY} stage. Sessions use the
+   * registry set when they start. By default nothing is recorded.
+   * 
+   * @param metrics The registry
+   */
+  void metrics(MetricsRegistry metrics) {
+    this.metrics = checkNotNull(metrics);
+  }
+
   /**
-   * Create a read only connection to the specified PostgreSQL database.
+   * Create the pool of read only connections to the specified PostgreSQL
+   * database. Connections are opened as sessions are started.
    * 
    * @throws ClassNotFoundException
    * @throws SQLException
    */
   void connect() throws ClassNotFoundException, SQLException {
+    checkState(pool == null, "Already connected");
     System.out.println("Connecting to [" + database + "." + table + "] database ...\n");
     Class.forName("org.postgresql.Driver");
 
-    connection = DriverManager.getConnection(
-        url + database,
-        username,
-        password);
-
-    connection.setReadOnly(true);
+    pool = new ConnectionPool(
+        this::openConnection,
+        maxConnections,
+        maxWait,
+        idleTimeout,
+        statementCacheSize);
   }
 
   /**
-   * Query the PostgreSQL database with SQL.
+   * Start a new session on a pooled connection, waiting for a connection if
+   * all are in use. Result sets opened by the session are closed, and the
+   * connection returned to the pool, when the session is closed.
    * 
-   * @param sql The SQL query statement
-   * @return The resulting query
-   * @throws SQLException
+   * @throws SQLException if no connection became available
    */
-  ResultSet query(String sql) throws SQLException {
-    statement = connection.createStatement();
-    return statement.executeQuery(sql);
+  Session session() throws SQLException {
+    checkState(pool != null, "Not connected");
+    return new Session(pool, fetchSize, metrics);
+  }
+
+  /** Returns a snapshot of the connection pool size and wait time metrics. */
+  ConnectionPool.Metrics poolMetrics() {
+    checkState(pool != null, "Not connected");
+    return pool.metrics();
   }
 
   /**
-   * Close the PostgreSQL database connection.
+   * Close the PostgreSQL database connection pool.
    * 
    * @throws SQLException
    */
   void close() throws SQLException {
-    statement.close();
-    connection.close();
+    checkState(pool != null, "Not connected");
+    pool.close();
+    pool = null;
 
     System.out.println("\nDisconnecting from [" + database + "." + table + "] database \n");
   }
 
+  /* Open a new read only connection for the pool */
+  private Connection openConnection() throws SQLException {
+    Connection connection = DriverManager.getConnection(
+        url + database,
+        username,
+        password);
+
+    connection.setReadOnly(true);
+    return connection;
+  }
+
+  /**
+   * A connection borrowed from the pool.
+   * 
+   * <p> A session is meant to be used by a single thread. Result sets are
+   * valid until the session is closed, or until the same SQL is executed
+   * again in the session. Closing a record reader closes its result set and
+   * releases both from the session, so a long session holds only the
+   * cursors still being read.
+   * 
+   * <p> All queries run as prepared statements taken from the connection's
+   * statement cache, with {@code ?} placeholders bound to the given
+   * parameters, so repeated queries reuse their server-side plan.
+   * 
+   * <p> Each query emits a flight recorder event ({@link ExportEvents}). Rows
+   * read through {@link #records(ResultSet)} are counted and the event is
+   * committed when they are exhausted or the reader is closed; other queries
+   * commit their event, uncounted, when the session is closed.
+   * 
+   * <p> Streaming queries ({@link #stream(String)}) read rows through a
+   * server-side cursor, {@code fetchSize} rows at a time, rather than
+   * buffering the whole result in memory. pgjdbc only uses a cursor inside a
+   * transaction, so the first streaming query turns autocommit off for the
+   * rest of the session; the transaction is rolled back and autocommit
+   * restored when the session is closed.
+   * 
+   * <p> Bulk extraction ({@link #copy(String, CopyFormat)}) streams a query
+   * with {@code COPY ... TO STDOUT} instead. The connection is busy until the
+   * copy stream is read to the end or the session is closed.
+   */
+  static class Session implements AutoCloseable {
+
+    private final ConnectionPool pool;
+    private final PooledConnection pooled;
+    private final List<ResultSet> results;
+    private final List<FaultRecord.Reader> readers;
+    private final Map<ResultSet, Object> events;
+    private final int fetchSize;
+    private final MetricsRegistry metrics;
+    private boolean autoCommitDisabled;
+    private boolean closed;
+
+    private Session(ConnectionPool pool, int fetchSize, MetricsRegistry metrics)
+        throws SQLException {
+      this.pool = pool;
+      this.fetchSize = fetchSize;
+      this.metrics = metrics;
+      pooled = pool.borrow();
+      results = new ArrayList<>();
+      readers = new ArrayList<>();
+      events = new IdentityHashMap<>();
+    }
+
+    /**
+     * Query the PostgreSQL database with SQL.
+     * 
+     * @param sql The SQL query statement
+     * @return The resulting query
+     * @throws SQLException
+     */
+    ResultSet query(String sql) throws SQLException {
+      return query(sql, ImmutableList.of());
+    }
+
+    /**
+     * Query the PostgreSQL database with parameterized SQL.
+     * 
+     * @param sql The SQL query statement, with {@code ?} parameters
+     * @param parameters The parameter values, in order
+     * @return The resulting query
+     * @throws SQLException
+     */
+    ResultSet query(String sql, List<?> parameters) throws SQLException {
+      return execute(sql, parameters, 0);
+    }
+
+    /**
+     * Query the PostgreSQL database with SQL, streaming the rows through a
+     * server-side cursor with the default fetch size.
+     * 
+     * @param sql The SQL query statement
+     * @return The resulting query, readable forward only
+     * @throws SQLException
+     */
+    ResultSet stream(String sql) throws SQLException {
+      return stream(sql, fetchSize);
+    }
+
+    /**
+     * Query the PostgreSQL database with SQL, streaming the rows through a
+     * server-side cursor.
+     * 
+     * @param sql The SQL query statement
+     * @param fetchSize The number of rows fetched per round trip
+     * @return The resulting query, readable forward only
+     * @throws SQLException
+     */
+    ResultSet stream(String sql, int fetchSize) throws SQLException {
+      return stream(sql, ImmutableList.of(), fetchSize);
+    }
+
+    /**
+     * Query the PostgreSQL database with parameterized SQL, streaming the rows
+     * through a server-side cursor.
+     * 
+     * @param sql The SQL query statement, with {@code ?} parameters
+     * @param parameters The parameter values, in order
+     * @param fetchSize The number of rows fetched per round trip
+     * @return The resulting query, readable forward only
+     * @throws SQLException
+     */
+    ResultSet stream(String sql, List<?> parameters, int fetchSize) throws SQLException {
+      checkState(!closed, "Session is closed");
+      checkArgument(fetchSize > 0, "Fetch size must be positive: %s", fetchSize);
+
+      Connection connection = pooled.connection;
+
+      if (connection.getAutoCommit()) {
+        connection.setAutoCommit(false);
+        autoCommitDisabled = true;
+      }
+
+      return execute(sql, parameters, fetchSize);
+    }
+
+    /**
+     * Read the rows of a result set of this session as fault records. The
+     * rows are counted for the flight recorder event of the query, committed
+     * when they are exhausted or the reader is closed. The reader is closed
+     * with the session.
+     * 
+     * @param result A result set returned by this session
+     * @return A reader of the rows
+     * @throws SQLException
+     */
+    FaultRecord.Reader records(ResultSet result) throws SQLException {
+      checkState(!closed, "Session is closed");
+
+      FaultRecord.Reader reader = FaultRecord.reader(result);
+      reader.event(events.remove(result));
+      reader.onClose(() -> {
+        readers.remove(reader);
+        results.remove(result);
+      });
+      readers.add(reader);
+      return reader;
+    }
+
+    /**
+     * Stream the rows of a query with {@code COPY (sql) TO STDOUT} through
+     * pgjdbc's {@code CopyManager}, decoding them directly into fault records.
+     * Rows are sent as a single stream, without the per-row messages and
+     * cursor round trips of a {@code SELECT}. The column labels and types
+     * are described, without executing the query, from its cached prepared
+     * statement. Like {@link #records(ResultSet)}, the rows are counted for
+     * the flight recorder event of the query, committed at the end of the
+     * stream. Closing the reader, or the session, cancels an unfinished copy.
+     * 
+     * @param sql The SQL query statement, without parameters
+     * @param format The copy format
+     * @return A reader of the rows
+     * @throws SQLException if the copy could not be started, or a column type
+     *         is not supported by the format
+     */
+    FaultRecord.Reader copy(String sql, CopyFormat format) throws SQLException {
+      checkState(!closed, "Session is closed");
+
+      ResultSetMetaData metadata = pooled.prepare(sql).getMetaData();
+      String select = CharMatcher.is(';').or(CharMatcher.whitespace()).trimTrailingFrom(sql);
+      String copySql = "COPY (" + select + ") TO STDOUT WITH (FORMAT " + format.sql + ")";
+      CopyManager copyManager = pooled.connection.unwrap(PGConnection.class).getCopyAPI();
+
+      Object event = ExportEvents.beginQuery();
+      long start = System.nanoTime();
+      PGCopyInputStream in = new PGCopyInputStream(copyManager.copyOut(copySql));
+      long nanos = System.nanoTime() - start;
+      metrics.record(MetricsRegistry.Stage.QUERY, nanos, 0);
+      ExportEvents.queryExecuted(event, copySql, 0, nanos);
+
+      FaultRecord.Reader reader;
+
+      try {
+        reader = FaultRecord.copyReader(in, metadata, format);
+      } catch (SQLException e) {
+        try {
+          in.close();
+        } catch (IOException ce) {
+          e.addSuppressed(ce);
+        }
+        throw e;
+      }
+
+      reader.event(event);
+      reader.onClose(() -> readers.remove(reader));
+      readers.add(reader);
+      return reader;
+    }
+
+    /* Bind and execute a cached prepared statement */
+    private ResultSet execute(String sql, List<?> parameters, int fetchSize)
+        throws SQLException {
+
+      checkState(!closed, "Session is closed");
+      PreparedStatement statement = pooled.prepare(sql);
+
+      statement.clearParameters();
+      for (int index = 0; index < parameters.size(); index++) {
+        statement.setObject(index + 1, parameters.get(index));
+      }
+
+      statement.setFetchSize(fetchSize);
+      Object event = ExportEvents.beginQuery();
+
+      long start = System.nanoTime();
+      ResultSet result = statement.executeQuery();
+      long nanos = System.nanoTime() - start;
+      metrics.record(MetricsRegistry.Stage.QUERY, nanos, 0);
+      ExportEvents.queryExecuted(event, sql, fetchSize, nanos);
+
+      results.add(result);
+      if (event != null) events.put(result, event);
+      return result;
+    }
+
+    /**
+     * Close all result sets opened in this session and return the connection,
+     * with its cached statements, to the pool.
+     * 
+     * @throws SQLException if a result set could not be closed
+     */
+    @Override
+    public void close() throws SQLException {
+      if (closed) return;
+      closed = true;
+
+      SQLException error = null;
+
+      /* Close readers first, an unfinished copy holds the connection */
+      for (FaultRecord.Reader reader : new ArrayList<>(readers)) {
+        try {
+          reader.close();
+        } catch (SQLException e) {
+          if (error == null) error = e;
+          else error.addSuppressed(e);
+        }
+      }
+
+      readers.clear();
+      events.values().forEach(event -> ExportEvents.commitQuery(event, -1));
+      events.clear();
+
+      for (ResultSet result : results) {
+        try {
+          result.close();
+        } catch (SQLException e) {
+          if (error == null) error = e;
+          else error.addSuppressed(e);
+        }
+      }
+
+      results.clear();
+
+      if (autoCommitDisabled) {
+        try {
+          pooled.connection.rollback();
+          pooled.connection.setAutoCommit(true);
+        } catch (SQLException e) {
+          /* Discard the connection rather than pool it mid-transaction */
+          try {
+            pooled.connection.close();
+          } catch (SQLException ce) {
+            e.addSuppressed(ce);
+          }
+          if (error == null) error = e;
+          else error.addSuppressed(e);
+        }
+      }
+
+      pool.release(pooled);
+
+      if (error != null) throw error;
+    }
+
+  }
+
   /** New PostgreSQL builder */
   static Builder builder() {
     return new Builder();
@@ -106,11 +483,21 @@ public class PostgreSQL {
     private String table;
     private String url;
     private String username;
+    private int maxConnections;
+    private Duration maxWait;
+    private Duration idleTimeout;
+    private int fetchSize;
+    private int statementCacheSize;
 
     boolean built;
 
     private Builder() {
       built = false;
+      maxConnections = DEFAULT_MAX_CONNECTIONS;
+      maxWait = DEFAULT_MAX_WAIT;
+      idleTimeout = DEFAULT_IDLE_TIMEOUT;
+      fetchSize = DEFAULT_FETCH_SIZE;
+      statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
     }
 
     /** Set the PostgreSQL database name. */
@@ -119,6 +506,30 @@ public class PostgreSQL {
       return this;
     }
 
+    /** Set the default number of rows fetched per round trip when streaming. */
+    Builder fetchSize(int fetchSize) {
+      this.fetchSize = fetchSize;
+      return this;
+    }
+
+    /** Set the time after which an idle pooled connection is closed. */
+    Builder idleTimeout(Duration idleTimeout) {
+      this.idleTimeout = idleTimeout;
+      return this;
+    }
+
+    /** Set the maximum number of pooled connections. */
+    Builder maxConnections(int maxConnections) {
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    /** Set the maximum time to wait for a pooled connection. */
+    Builder maxWait(Duration maxWait) {
+      this.maxWait = maxWait;
+      return this;
+    }
+
     /** Set the PostgreSQL database password. */
     Builder password(String password) {
       this.password = password;
@@ -131,6 +542,12 @@ public class PostgreSQL {
       return this;
     }
 
+    /** Set the number of prepared statements cached per pooled connection. */
+    Builder statementCacheSize(int statementCacheSize) {
+      this.statementCacheSize = statementCacheSize;
+      return this;
+    }
+
     /** Set the PostgreSQL url path. */
     Builder url(String url) {
       this.url = url;
@@ -157,6 +574,35 @@ public class PostgreSQL {
       checkState(table != null);
       checkState(url != null);
       checkState(username != null);
+      checkState(maxConnections > 0);
+      checkState(maxWait != null);
+      checkState(idleTimeout != null);
+      checkState(fetchSize > 0);
+      checkState(statementCacheSize >= 0);
+    }
+
+  }
+
+  /** Formats of bulk extraction with {@code COPY ... TO STDOUT}. */
+  enum CopyFormat {
+
+    /**
+     * PostgreSQL binary format. Values are sent in their binary form, so
+     * numbers are not printed and parsed and WKB traces are sent as is;
+     * supports number, text and {@code bytea} columns.
+     */
+    BINARY("binary"),
+
+    /**
+     * CSV format. Supports any column type; {@code bytea} values, e.g. WKB
+     * traces, are sent in hex.
+     */
+    CSV("csv");
+
+    private final String sql;
+
+    private CopyFormat(String sql) {
+      this.sql = sql;
     }
 
   }
@@ -166,10 +612,19 @@ public class PostgreSQL {
     return new QueryBuilder();
   }
 
-  /** Build a SQL query */
+  /**
+   * Build a SQL query.
+   * 
+   * <p> Values compared against in a WHERE clause should be bound as
+   * parameters ({@link #whereEquals(String, Object)} or
+   * {@link #where(String, Object...)}) rather than concatenated into the SQL,
+   * so that the SQL text, and its cached prepared statement, is the same for
+   * every value.
+   */
   static class QueryBuilder {
 
     private StringBuilder query = new StringBuilder();
+    private List<Object> parameters = new ArrayList<>();
 
     private QueryBuilder() {}
 
@@ -217,6 +672,29 @@ public class PostgreSQL {
       return this;
     }
 
+    /**
+     * Set the SQL WHERE statement with bound parameters.
+     * 
+     * @param where The where statement, with a {@code ?} for each parameter
+     * @param parameters The parameter values, in order
+     * @return this builder
+     */
+    QueryBuilder where(String where, Object... parameters) {
+      this.parameters.addAll(Arrays.asList(parameters));
+      return where(where);
+    }
+
+    /**
+     * Set the SQL WHERE statement to match a column against a bound value.
+     * 
+     * @param column The column name
+     * @param value The value to match
+     * @return this builder
+     */
+    QueryBuilder whereEquals(String column, Object value) {
+      return where(column + " = ?", value);
+    }
+
     /**
      * Set the SQL ORDER BY ASC statement.
      * 
@@ -239,14 +717,63 @@ public class PostgreSQL {
       return this;
     }
 
+    /** Return the bound parameter values, in order */
+    List<Object> parameters() {
+      return Collections.unmodifiableList(parameters);
+    }
+
     /** Return the SQL string */
     String toSql() {
       return query.deleteCharAt(query.length() - 1).toString() + ";";
     }
 
     /** Query the PostgreSQL data base */
-    ResultSet query(PostgreSQL postgres) throws SQLException {
-      return postgres.query(toSql());
+    ResultSet query(Session session) throws SQLException {
+      return session.query(toSql(), parameters);
+    }
+
+    /**
+     * Query the PostgreSQL data base, streaming the rows through a
+     * server-side cursor with the session's default fetch size.
+     */
+    ResultSet stream(Session session) throws SQLException {
+      return session.stream(toSql(), parameters, session.fetchSize);
+    }
+
+    /**
+     * Query the PostgreSQL data base, streaming the rows through a
+     * server-side cursor.
+     * 
+     * @param session The session to query in
+     * @param fetchSize The number of rows fetched per round trip
+     */
+    ResultSet stream(Session session, int fetchSize) throws SQLException {
+      return session.stream(toSql(), parameters, fetchSize);
+    }
+
+    /**
+     * Query the PostgreSQL data base, streaming the rows through a
+     * server-side cursor with the session's default fetch size, and read them
+     * as fault records.
+     * 
+     * @param session The session to query in
+     * @see Session#records(ResultSet)
+     */
+    FaultRecord.Reader records(Session session) throws SQLException {
+      return session.records(stream(session));
+    }
+
+    /**
+     * Stream the rows of the query with {@code COPY ... TO STDOUT}. COPY does
+     * not accept bound parameters.
+     * 
+     * @param session The session to query in
+     * @param format The copy format
+     * @see Session#copy(String, CopyFormat)
+     */
+    FaultRecord.Reader copy(Session session, CopyFormat format) throws SQLException {
+      checkState(parameters.isEmpty(), "COPY does not support bound parameters");
+      return session.copy(toSql(), format);
     }
 
   }
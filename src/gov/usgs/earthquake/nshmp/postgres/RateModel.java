@@ -1,52 +1,218 @@
 package gov.usgs.earthquake.nshmp.postgres;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static gov.usgs.earthquake.nshmp.eq.fault.Faults.checkRake;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
-import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Slip rate container class for Bird, Geo, and Zeng.
  * 
+ * <p> A rate model is a view of a row of a {@link SlipRateTable}; missing
+ * rates and rakes are {@code NaN}. The lists of rate models built here are
+ * packed into one table per list, with values collected as primitives. Rate
+ * models are read and written as JSON by {@link Adapter}, without
+ * reflection, in the member order {@code id}, {@code type}, {@code rake},
+ * {@code value}.
+ * 
  * @author Brandon Clayton
  */
+@JsonAdapter(RateModel.Adapter.class)
 public class RateModel {
 
+  /** Shared JSON adapter */
+  static final Adapter ADAPTER = new Adapter();
+
   /*
    * TODO How do we check rate?
    */
 
-  private SlipModel id;
-  private RateType type;
-  private Double rake;
-  private Double value;
+  private final SlipRateTable table;
+  private final int row;
+
+  /* A view of a slip rate table row */
+  RateModel(SlipRateTable table, int row) {
+    this.table = table;
+    this.row = row;
+  }
+
+  /* Add a rate model to a table, checking its rake */
+  private static void add(
+      SlipRateTable.Builder table,
+      SlipModel id,
+      RateType type,
+      Double value,
+      Double rake) {
 
-  private RateModel(SlipModel id, RateType type, Double value, Double rake) {
-    this.id = id;
-    this.type = type;
-    this.rake = rake == null ? null : checkRake(rake);
-    this.value = value;
+    table.add(
+        id,
+        type,
+        value == null ? Double.NaN : value,
+        rake == null ? Double.NaN : checkRake(rake));
   }
 
   /** The id */
   public String id() {
-    return id.toString();
+    return model().toString();
   }
 
-  /** The rake in degrees */
+  /** The rake in degrees, or {@code NaN} if not set */
   public double rake() {
-    return rake;
+    return table.rake(row);
   }
 
   /** The rate type */
   public RateType type() {
-    return type;
+    return table.type(row);
   }
 
-  /** The slip rate */
+  /** The slip rate, or {@code NaN} if not set */
   public double value() {
-    return value;
+    return table.rate(row);
+  }
+
+  /** The model id */
+  SlipModel model() {
+    return table.model(row);
+  }
+
+  /** Rate models are equal if their id, rate type, rate and rake are. */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (!(obj instanceof RateModel)) return false;
+    RateModel that = (RateModel) obj;
+    return model() == that.model() &&
+        type() == that.type() &&
+        Double.compare(value(), that.value()) == 0 &&
+        Double.compare(rake(), that.rake()) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(model(), type(), value(), rake());
+  }
+
+  /**
+   * Add a rate model from stored values, e.g. a {@link FaultArchive}, to a
+   * slip rate table.
+   * 
+   * @param table The slip rate table
+   * @param id The id, as returned by {@link #id()}
+   * @param type The rate type
+   * @param value The slip rate, or {@code NaN} if not set
+   * @param rake The rake in degrees, or {@code NaN} if not set
+   */
+  static void add(SlipRateTable.Builder table, String id, RateType type, double value,
+      double rake) {
+    add(
+        table,
+        SlipModel.valueOf(id),
+        type,
+        Double.isNaN(value) ? null : value,
+        Double.isNaN(rake) ? null : rake);
+  }
+
+  /**
+   * Decode a {@code rateModels} GeoJSON property value into rate models. The
+   * value may be a list of rate models, a list of JSON objects as maps, or a
+   * JSON array.
+   * 
+   * @param value The property value
+   * @throws IllegalArgumentException if the value is not a list of rate
+   *         models
+   */
+  static List<RateModel> fromProperty(Object value) {
+    SlipRateTable.Builder table = SlipRateTable.builder();
+    addProperty(table, value);
+    return table.endGroup().build().rateModels(0);
+  }
+
+  /**
+   * Decode a {@code rateModels} GeoJSON property value, as
+   * {@link #fromProperty(Object)} does, into the current slip rate tree of a
+   * table.
+   * 
+   * @param table The slip rate table
+   * @param value The property value
+   * @throws IllegalArgumentException if the value is not a list of rate
+   *         models
+   */
+  static void addProperty(SlipRateTable.Builder table, Object value) {
+    checkNotNull(value, "Missing rate models");
+
+    Iterable<?> elements;
+
+    if (value instanceof JsonArray || value instanceof List) {
+      elements = (Iterable<?>) value;
+    } else {
+      throw new IllegalArgumentException("Unsupported rate models: " + value.getClass());
+    }
+
+    for (Object element : elements) {
+      if (element instanceof RateModel) {
+        table.add((RateModel) element);
+      } else if (element instanceof JsonObject) {
+        addJson(table, (JsonObject) element);
+      } else if (element instanceof Map) {
+        addMap(table, (Map<?, ?>) element);
+      } else {
+        throw new IllegalArgumentException("Unsupported rate model: " + element);
+      }
+    }
+  }
+
+  private static void addMap(SlipRateTable.Builder table, Map<?, ?> map) {
+    Object id = map.get("id");
+    Object type = map.get("type");
+    checkState(id != null && type != null, "Rate model is missing its id or type");
+
+    add(
+        table,
+        SlipModel.valueOf(id.toString()),
+        RateType.valueOf(type.toString()),
+        toDouble(map.get("value")),
+        toDouble(map.get("rake")));
+  }
+
+  private static void addJson(SlipRateTable.Builder table, JsonObject json) {
+    JsonElement id = member(json, "id");
+    JsonElement type = member(json, "type");
+    checkState(id != null && type != null, "Rate model is missing its id or type");
+    JsonElement value = member(json, "value");
+    JsonElement rake = member(json, "rake");
+
+    add(
+        table,
+        SlipModel.valueOf(id.getAsString()),
+        RateType.valueOf(type.getAsString()),
+        value == null ? null : value.getAsDouble(),
+        rake == null ? null : rake.getAsDouble());
+  }
+
+  /* A member of a JSON object, or null if missing or JSON null */
+  private static JsonElement member(JsonObject json, String name) {
+    JsonElement member = json.get(name);
+    return member == null || member.isJsonNull() ? null : member;
+  }
+
+  private static Double toDouble(Object value) {
+    if (value == null) return null;
+    if (value instanceof Number) return ((Number) value).doubleValue();
+    return Double.valueOf(value.toString());
   }
 
   /** New slip rate builder */
@@ -54,13 +220,18 @@ public class RateModel {
     return new Builder();
   }
 
-  /** Slip rate builder for Bird, Geo, and Zeng. */
+  /**
+   * Slip rate builder for Bird, Geo, and Zeng. Rates and rakes are collected
+   * as primitives and packed into a {@link SlipRateTable} once, on the first
+   * build; later builds return the same list.
+   */
   static class Builder {
 
-    private ImmutableList.Builder<RateModel> rateModels;
+    private final SlipRateTable.Builder table;
+    private List<RateModel> rateModels;
 
     private Builder() {
-      rateModels = ImmutableList.builder();
+      table = SlipRateTable.builder();
     }
 
     /**
@@ -71,7 +242,7 @@ public class RateModel {
      * @return this builder
      */
     Builder aPriori(Double rate, Double rake) {
-      rateModels.add(new RateModel(SlipModel.A_PRIORI, RateType.PROBABILITY_OF_ACTIVITY, rate, rake));
+      add(table(), SlipModel.A_PRIORI, RateType.PROBABILITY_OF_ACTIVITY, rate, rake);
       return this;
     }
 
@@ -83,7 +254,7 @@ public class RateModel {
      * @return this builder
      */
     Builder bird(Double rate, Double rake) {
-      rateModels.add(new RateModel(SlipModel.BIRD, RateType.DISPLACEMENT, rate, rake));
+      add(table(), SlipModel.BIRD, RateType.DISPLACEMENT, rate, rake);
       return this;
     }
 
@@ -95,7 +266,7 @@ public class RateModel {
      * @return this builder
      */
     Builder geo(Double rate, Double rake) {
-      rateModels.add(new RateModel(SlipModel.GEO, RateType.DISPLACEMENT, rate, rake));
+      add(table(), SlipModel.GEO, RateType.DISPLACEMENT, rate, rake);
       return this;
     }
 
@@ -107,7 +278,7 @@ public class RateModel {
      * @return this builder
      */
     Builder slip(Double rate, Double rake) {
-      rateModels.add(new RateModel(SlipModel.GEO, RateType.SLIP, rate, rake));
+      add(table(), SlipModel.GEO, RateType.SLIP, rate, rake);
       return this;
     }
 
@@ -119,18 +290,119 @@ public class RateModel {
      * @return this builder
      */
     Builder zeng(Double rate, Double rake) {
-      rateModels.add(new RateModel(SlipModel.ZENG, RateType.DISPLACEMENT, rate, rake));
+      add(table(), SlipModel.ZENG, RateType.DISPLACEMENT, rate, rake);
       return this;
     }
 
-    /** Return a new list of RateModel */
+    /** Return the list of RateModel, packed in a {@link SlipRateTable} */
     List<RateModel> build() {
-      return rateModels.build();
+      if (rateModels == null) {
+        rateModels = table.endGroup().build().rateModels(0);
+      }
+      return rateModels;
+    }
+
+    private SlipRateTable.Builder table() {
+      checkState(rateModels == null, "Rate models already built");
+      return table;
+    }
+
+  }
+
+  /**
+   * Reflection free JSON adapter. Unset values are written as nulls, which a
+   * {@code JsonWriter} omits unless it serializes nulls, and read back as
+   * unset; unknown members are skipped. {@link #read(JsonReader)} packs each
+   * rate model in a table of its own; lists of rate models are read with
+   * {@link #read(JsonReader, SlipRateTable.Builder)} into a shared table.
+   */
+  static class Adapter extends TypeAdapter<RateModel> {
+
+    @Override
+    public void write(JsonWriter out, RateModel rateModel) throws IOException {
+      if (rateModel == null) {
+        out.nullValue();
+        return;
+      }
+
+      out.beginObject();
+      out.name("id").value(rateModel.model().name());
+      out.name("type").value(rateModel.type().name());
+      writeDouble(out.name("rake"), rateModel.rake());
+      writeDouble(out.name("value"), rateModel.value());
+      out.endObject();
+    }
+
+    private static void writeDouble(JsonWriter out, double value) throws IOException {
+      if (Double.isNaN(value)) {
+        out.nullValue();
+      } else {
+        out.value(value);
+      }
+    }
+
+    @Override
+    public RateModel read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+
+      SlipRateTable.Builder table = SlipRateTable.builder();
+      read(in, table);
+      return table.build().get(0);
+    }
+
+    /**
+     * Read a rate model object and add it to a slip rate table.
+     * 
+     * @param in The reader, positioned at the rate model object
+     * @param table The slip rate table
+     * @throws IOException
+     */
+    void read(JsonReader in, SlipRateTable.Builder table) throws IOException {
+      SlipModel id = null;
+      RateType type = null;
+      Double rake = null;
+      Double value = null;
+
+      in.beginObject();
+
+      while (in.hasNext()) {
+        String name = in.nextName();
+
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+
+        switch (name) {
+          case "id":
+            id = SlipModel.valueOf(in.nextString());
+            break;
+          case "type":
+            type = RateType.valueOf(in.nextString());
+            break;
+          case "rake":
+            rake = in.nextDouble();
+            break;
+          case "value":
+            value = in.nextDouble();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+
+      in.endObject();
+      checkState(id != null && type != null, "Rate model is missing its id or type");
+      add(table, id, type, value, rake);
     }
 
   }
 
-  private static enum SlipModel {
+  /** Rate model ids */
+  static enum SlipModel {
     A_PRIORI,
     BIRD,
     GEO,
@@ -0,0 +1,392 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import gov.usgs.earthquake.nshmp.postgres.RateModel.SlipModel;
+
+/**
+ * Structure-of-arrays table of slip rates.
+ *
+ * <p> Each row is one rate model, stored as its model id and {@link RateType}
+ * ordinals and its rate and rake as primitive doubles, {@code NaN} if not set.
+ * Rows are grouped, one group per slip rate tree, e.g. one per fault of a
+ * {@link FaultSet}; identical trees may {@link Builder#repeatGroup(int)
+ * share} the rows of an earlier group. {@link #rateModels(int) A group} or
+ * {@link #get(int) a row} is read through {@link RateModel} views, so a rate
+ * model costs 18 bytes of table and a small view rather than a list entry, an
+ * object and two boxed doubles. The list of each group and its views are
+ * created with the table, once for groups that share rows, so reading a list
+ * allocates nothing. Bulk readers can loop over the columns directly:
+ *
+ * <pre>
+ * for (int row = 0; row &lt; table.size(); row++) {
+ *   double rate = table.rate(row);
+ * }
+ * </pre>
+ */
+final class SlipRateTable {
+
+  private static final SlipModel[] MODELS = SlipModel.values();
+  private static final RateType[] TYPES = RateType.values();
+
+  private final byte[] models;
+  private final byte[] types;
+  private final double[] rates;
+  private final double[] rakes;
+  private final int[] starts;
+  private final int[] ends;
+  private final Group[] trees;
+  private final int lists;
+  private final int views;
+
+  private SlipRateTable(Builder builder) {
+    int size = builder.size;
+    models = Arrays.copyOf(builder.models, size);
+    types = Arrays.copyOf(builder.types, size);
+    rates = Arrays.copyOf(builder.rates, size);
+    rakes = Arrays.copyOf(builder.rakes, size);
+    starts = Arrays.copyOf(builder.starts, builder.groups);
+    ends = Arrays.copyOf(builder.ends, builder.groups);
+
+    /* Groups that share rows share a list */
+    trees = new Group[starts.length];
+    Map<Long, Group> shared = new HashMap<>();
+
+    for (int group = 0; group < trees.length; group++) {
+      int start = starts[group];
+      int end = ends[group];
+      trees[group] = shared.computeIfAbsent((long) start << 32 | end, rows -> new Group(start, end));
+    }
+
+    lists = shared.size();
+    views = shared.values().stream().mapToInt(Group::size).sum();
+  }
+
+  /** The number of rate models */
+  int size() {
+    return rates.length;
+  }
+
+  /** The number of slip rate trees */
+  int groups() {
+    return starts.length;
+  }
+
+  /** The number of slip rate trees that do not share the rows of another */
+  int distinctGroups() {
+    return lists;
+  }
+
+  /** The first row of a slip rate tree */
+  int start(int group) {
+    checkElementIndex(group, groups());
+    return starts[group];
+  }
+
+  /** The row after the last row of a slip rate tree */
+  int end(int group) {
+    checkElementIndex(group, groups());
+    return ends[group];
+  }
+
+  /** The model id of a row */
+  SlipModel model(int row) {
+    return MODELS[models[row]];
+  }
+
+  /** The rate type of a row */
+  RateType type(int row) {
+    return TYPES[types[row]];
+  }
+
+  /** The rate of a row, or {@code NaN} if not set */
+  double rate(int row) {
+    return rates[row];
+  }
+
+  /** The rake of a row in degrees, or {@code NaN} if not set */
+  double rake(int row) {
+    return rakes[row];
+  }
+
+  /** A rate model view of a row */
+  RateModel get(int row) {
+    checkElementIndex(row, size());
+    return new RateModel(this, row);
+  }
+
+  /** The immutable list view of the rate models of a slip rate tree */
+  List<RateModel> rateModels(int group) {
+    checkElementIndex(group, groups());
+    return trees[group];
+  }
+
+  /**
+   * Return a list of rate models packed in a table: the list itself if it is
+   * already a slip rate tree of a table, otherwise a new table of its own.
+   *
+   * @param rateModels The rate models
+   */
+  static List<RateModel> pack(List<RateModel> rateModels) {
+    if (rateModels instanceof Group) return rateModels;
+    return builder().addGroup(rateModels).build().rateModels(0);
+  }
+
+  /**
+   * The approximate size of the table in bytes on a 64-bit JVM with compressed
+   * references: the columns, the group bounds and the list and rate model
+   * views of each distinct group.
+   */
+  long sizeInBytes() {
+    return 18L * size() + 12L * groups() + 32L * lists + 28L * views;
+  }
+
+  /* A slip rate tree and the views of its rows */
+  private class Group extends AbstractList<RateModel> implements RandomAccess {
+
+    private final RateModel[] views;
+
+    Group(int start, int end) {
+      views = new RateModel[end - start];
+      for (int index = 0; index < views.length; index++) {
+        views[index] = new RateModel(SlipRateTable.this, start + index);
+      }
+    }
+
+    @Override
+    public RateModel get(int index) {
+      return views[index];
+    }
+
+    @Override
+    public int size() {
+      return views.length;
+    }
+
+  }
+
+  /** New slip rate table builder */
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /** Slip rate table builder */
+  static class Builder {
+
+    private byte[] models;
+    private byte[] types;
+    private double[] rates;
+    private double[] rakes;
+    private int[] starts;
+    private int[] ends;
+    private int size;
+    private int groups;
+    private int open;
+    private Map<Rows, Integer> firstGroups;
+
+    private boolean built;
+
+    private Builder() {
+      models = new byte[16];
+      types = new byte[16];
+      rates = new double[16];
+      rakes = new double[16];
+      starts = new int[8];
+      ends = new int[8];
+      built = false;
+    }
+
+    /**
+     * Add a rate model to the current slip rate tree.
+     *
+     * @param model The model id
+     * @param type The rate type
+     * @param rate The rate, or {@code NaN} if not set
+     * @param rake The rake in degrees, or {@code NaN} if not set
+     * @return this builder
+     */
+    Builder add(SlipModel model, RateType type, double rate, double rake) {
+      checkNotNull(model);
+      checkNotNull(type);
+
+      if (size == rates.length) {
+        int capacity = size * 2;
+        models = Arrays.copyOf(models, capacity);
+        types = Arrays.copyOf(types, capacity);
+        rates = Arrays.copyOf(rates, capacity);
+        rakes = Arrays.copyOf(rakes, capacity);
+      }
+
+      models[size] = (byte) model.ordinal();
+      types[size] = (byte) type.ordinal();
+      rates[size] = rate;
+      rakes[size] = rake;
+      size++;
+      return this;
+    }
+
+    /**
+     * Add a rate model to the current slip rate tree.
+     *
+     * @param rateModel The rate model
+     * @return this builder
+     */
+    Builder add(RateModel rateModel) {
+      return add(rateModel.model(), rateModel.type(), rateModel.value(), rateModel.rake());
+    }
+
+    /**
+     * Add the rate models of a slip rate tree of another builder to the current
+     * slip rate tree, e.g. to merge trees read on several threads.
+     *
+     * @param rows The other builder
+     * @param group The slip rate tree of the other builder
+     * @return this builder
+     */
+    Builder add(Builder rows, int group) {
+      checkElementIndex(group, rows.groups);
+
+      for (int row = rows.starts[group]; row < rows.ends[group]; row++) {
+        add(MODELS[rows.models[row]], TYPES[rows.types[row]], rows.rates[row], rows.rakes[row]);
+      }
+
+      return this;
+    }
+
+    /**
+     * Add a slip rate tree as its own group.
+     *
+     * @param rateModels The rate models
+     * @return this builder
+     */
+    Builder addGroup(List<RateModel> rateModels) {
+      for (RateModel rateModel : rateModels) {
+        add(rateModel);
+      }
+      return endGroup();
+    }
+
+    /**
+     * End the current slip rate tree; rate models added next start a new one.
+     *
+     * @return this builder
+     */
+    Builder endGroup() {
+      addGroup(open, size);
+      open = size;
+      return this;
+    }
+
+    /**
+     * End the current slip rate tree, sharing the rows of the first earlier tree
+     * ended this way with the same rate models rather than keeping a copy.
+     *
+     * @return this builder
+     */
+    Builder endSharedGroup() {
+      if (firstGroups == null) {
+        firstGroups = new HashMap<>();
+      }
+
+      Integer group = firstGroups.putIfAbsent(new Rows(open, size), groups);
+
+      if (group == null) {
+        return endGroup();
+      }
+
+      size = open;
+      return repeatGroup(group);
+    }
+
+    /**
+     * Add a slip rate tree that shares the rows of an earlier group. No rate
+     * models may have been added to the current slip rate tree.
+     * 
+     * @param group The earlier group
+     * @return this builder
+     */
+    Builder repeatGroup(int group) {
+      checkElementIndex(group, groups);
+      checkState(size == open, "Current slip rate tree is not empty");
+      addGroup(starts[group], ends[group]);
+      return this;
+    }
+
+    private void addGroup(int start, int end) {
+      if (groups == starts.length) {
+        starts = Arrays.copyOf(starts, groups * 2);
+        ends = Arrays.copyOf(ends, groups * 2);
+      }
+
+      starts[groups] = start;
+      ends[groups] = end;
+      groups++;
+    }
+
+    /** Create a new slip rate table, ending the current slip rate tree */
+    SlipRateTable build() {
+      checkState(!built);
+      if (size > open) endGroup();
+      built = true;
+      firstGroups = null;
+      return new SlipRateTable(this);
+    }
+
+    /* The rows of a slip rate tree, equal to trees with the same rate models */
+    private final class Rows {
+
+      final int start;
+      final int end;
+      final int hash;
+
+      Rows(int start, int end) {
+        this.start = start;
+        this.end = end;
+
+        int hash = 1;
+        for (int row = start; row < end; row++) {
+          hash = 31 * hash + models[row];
+          hash = 31 * hash + types[row];
+          hash = 31 * hash + Double.hashCode(rates[row]);
+          hash = 31 * hash + Double.hashCode(rakes[row]);
+        }
+        this.hash = hash;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+        if (!(obj instanceof Rows)) return false;
+        Rows that = (Rows) obj;
+        if (end - start != that.end - that.start) return false;
+
+        for (int row = start, other = that.start; row < end; row++, other++) {
+          if (models[row] != models[other] ||
+              types[row] != types[other] ||
+              Double.compare(rates[row], rates[other]) != 0 ||
+              Double.compare(rakes[row], rakes[other]) != 0) {
+            return false;
+          }
+        }
+
+        return true;
+      }
+
+      @Override
+      public int hashCode() {
+        return hash;
+      }
+
+    }
+
+  }
+
+}
@@ -1,21 +1,18 @@
 package gov.usgs.earthquake.nshmp.postgres;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Properties;
+import java.util.zip.GZIPInputStream;
 
-import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 
-import gov.usgs.earthquake.nshmp.internal.Parsing;
-import gov.usgs.earthquake.nshmp.internal.Parsing.Delimiter;
+import gov.usgs.earthquake.nshmp.geo.json.GeoJson;
 
 /**
  * PostgreSQL utilities.
@@ -24,47 +21,50 @@ import gov.usgs.earthquake.nshmp.internal.Parsing.Delimiter;
  */
 class Util {
 
-  static final List<String> CFAULT_ID_SKIP = Lists.newArrayList(
-      "570n",
-      "570m",
-      "570s",
-      "572",
-      "572n",
-      "572s");
-
-  static Map<String, Double> MAX_MAGNITUDES;
-
-  private static final String M_MAX_FILE = "WUSfixedMv2.csv";
-
-  static {
-    try {
-      MAX_MAGNITUDES = getMaxMagnitudes();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-  }
-
   static PostgreSQL getPostgres(String table) throws IOException {
     Properties props = new Properties();
     InputStream inputStream = Util.class.getResourceAsStream("/config.properties");
     props.load(inputStream);
 
-    return PostgreSQL.builder()
+    PostgreSQL.Builder builder = PostgreSQL.builder()
         .database(props.getProperty(Keys.DATABASE))
         .password(props.getProperty(Keys.PASSWORD))
         .table(table)
         .url(props.getProperty(Keys.URL))
-        .username(props.getProperty(Keys.USERNAME))
-        .build();
+        .username(props.getProperty(Keys.USERNAME));
+
+    if (props.containsKey(Keys.MAX_CONNECTIONS)) {
+      builder.maxConnections(Integer.parseInt(props.getProperty(Keys.MAX_CONNECTIONS)));
+    }
+
+    if (props.containsKey(Keys.FETCH_SIZE)) {
+      builder.fetchSize(Integer.parseInt(props.getProperty(Keys.FETCH_SIZE)));
+    }
+
+    if (props.containsKey(Keys.STATEMENT_CACHE_SIZE)) {
+      builder.statementCacheSize(
+          Integer.parseInt(props.getProperty(Keys.STATEMENT_CACHE_SIZE)));
+    }
+
+    return builder.build();
   }
 
-  static Double getSQLDouble(ResultSet result, String key) throws SQLException {
-    String value = result.getString(key);
+  /**
+   * Returns a reader of a GeoJSON file. Files ending in {@code .gz} are
+   * decompressed, including files of concatenated gzip members.
+   * 
+   * @param json The GeoJSON file, optionally gzip compressed
+   * @throws UncheckedIOException if a compressed file could not be read
+   */
+  static GeoJson.Reader readGeoJson(Path json) {
+    if (!json.getFileName().toString().endsWith(".gz")) {
+      return GeoJson.from(json);
+    }
 
-    if (value == null) {
-      return null;
-    } else {
-      return result.getDouble(key);
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(json))) {
+      return GeoJson.from(new String(ByteStreams.toByteArray(in), UTF_8));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
   }
 
@@ -86,6 +86,7 @@ class Util {
     static final String STATE_ABBREV = "state_abbrev";
     static final String UPPER_DEPTH = "upper_depth";
     static final String WKT_FAULT_TRACE = "ST_AsText(" + FAULT_TRACE + ") as " + FAULT_TRACE;
+    static final String WKB_FAULT_TRACE = "ST_AsBinary(" + FAULT_TRACE + ") as " + FAULT_TRACE;
     static final String ZENG_RATE = "zeng_displacement_rate";
 
     /* GeoJSON property keys */
@@ -97,7 +98,10 @@ class Util {
 
     /* PostgreSQL keys */
     static final String DATABASE = "database";
+    static final String FETCH_SIZE = "fetchSize";
+    static final String MAX_CONNECTIONS = "maxConnections";
     static final String PASSWORD = "password";
+    static final String STATEMENT_CACHE_SIZE = "statementCacheSize";
     static final String TABLE = "table";
     static final String URL = "url";
     static final String USERNAME = "username";
@@ -113,44 +117,4 @@ class Util {
 
   }
 
-  private static Map<String, Double> getMaxMagnitudes() throws IOException {
-    String filePath = Util.class.getResource(M_MAX_FILE).getPath();
-    Path path = Paths.get(filePath);
-    List<String> lines = Files.readAllLines(path);
-
-    List<String> keys = Parsing.splitToList(lines.get(0), Delimiter.COMMA);
-    Map<String, Double> maxMagnitudes = new HashMap<>();
-
-    int mMaxIndex = 0;
-    int cfaultIdIndex = 0;
-
-    for (int index = 0; index < keys.size(); index++) {
-      String key = keys.get(index);
-
-      switch (key) {
-        case "cfault_id":
-          cfaultIdIndex = index;
-          break;
-        case "mMax":
-          mMaxIndex = index;
-          break;
-        case "name":
-          break;
-        default:
-          throw new IllegalStateException("Unsupported key: " + key);
-      }
-    }
-
-    for (String line : lines.subList(1, lines.size())) {
-      if (line.startsWith("#") || line.trim().isEmpty()) {
-        continue;
-      }
-
-      List<String> values = Parsing.splitToList(line, Delimiter.COMMA);
-      maxMagnitudes.put(values.get(cfaultIdIndex), Double.parseDouble(values.get(mMaxIndex)));
-    }
-
-    return maxMagnitudes;
-  }
-
 }
@@ -0,0 +1,195 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import com.vividsolutions.jts.io.ParseException;
+
+import gov.usgs.earthquake.nshmp.geo.LocationList;
+
+/**
+ * Decode well-known binary (WKB) geometry, as returned by PostGIS
+ * {@code ST_AsBinary} or {@code ST_AsEWKB}, directly into a
+ * {@code LocationList}.
+ *
+ * <p> Coordinates are added in the order of
+ * {@code Geometry.getCoordinates()}, as latitude, longitude and a depth of
+ * zero; any Z or M ordinates are skipped. ISO (Z = +1000, M = +2000) and
+ * extended (PostGIS flag bits and SRID) geometry types are supported. No
+ * intermediate JTS geometry is created.
+ */
+class WkbReader {
+
+  private static final int POINT = 1;
+  private static final int LINE_STRING = 2;
+  private static final int POLYGON = 3;
+  private static final int MULTI_POINT = 4;
+  private static final int MULTI_LINE_STRING = 5;
+  private static final int MULTI_POLYGON = 6;
+  private static final int GEOMETRY_COLLECTION = 7;
+
+  private static final int EWKB_Z = 0x80000000;
+  private static final int EWKB_M = 0x40000000;
+  private static final int EWKB_SRID = 0x20000000;
+  private static final int EWKB_FLAGS = EWKB_Z | EWKB_M | EWKB_SRID;
+
+  private final byte[] wkb;
+  private int position;
+  private boolean littleEndian;
+
+  private WkbReader(byte[] wkb) {
+    this.wkb = wkb;
+    position = 0;
+  }
+
+  /**
+   * Decode WKB into a location list.
+   *
+   * @param wkb The geometry as WKB
+   * @throws ParseException if the WKB is truncated or of an unsupported
+   *         geometry type
+   */
+  static LocationList read(byte[] wkb) throws ParseException {
+    if (wkb == null) {
+      throw new ParseException("Missing WKB geometry");
+    }
+
+    WkbReader reader = new WkbReader(wkb);
+    LocationList.Builder locs = LocationList.builder();
+    reader.readGeometry(locs);
+
+    if (reader.position != wkb.length) {
+      throw new ParseException("Unexpected trailing bytes in WKB at " + reader.position);
+    }
+
+    return locs.build();
+  }
+
+  /* Read a geometry, including its byte order and type header */
+  private void readGeometry(LocationList.Builder locs) throws ParseException {
+    int byteOrder = readByte();
+
+    if (byteOrder > 1) {
+      throw new ParseException("Unknown WKB byte order: " + byteOrder);
+    }
+
+    littleEndian = byteOrder == 1;
+
+    int typeWord = readInt();
+    boolean hasZ = (typeWord & EWKB_Z) != 0;
+    boolean hasM = (typeWord & EWKB_M) != 0;
+
+    if ((typeWord & EWKB_SRID) != 0) {
+      readInt();
+    }
+
+    int isoType = typeWord & ~EWKB_FLAGS;
+    int dimensions = isoType / 1000;
+    hasZ |= dimensions == 1 || dimensions == 3;
+    hasM |= dimensions == 2 || dimensions == 3;
+
+    int ordinates = 2 + (hasZ ? 1 : 0) + (hasM ? 1 : 0);
+
+    switch (isoType % 1000) {
+      case POINT:
+        readPoint(ordinates, locs);
+        break;
+      case LINE_STRING:
+        readPoints(readCount(), ordinates, locs);
+        break;
+      case POLYGON:
+        int rings = readCount();
+        for (int ring = 0; ring < rings; ring++) {
+          readPoints(readCount(), ordinates, locs);
+        }
+        break;
+      case MULTI_POINT:
+      case MULTI_LINE_STRING:
+      case MULTI_POLYGON:
+      case GEOMETRY_COLLECTION:
+        int geometries = readCount();
+        for (int geometry = 0; geometry < geometries; geometry++) {
+          readGeometry(locs);
+        }
+        break;
+      default:
+        throw new ParseException("Unsupported WKB geometry type: " + isoType);
+    }
+  }
+
+  /* An empty point is encoded with NaN ordinates and has no coordinates */
+  private void readPoint(int ordinates, LocationList.Builder locs) throws ParseException {
+    double lon = readDouble();
+    double lat = readDouble();
+    skip(ordinates - 2);
+
+    if (!Double.isNaN(lon) || !Double.isNaN(lat)) {
+      locs.add(lat, lon, 0.0);
+    }
+  }
+
+  private void readPoints(int count, int ordinates, LocationList.Builder locs)
+      throws ParseException {
+
+    for (int point = 0; point < count; point++) {
+      double lon = readDouble();
+      double lat = readDouble();
+      skip(ordinates - 2);
+      locs.add(lat, lon, 0.0);
+    }
+  }
+
+  private int readCount() throws ParseException {
+    int count = readInt();
+
+    if (count < 0) {
+      throw new ParseException("Invalid WKB element count: " + count);
+    }
+
+    return count;
+  }
+
+  private void skip(int doubles) throws ParseException {
+    require(doubles * Double.BYTES);
+    position += doubles * Double.BYTES;
+  }
+
+  private int readByte() throws ParseException {
+    require(1);
+    return wkb[position++] & 0xff;
+  }
+
+  private int readInt() throws ParseException {
+    require(Integer.BYTES);
+    int b0 = wkb[position++] & 0xff;
+    int b1 = wkb[position++] & 0xff;
+    int b2 = wkb[position++] & 0xff;
+    int b3 = wkb[position++] & 0xff;
+
+    return littleEndian ?
+        b3 << 24 | b2 << 16 | b1 << 8 | b0 :
+        b0 << 24 | b1 << 16 | b2 << 8 | b3;
+  }
+
+  private double readDouble() throws ParseException {
+    require(Double.BYTES);
+    long bits = 0;
+
+    if (littleEndian) {
+      for (int i = 7; i >= 0; i--) {
+        bits = bits << 8 | (wkb[position + i] & 0xff);
+      }
+    } else {
+      for (int i = 0; i < 8; i++) {
+        bits = bits << 8 | (wkb[position + i] & 0xff);
+      }
+    }
+
+    position += Double.BYTES;
+    return Double.longBitsToDouble(bits);
+  }
+
+  private void require(int bytes) throws ParseException {
+    if (position + bytes > wkb.length) {
+      throw new ParseException("Truncated WKB at " + position);
+    }
+  }
+
+}
@@ -0,0 +1,140 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("javadoc")
+public class ExportManifestTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path output;
+
+  @Before
+  public void setUp() {
+    output = folder.getRoot().toPath().resolve("faults").resolve("hazfaults_2014");
+  }
+
+  @Test
+  public void emptyManifest() throws IOException {
+    ExportManifest manifest = ExportManifest.load(output);
+    Path file = write("CA/1.geojson", "one");
+
+    assertFalse(manifest.isUnchanged(1, "10", ExportManifest.hash("one"), file));
+    manifest.record(1, "10", ExportManifest.hash("one"), file, true);
+    manifest.commit();
+
+    List<String> lines = Files.readAllLines(manifestPath(), UTF_8);
+    assertEquals("# id\tcfault_id\tsha256\tfile", lines.get(0));
+    assertEquals("1\t10\t" + ExportManifest.hash("one") + "\tCA/1.geojson", lines.get(1));
+    assertEquals(2, lines.size());
+    assertFalse(Files.exists(manifestPath().resolveSibling("hazfaults_2014.manifest.tmp")));
+  }
+
+  @Test
+  public void unchanged() throws IOException {
+    Path file = write("CA/1.geojson", "one");
+    commit(file, "one");
+
+    ExportManifest manifest = ExportManifest.load(output);
+    String hash = ExportManifest.hash("one");
+
+    assertTrue(manifest.isUnchanged(1, "10", hash, file));
+    assertFalse(manifest.isUnchanged(1, "10", ExportManifest.hash("two"), file));
+    assertFalse(manifest.isUnchanged(1, "11", hash, file));
+    assertFalse(manifest.isUnchanged(2, "10", hash, file));
+    assertFalse(manifest.isUnchanged(1, "10", hash, output.resolve("NV/1.geojson")));
+
+    Files.delete(file);
+    assertFalse(manifest.isUnchanged(1, "10", hash, file));
+  }
+
+  /* Faults no longer exported are deleted, with directories left empty */
+  @Test
+  public void deletes() throws IOException {
+    Path kept = write("CA/1.geojson", "one");
+    Path removed = write("CA/2.geojson", "two");
+    Path removedAlone = write("NV/3.geojson", "three");
+    Path moved = write("OR/4.geojson", "four");
+
+    ExportManifest first = ExportManifest.load(output);
+    first.record(1, "10", ExportManifest.hash("one"), kept, true);
+    first.record(2, "20", ExportManifest.hash("two"), removed, true);
+    first.record(3, "30", ExportManifest.hash("three"), removedAlone, true);
+    first.record(4, "40", ExportManifest.hash("four"), moved, true);
+    first.commit();
+
+    /* Fault 4 moves to another file, which reuses the path of fault 2 */
+    ExportManifest second = ExportManifest.load(output);
+    assertTrue(second.isUnchanged(1, "10", ExportManifest.hash("one"), kept));
+    second.record(1, "10", ExportManifest.hash("one"), kept, false);
+    Path reused = write("CA/2.geojson", "four");
+    second.record(4, "40", ExportManifest.hash("four"), reused, true);
+    second.commit();
+
+    assertTrue(Files.exists(kept));
+    assertTrue(Files.exists(reused));
+    assertFalse(Files.exists(removedAlone));
+    assertFalse(Files.exists(removedAlone.getParent()));
+    assertFalse(Files.exists(moved));
+    assertFalse(Files.exists(moved.getParent()));
+    assertTrue(Files.exists(output));
+    assertEquals("Manifest [written=1, unchanged=1, deleted=2]", second.toString());
+
+    ExportManifest third = ExportManifest.load(output);
+    assertTrue(third.isUnchanged(4, "40", ExportManifest.hash("four"), reused));
+    assertFalse(third.isUnchanged(2, "20", ExportManifest.hash("two"), reused));
+  }
+
+  /* An uncommitted export leaves the previous manifest and files in place */
+  @Test
+  public void uncommitted() throws IOException {
+    Path file = write("CA/1.geojson", "one");
+    commit(file, "one");
+
+    ExportManifest failed = ExportManifest.load(output);
+    failed.record(2, "20", ExportManifest.hash("two"), write("CA/2.geojson", "two"), true);
+
+    assertTrue(Files.exists(file));
+    assertTrue(ExportManifest.load(output).isUnchanged(1, "10", ExportManifest.hash("one"),
+        file));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void commitOnce() throws IOException {
+    ExportManifest manifest = ExportManifest.load(output);
+    manifest.commit();
+    manifest.commit();
+  }
+
+  private void commit(Path file, String content) throws IOException {
+    ExportManifest manifest = ExportManifest.load(output);
+    manifest.record(1, "10", ExportManifest.hash(content), file, true);
+    manifest.commit();
+  }
+
+  private Path write(String name, String content) throws IOException {
+    Path file = output.resolve(name);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(UTF_8));
+    return file;
+  }
+
+  private Path manifestPath() {
+    return output.resolveSibling("hazfaults_2014.manifest");
+  }
+
+}
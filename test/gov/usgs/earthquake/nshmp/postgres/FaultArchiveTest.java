@@ -0,0 +1,185 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static gov.usgs.earthquake.nshmp.postgres.FaultAssert.FIXTURE;
+import static gov.usgs.earthquake.nshmp.postgres.FaultAssert.assertFaultSetsEqual;
+import static gov.usgs.earthquake.nshmp.postgres.FaultAssert.fixture;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.usgs.earthquake.nshmp.geo.LocationList;
+
+@SuppressWarnings("javadoc")
+public class FaultArchiveTest {
+
+  private static final int MAGIC = 0x4E534846;
+  private static final int VERSION = 2;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void fixtureRoundTrip() throws IOException {
+    Path json = fixture(FIXTURE + ".geojson", folder.getRoot().toPath());
+    FaultSet expected = FaultSet.UncheckedBuilder.fromGeoJsonStream("Fixture", 3, json);
+
+    Path archive = folder.newFile("fixture.archive").toPath();
+    FaultArchive.write(expected, archive);
+    FaultSet actual = FaultArchive.read(archive);
+
+    assertEquals(400, actual.sources().size());
+    assertFaultSetsEqual(expected, actual);
+
+    /* Equal slip rate trees share rows again */
+    assertEquals(expected.slipRates().size(), actual.slipRates().size());
+    assertEquals(expected.slipRates().distinctGroups(), actual.slipRates().distinctGroups());
+  }
+
+  /* A fault without a qFault id or slip rates, and unset rates and rakes */
+  @Test
+  public void unsetValues() throws IOException {
+    FaultSet.UncheckedBuilder builder = FaultSet.uncheckedBuilder()
+        .id(4)
+        .name("Unset é");
+    builder.add(fault(1, "No qFault id", null)
+        .slipRateTree(RateModel.builder().build())
+        .build());
+    builder.add(fault(2, "Unset rates", "7")
+        .slipRateTree(RateModel.builder().aPriori(0.5, null).bird(null, 90.0).build())
+        .build());
+    FaultSet expected = builder.build();
+
+    Path archive = folder.newFile("unset.archive").toPath();
+    FaultArchive.write(expected, archive);
+    FaultSet actual = FaultArchive.read(archive);
+
+    assertFaultSetsEqual(expected, actual);
+    assertFalse(actual.sources().get(0).qFaultId().isPresent());
+    assertTrue(Double.isNaN(actual.sources().get(1).slipRateTree().get(0).rake()));
+  }
+
+  /* Indices past 127 are unsigned bytes */
+  @Test
+  public void highDictionaryIndices() throws IOException {
+    FaultSet faultSet = FaultArchive.read(archive(200, 150, 199));
+    RateModel rateModel = faultSet.sources().get(0).slipRateTree().get(0);
+
+    assertEquals("BIRD", rateModel.id());
+    assertEquals(RateType.DISPLACEMENT, rateModel.type());
+    assertEquals(1.5, rateModel.value(), 0.0);
+    assertEquals(-90.0, rateModel.rake(), 0.0);
+  }
+
+  @Test
+  public void invalidDictionaryIndex() throws IOException {
+    assertInvalid(archive(200, 250, 199), "Invalid fault archive dictionary index: 250");
+    assertInvalid(archive(200, 150, 150), "Not a rate type in fault archive");
+  }
+
+  @Test
+  public void invalidArchives() throws IOException {
+    Path archive = archive(2, 0, 1);
+    byte[] bytes = Files.readAllBytes(archive);
+
+    Files.write(archive, Arrays.copyOf(bytes, bytes.length - 4));
+    assertInvalid(archive, "Truncated fault archive");
+
+    Files.write(archive, Arrays.copyOf(bytes, bytes.length + 1));
+    assertInvalid(archive, "Unexpected trailing bytes");
+
+    bytes[0] = 'X';
+    Files.write(archive, bytes);
+    assertInvalid(archive, "Not a fault archive");
+  }
+
+  private static Fault.UncheckedBuilder fault(int id, String name, String qFaultId) {
+    return Fault.uncheckedBuilder()
+        .id(id)
+        .name(name)
+        .qFaultId(qFaultId)
+        .depth(0.0)
+        .dip(90.0)
+        .trace(LocationList.builder()
+            .add(34.5, -117.25, 0.0)
+            .add(34.75, -117.0, 0.0)
+            .build());
+  }
+
+  /*
+   * An archive of one fault with one rate model and a dictionary of names
+   * "N0", "N1", ... where the id and type indices name BIRD and DISPLACEMENT.
+   */
+  private Path archive(int names, int idIndex, int typeIndex) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(5);
+    writeString(out, "Dictionary");
+
+    out.writeInt(names);
+    for (int index = 0; index < names; index++) {
+      writeString(out, index == idIndex ? "BIRD" : index == typeIndex ? "DISPLACEMENT" :
+          "N" + index);
+    }
+
+    out.writeInt(1);
+    out.writeInt(1);
+    writeString(out, "Fault");
+    writeString(out, null);
+    out.writeDouble(0.0);
+    out.writeDouble(90.0);
+    out.writeInt(2);
+    for (double[] loc : new double[][] { { 34.5, -117.25, 0.0 }, { 34.75, -117.0, 0.0 } }) {
+      out.writeDouble(loc[0]);
+      out.writeDouble(loc[1]);
+      out.writeDouble(loc[2]);
+    }
+
+    out.writeInt(1);
+    out.writeByte(idIndex);
+    out.writeByte(typeIndex);
+    out.writeDouble(1.5);
+    out.writeDouble(-90.0);
+    out.flush();
+
+    Path archive = folder.newFile().toPath();
+    Files.write(archive, bytes.toByteArray());
+    return archive;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static void assertInvalid(Path archive, String message) {
+    try {
+      FaultArchive.read(archive);
+      fail("Expected an invalid archive: " + message);
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.google.common.io.Resources;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.geo.LocationList;
+
+/*
+ * Fault fixtures and field by field fault assertions shared by the tests.
+ */
+final class FaultAssert {
+
+  /* The benchmark fixture, 400 synthetic hazfaults_2014 features */
+  static final String FIXTURE = "hazfaults_2014";
+
+  /* Locations may be stored in radians */
+  private static final double TOLERANCE = 1e-9;
+
+  private FaultAssert() {}
+
+  /* Copy a fixture resource to a directory */
+  static Path fixture(String name, Path dir) throws IOException {
+    Path file = dir.resolve(name);
+    try (InputStream in = Resources.getResource(FaultAssert.class, name).openStream()) {
+      Files.copy(in, file);
+    }
+    return file;
+  }
+
+  static void assertFaultSetsEqual(FaultSet expected, FaultSet actual) {
+    assertEquals(expected.name(), actual.name());
+    assertEquals(expected.id(), actual.id());
+    assertFaultsEqual(expected.sources(), actual.sources());
+  }
+
+  static void assertFaultsEqual(List<Fault> expected, List<Fault> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertFaultEquals(expected.get(i), actual.get(i));
+    }
+  }
+
+  static void assertFaultEquals(Fault expected, Fault actual) {
+    String id = "fault " + expected.id();
+    assertEquals(id, expected.id(), actual.id());
+    assertEquals(id, expected.name(), actual.name());
+    assertEquals(id, expected.qFaultId(), actual.qFaultId());
+    assertEquals(id, expected.depth(), actual.depth(), 0.0);
+    assertEquals(id, expected.dip(), actual.dip(), 0.0);
+    assertEquals(id, expected.slipRateTree(), actual.slipRateTree());
+    assertTracesEqual(id, expected.trace(), actual.trace());
+  }
+
+  static void assertTracesEqual(String message, LocationList expected, LocationList actual) {
+    assertEquals(message, expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Location e = expected.get(i);
+      Location a = actual.get(i);
+      assertEquals(message, e.lat(), a.lat(), TOLERANCE);
+      assertEquals(message, e.lon(), a.lon(), TOLERANCE);
+      assertEquals(message, e.depth(), a.depth(), TOLERANCE);
+    }
+  }
+
+}
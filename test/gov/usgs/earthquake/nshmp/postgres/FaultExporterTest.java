@@ -0,0 +1,99 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import gov.usgs.earthquake.nshmp.postgres.PostgreSQL.CopyFormat;
+
+@SuppressWarnings("javadoc")
+public class FaultExporterTest {
+
+  private static final String[] LABELS_2008 = {
+      "cfault_id", "dip", "id", "name", "primary_state", "probability_of_activity",
+      "state_abbrev", "upper_depth", "fault_trace", "displacement_rate", "rake", "slip_rate" };
+  private static final int[] TYPES_2008 = {
+      Types.VARCHAR, Types.DOUBLE, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.DOUBLE,
+      Types.VARCHAR, Types.DOUBLE, Types.VARCHAR, Types.DOUBLE, Types.DOUBLE, Types.DOUBLE };
+
+  private static final String TRACE = "\"LINESTRING(-117.25 34.5,-117 34.75)\"";
+
+  /* California faults have slip rates, others displacement rates, unless POA < 1 */
+  @Test
+  public void rateModels2008() throws SQLException {
+    String csv =
+        "1,60,1,Slip,CA,1,CA ,0," + TRACE + ",,-90,2.5\n" +
+        "2,60,2,Displacement,NV,,NV,0," + TRACE + ",0.5,180,\n" +
+        "3,60,3,A priori,UT,0.25,UT,0," + TRACE + ",0.5,-90,\n";
+
+    FaultExporter2008 exporter = new FaultExporter2008(postgres());
+    List<List<RateModel>> rateModels = new ArrayList<>();
+
+    try (FaultRecord.Reader reader = FaultRecord.copyReader(
+        new ByteArrayInputStream(csv.getBytes(UTF_8)), metadata(), CopyFormat.CSV)) {
+
+      exporter.resolve(reader.columns());
+      FaultRecord record;
+      while ((record = reader.next()) != null) {
+        rateModels.add(exporter.getRateModels(record));
+      }
+    }
+
+    assertEquals(3, rateModels.size());
+    assertEquals(RateModel.builder().slip(2.5, -90.0).build(), rateModels.get(0));
+    assertEquals(RateModel.builder().geo(0.5, 180.0).build(), rateModels.get(1));
+    assertEquals(RateModel.builder().aPriori(0.25, -90.0).build(), rateModels.get(2));
+  }
+
+  @Test
+  public void buildTwice() {
+    RateModel.Builder builder = RateModel.builder().geo(0.5, 180.0);
+    assertEquals(builder.build(), builder.build());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void addAfterBuild() {
+    RateModel.Builder builder = RateModel.builder().geo(0.5, 180.0);
+    builder.build();
+    builder.bird(1.0, 180.0);
+  }
+
+  private static PostgreSQL postgres() {
+    return PostgreSQL.builder()
+        .database("test")
+        .password("")
+        .table("hazfaults_2008")
+        .url("jdbc:postgresql://localhost/test")
+        .username("test")
+        .build();
+  }
+
+  private static ResultSetMetaData metadata() {
+    return (ResultSetMetaData) Proxy.newProxyInstance(
+        FaultExporterTest.class.getClassLoader(),
+        new Class<?>[] { ResultSetMetaData.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getColumnCount":
+              return LABELS_2008.length;
+            case "getColumnLabel":
+            case "getColumnName":
+              return LABELS_2008[(Integer) args[0] - 1];
+            case "getColumnType":
+              return TYPES_2008[(Integer) args[0] - 1];
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+}
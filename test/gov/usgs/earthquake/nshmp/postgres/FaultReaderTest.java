@@ -0,0 +1,138 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static gov.usgs.earthquake.nshmp.postgres.FaultAssert.FIXTURE;
+import static gov.usgs.earthquake.nshmp.postgres.FaultAssert.assertFaultSetsEqual;
+import static gov.usgs.earthquake.nshmp.postgres.FaultAssert.assertFaultsEqual;
+import static gov.usgs.earthquake.nshmp.postgres.FaultAssert.fixture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("javadoc")
+public class FaultReaderTest {
+
+  private static final String LINE = "{\"type\":\"Feature\",\"id\":1," +
+      "\"geometry\":{\"type\":\"LineString\",\"coordinates\":[[-117.25,34.5],[-117.0,34.75]]}," +
+      "\"properties\":{\"name\":\"Line \\\"fault\\\"\",\"depth\":1.5,\"dip\":60.0," +
+      "\"qFaultId\":\"42\",\"mMax\":7.5,\"rateModels\":[" +
+      "{\"id\":\"BIRD\",\"type\":\"DISPLACEMENT\",\"rake\":-90.0,\"value\":0.5}," +
+      "{\"id\":\"GEO\",\"type\":\"DISPLACEMENT\",\"rake\":-90.0,\"value\":null}]}}";
+
+  /* Members out of order, a polygon trace and a null qFaultId */
+  private static final String POLYGON = "{\"properties\":{\"rateModels\":[" +
+      "{\"id\":\"GEO\",\"type\":\"SLIP\",\"value\":2.0}],\"dip\":45.0,\"qFaultId\":null," +
+      "\"name\":\"Polygon fault\",\"depth\":0.0},\"type\":\"Feature\"," +
+      "\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[[-116.0,35.0],[-115.5,35.0]," +
+      "[-115.5,35.5],[-116.0,35.0]],[[-115.9,35.1],[-115.8,35.1],[-115.9,35.1]]]},\"id\":2}";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /* Streaming reads the same faults as GeoJson, in the same order */
+  @Test
+  public void streamMatchesGeoJson() throws IOException {
+    Path json = fixture(FIXTURE + ".geojson", folder.getRoot().toPath());
+    FaultSet expected = FaultSet.UncheckedBuilder.fromGeoJson("Fixture", 1, json);
+    FaultSet actual = FaultSet.UncheckedBuilder.fromGeoJsonStream("Fixture", 1, json);
+
+    assertEquals(400, actual.sources().size());
+    assertFaultSetsEqual(expected, actual);
+  }
+
+  @Test
+  public void inputForms() throws IOException {
+    List<Fault> collection = read("{\"type\":\"FeatureCollection\",\"features\":[" +
+        LINE + "," + POLYGON + "],\"bbox\":[0,0,1,1]}");
+    List<Fault> ndjson = read(LINE + "\n" + POLYGON + "\n");
+
+    assertEquals(2, collection.size());
+    assertFaultsEqual(collection, ndjson);
+    assertFaultsEqual(collection.subList(0, 1), read(LINE));
+    assertFaultsEqual(collection.subList(1, 2), read(POLYGON));
+  }
+
+  @Test
+  public void members() throws IOException {
+    List<Fault> faults = read(LINE + POLYGON);
+
+    Fault line = faults.get(0);
+    assertEquals(1, line.id());
+    assertEquals("Line \"fault\"", line.name());
+    assertEquals("42", line.qFaultId().get());
+    assertEquals(1.5, line.depth(), 0.0);
+    assertEquals(60.0, line.dip(), 0.0);
+    assertEquals(2, line.trace().size());
+    assertEquals(RateModel.builder().bird(0.5, -90.0).geo(null, -90.0).build(),
+        line.slipRateTree());
+
+    Fault polygon = faults.get(1);
+    assertEquals(2, polygon.id());
+    assertFalse(polygon.qFaultId().isPresent());
+    assertEquals(4, polygon.trace().size());
+    assertEquals(RateModel.builder().slip(2.0, null).build(), polygon.slipRateTree());
+  }
+
+  /* Builders read into a shared table leave their slip rate tree open */
+  @Test
+  public void sharedTable() throws IOException {
+    SlipRateTable.Builder table = SlipRateTable.builder();
+    List<Integer> ids = new ArrayList<>();
+
+    try (FaultReader reader = FaultReader.of(new StringReader(LINE + POLYGON), false)) {
+      Fault.UncheckedBuilder fault;
+      while ((fault = reader.next(table)) != null) {
+        ids.add(fault.id());
+        table.endGroup();
+      }
+    }
+
+    SlipRateTable slipRates = table.build();
+    assertEquals(2, ids.size());
+    assertEquals(2, slipRates.groups());
+    assertEquals(3, slipRates.size());
+    assertEquals(read(LINE).get(0).slipRateTree(), slipRates.rateModels(0));
+    assertEquals(read(POLYGON).get(0).slipRateTree(), slipRates.rateModels(1));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void missingMember() throws IOException {
+    read(LINE.replace("\"dip\":60.0,", ""));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void checkedDip() throws IOException {
+    try (FaultReader reader = FaultReader.of(new StringReader(LINE.replace("60.0", "120.0")),
+        true)) {
+      reader.next();
+    }
+  }
+
+  /* Only the unchecked builder accepts rate models without a rake */
+  @Test(expected = IllegalArgumentException.class)
+  public void checkedRake() throws IOException {
+    try (FaultReader reader = FaultReader.of(new StringReader(POLYGON), true)) {
+      reader.next();
+    }
+  }
+
+  private static List<Fault> read(String json) throws IOException {
+    List<Fault> faults = new ArrayList<>();
+    try (FaultReader reader = FaultReader.of(new StringReader(json), false)) {
+      Fault fault;
+      while ((fault = reader.next()) != null) {
+        faults.add(fault);
+      }
+    }
+    return faults;
+  }
+
+}
@@ -0,0 +1,307 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.junit.Test;
+
+import gov.usgs.earthquake.nshmp.postgres.PostgreSQL.CopyFormat;
+
+@SuppressWarnings("javadoc")
+public class FaultRecordTest {
+
+  private static final String[] LABELS = { "id", "rate", "dip", "name", "trace" };
+  private static final int[] TYPES = {
+      Types.INTEGER, Types.NUMERIC, Types.DOUBLE, Types.VARCHAR, Types.BINARY };
+  private static final String[] TYPE_NAMES = { "int4", "numeric", "float8", "text", "bytea" };
+
+  /* The same columns with a float4 dip */
+  private static final int[] FLOAT4_TYPES = {
+      Types.INTEGER, Types.NUMERIC, Types.REAL, Types.VARCHAR, Types.BINARY };
+  private static final String[] FLOAT4_TYPE_NAMES = {
+      "int4", "numeric", "float4", "text", "bytea" };
+
+  private static final byte[] TRACE = { 0, 1, (byte) 0xab, (byte) 0xff };
+
+  private static final int NUMERIC_NEGATIVE = 0x4000;
+  private static final int NUMERIC_NAN = 0xc000;
+  private static final int NUMERIC_POSITIVE_INFINITY = 0xd000;
+  private static final int NUMERIC_NEGATIVE_INFINITY = 0xf000;
+
+  @Test
+  public void binaryNumerics() throws IOException, SQLException {
+    assertNumeric(1234.5678, 0, 0, 1234, 5678);
+    assertNumeric(-0.0025, -1, NUMERIC_NEGATIVE, 25);
+    assertNumeric(12000000.0, 1, 0, 1200);
+    assertNumeric(0.1, -1, 0, 1000);
+    assertNumeric(0.0, 0, 0);
+    assertNumeric(Double.NaN, 0, NUMERIC_NAN);
+    assertNumeric(Double.POSITIVE_INFINITY, 0, NUMERIC_POSITIVE_INFINITY);
+    assertNumeric(Double.NEGATIVE_INFINITY, 0, NUMERIC_NEGATIVE_INFINITY);
+  }
+
+  @Test
+  public void binaryRows() throws IOException, SQLException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = header(bytes, 6);
+
+    row(out, 7, -1);
+    out.writeInt(8);
+    out.writeDouble(45.5);
+    text(out, "Fault é");
+    out.writeInt(TRACE.length);
+    out.write(TRACE);
+
+    out.writeShort(LABELS.length);
+    for (int index = 0; index < LABELS.length; index++) {
+      out.writeInt(-1);
+    }
+    out.writeShort(-1);
+
+    try (FaultRecord.Reader reader = reader(bytes, CopyFormat.BINARY)) {
+      FaultRecord record = reader.next();
+      assertEquals(7, record.getInt("id"));
+      assertNull(record.getDouble("rate"));
+      assertEquals(45.5, record.getDouble("dip"), 0.0);
+      assertEquals("Fault é", record.getString("name"));
+      assertArrayEquals(TRACE, record.getBytes("trace"));
+
+      record = reader.next();
+      assertNull(record.getDouble("id"));
+      assertNull(record.getString("name"));
+      assertNull(record.getBytes("trace"));
+
+      assertNull(reader.next());
+      assertNull(reader.next());
+      assertEquals(2, reader.rows());
+    }
+  }
+
+  /* A float4 reads as the double of its shortest decimal form, as in CSV */
+  @Test
+  public void binaryFloat4() throws IOException, SQLException {
+    float[] values = { 0.1f, 45.3f, -117.25f, 1.0e-7f, Float.NaN, Float.POSITIVE_INFINITY };
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = header(bytes, 0);
+    StringBuilder csv = new StringBuilder();
+
+    for (float value : values) {
+      row(out, 1, -1);
+      out.writeInt(4);
+      out.writeFloat(value);
+      out.writeInt(-1);
+      out.writeInt(-1);
+      csv.append("1,,").append(Float.toString(value)).append(",,\n");
+    }
+    out.writeShort(-1);
+    out.flush();
+
+    try (FaultRecord.Reader binary = FaultRecord.copyReader(
+        new ByteArrayInputStream(bytes.toByteArray()),
+        metadata(FLOAT4_TYPES, FLOAT4_TYPE_NAMES),
+        CopyFormat.BINARY);
+        FaultRecord.Reader text = FaultRecord.copyReader(
+            new ByteArrayInputStream(csv.toString().getBytes(UTF_8)),
+            metadata(FLOAT4_TYPES, FLOAT4_TYPE_NAMES),
+            CopyFormat.CSV)) {
+
+      for (float value : values) {
+        double expected = Double.parseDouble(Float.toString(value));
+        assertEquals(expected, binary.next().getDouble("dip"), 0.0);
+        assertEquals(expected, text.next().getDouble("dip"), 0.0);
+      }
+    }
+  }
+
+  @Test(expected = SQLException.class)
+  public void binarySignature() throws IOException, SQLException {
+    byte[] stream = "PGCOPY\n\r\n\0\0\0\0\0\0\0\0\0".getBytes(UTF_8);
+    try (FaultRecord.Reader reader = FaultRecord.copyReader(
+        new ByteArrayInputStream(stream), metadata(), CopyFormat.BINARY)) {
+      reader.next();
+    }
+  }
+
+  @Test(expected = SQLException.class)
+  public void binaryFieldCount() throws IOException, SQLException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = header(bytes, 0);
+    out.writeShort(2);
+    out.writeInt(-1);
+    out.writeInt(-1);
+    out.writeShort(-1);
+
+    try (FaultRecord.Reader reader = reader(bytes, CopyFormat.BINARY)) {
+      reader.next();
+    }
+  }
+
+  @Test
+  public void csvRows() throws SQLException {
+    String csv = "7,1234.5678,45.5,\"Fault, \"\"quoted\"\"\",\\x0001abff\n" +
+        ",-2.5E-3,,,\n" +
+        "8,NaN,Infinity,\"\",\\x\n";
+
+    try (FaultRecord.Reader reader = FaultRecord.copyReader(
+        new ByteArrayInputStream(csv.getBytes(UTF_8)), metadata(), CopyFormat.CSV)) {
+
+      FaultRecord record = reader.next();
+      assertEquals(7, record.getInt("id"));
+      assertEquals(1234.5678, record.getDouble("rate"), 0.0);
+      assertEquals(45.5, record.getDouble("dip"), 0.0);
+      assertEquals("Fault, \"quoted\"", record.getString("name"));
+      assertArrayEquals(TRACE, record.getBytes("trace"));
+
+      /* Unquoted empty fields are NULL */
+      record = reader.next();
+      assertNull(record.getDouble("id"));
+      assertEquals(-0.0025, record.getDouble("rate"), 0.0);
+      assertNull(record.getDouble("dip"));
+      assertNull(record.getString("name"));
+      assertNull(record.getBytes("trace"));
+
+      /* A quoted empty field is an empty string */
+      record = reader.next();
+      assertEquals(Double.NaN, record.getDouble("rate"), 0.0);
+      assertEquals(Double.POSITIVE_INFINITY, record.getDouble("dip"), 0.0);
+      assertEquals("", record.getString("name"));
+      assertArrayEquals(new byte[0], record.getBytes("trace"));
+
+      assertNull(reader.next());
+      assertEquals(3, reader.rows());
+    }
+  }
+
+  @Test
+  public void columnHandles() throws SQLException {
+    String csv = "7,1234.5678,45.5,Fault,\\x0001abff\n";
+
+    try (FaultRecord.Reader reader = FaultRecord.copyReader(
+        new ByteArrayInputStream(csv.getBytes(UTF_8)), metadata(), CopyFormat.CSV)) {
+
+      FaultRecord.Columns columns = reader.columns();
+      FaultRecord record = reader.next();
+
+      assertEquals(7, record.getInt(columns.column("id")));
+      assertEquals(1234.5678, record.getDouble(columns.column("rate")), 0.0);
+      assertEquals("Fault", record.getString(columns.column("name")));
+      assertArrayEquals(TRACE, record.getBytes(columns.column("trace")));
+      assertEquals(columns, FaultRecord.Columns.of(metadata()));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void columnHandleKind() throws SQLException {
+    String csv = "7,1234.5678,45.5,Fault,\\x0001abff\n";
+
+    try (FaultRecord.Reader reader = FaultRecord.copyReader(
+        new ByteArrayInputStream(csv.getBytes(UTF_8)), metadata(), CopyFormat.CSV)) {
+
+      reader.next().getDouble(reader.columns().column("trace"));
+    }
+  }
+
+  @Test(expected = SQLException.class)
+  public void csvFieldCount() throws SQLException {
+    try (FaultRecord.Reader reader = FaultRecord.copyReader(
+        new ByteArrayInputStream("7,1.0\n".getBytes(UTF_8)), metadata(), CopyFormat.CSV)) {
+      reader.next();
+    }
+  }
+
+  /* Decode a numeric of base 10000 digits from a one row binary stream */
+  private static void assertNumeric(double expected, int weight, int sign, int... digits)
+      throws IOException, SQLException {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = header(bytes, 0);
+
+    row(out, 1, 8 + 2 * digits.length);
+    out.writeShort(digits.length);
+    out.writeShort(weight);
+    out.writeShort(sign);
+    out.writeShort(4);
+    for (int digit : digits) {
+      out.writeShort(digit);
+    }
+    out.writeInt(-1);
+    out.writeInt(-1);
+    out.writeInt(-1);
+    out.writeShort(-1);
+
+    try (FaultRecord.Reader reader = reader(bytes, CopyFormat.BINARY)) {
+      assertEquals(expected, reader.next().getDouble("rate"), 0.0);
+    }
+  }
+
+  /* The signature, flags and a header extension of the given length */
+  private static DataOutputStream header(ByteArrayOutputStream bytes, int extension)
+      throws IOException {
+
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(new byte[] { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0 });
+    out.writeInt(0);
+    out.writeInt(extension);
+    out.write(new byte[extension]);
+    return out;
+  }
+
+  /* Start a row with an int4 id and the length of the numeric field */
+  private static void row(DataOutputStream out, int id, int numericLength) throws IOException {
+    out.writeShort(LABELS.length);
+    out.writeInt(4);
+    out.writeInt(id);
+    out.writeInt(numericLength);
+  }
+
+  private static void text(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static FaultRecord.Reader reader(ByteArrayOutputStream bytes, CopyFormat format)
+      throws IOException, SQLException {
+
+    bytes.flush();
+    return FaultRecord.copyReader(
+        new ByteArrayInputStream(bytes.toByteArray()), metadata(), format);
+  }
+
+  private static ResultSetMetaData metadata() {
+    return metadata(TYPES, TYPE_NAMES);
+  }
+
+  private static ResultSetMetaData metadata(int[] types, String[] typeNames) {
+    return (ResultSetMetaData) Proxy.newProxyInstance(
+        FaultRecordTest.class.getClassLoader(),
+        new Class<?>[] { ResultSetMetaData.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getColumnCount":
+              return LABELS.length;
+            case "getColumnLabel":
+            case "getColumnName":
+              return LABELS[(Integer) args[0] - 1];
+            case "getColumnType":
+              return types[(Integer) args[0] - 1];
+            case "getColumnTypeName":
+              return typeNames[(Integer) args[0] - 1];
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+}
@@ -0,0 +1,249 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static gov.usgs.earthquake.nshmp.postgres.FaultAssert.FIXTURE;
+import static gov.usgs.earthquake.nshmp.postgres.FaultAssert.fixture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.geo.LocationList;
+import gov.usgs.earthquake.nshmp.geo.Locations;
+
+@SuppressWarnings("javadoc")
+public class FaultSetTest {
+
+  private static final GeometryFactory GEOMETRY = new GeometryFactory();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private FaultSet faultSet;
+
+  @Before
+  public void setUp() throws IOException {
+    faultSet = FaultSet.UncheckedBuilder.fromGeoJsonStream(
+        "Fixture", 1, fixture(FIXTURE + ".geojson", folder.getRoot().toPath()));
+  }
+
+  @Test
+  public void faultById() {
+    for (Fault fault : faultSet) {
+      assertSame(fault, faultSet.faultById(fault.id()).get());
+    }
+
+    assertFalse(faultSet.faultById(-1).isPresent());
+    assertFalse(faultSet.faultById(0).isPresent());
+    assertFalse(faultSet.faultById(Integer.MAX_VALUE).isPresent());
+  }
+
+  /* Colliding and negative ids, and a single fault table */
+  @Test
+  public void faultByIdKeys() {
+    int[] ids = { 0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 1 << 16, 2 << 16, 3 << 16 };
+    FaultSet.UncheckedBuilder builder = FaultSet.uncheckedBuilder().id(2).name("Ids");
+    for (int id : ids) {
+      builder.add(fault(id, null, 34.0, -117.0));
+    }
+    FaultSet faultSet = builder.build();
+
+    for (int index = 0; index < ids.length; index++) {
+      assertSame(faultSet.sources().get(index), faultSet.faultById(ids[index]).get());
+    }
+    assertFalse(faultSet.faultById(4 << 16).isPresent());
+
+    FaultSet single = FaultSet.uncheckedBuilder()
+        .id(3)
+        .name("Single")
+        .add(fault(5, null, 34.0, -117.0))
+        .build();
+    assertEquals(5, single.faultById(5).get().id());
+    assertFalse(single.faultById(6).isPresent());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void duplicateId() {
+    FaultSet.uncheckedBuilder()
+        .id(2)
+        .name("Duplicates")
+        .add(fault(1, null, 34.0, -117.0))
+        .add(fault(1, null, 35.0, -117.0))
+        .build();
+  }
+
+  @Test
+  public void faultsByQFaultId() {
+    int count = 0;
+
+    for (Fault fault : faultSet) {
+      if (!fault.qFaultId().isPresent()) continue;
+
+      List<Fault> expected = new ArrayList<>();
+      for (Fault other : faultSet) {
+        if (other.qFaultId().equals(fault.qFaultId())) expected.add(other);
+      }
+
+      assertEquals(expected, faultSet.faultsByQFaultId(fault.qFaultId().get()));
+      count++;
+    }
+
+    assertTrue(count > 0);
+    assertTrue(faultSet.faultsByQFaultId("none").isEmpty());
+  }
+
+  /* Repeated slip rate trees share rows; qFault ids and names repeat */
+  @Test
+  public void interning() {
+    SlipRateTable slipRates = faultSet.slipRates();
+    FaultInterner interning = faultSet.interning();
+
+    assertEquals(faultSet.sources().size(), slipRates.groups());
+    assertEquals(
+        1.0 - (double) slipRates.distinctGroups() / slipRates.groups(),
+        interning.slipRateTreeDedupRatio(),
+        1e-12);
+    assertTrue(interning.qFaultIdDedupRatio() > 0.0);
+    assertTrue(interning.nameDedupRatio() > 0.0);
+
+    for (int index = 0; index < slipRates.groups(); index++) {
+      assertSame(slipRates.rateModels(index), faultSet.sources().get(index).slipRateTree());
+    }
+
+    List<Fault> sources = faultSet.sources();
+    for (int i = 0; i < sources.size(); i++) {
+      for (int j = i + 1; j < sources.size(); j++) {
+        if (sources.get(i).qFaultId().equals(sources.get(j).qFaultId()) &&
+            sources.get(i).qFaultId().isPresent()) {
+          assertSame(sources.get(i).qFaultId().get(), sources.get(j).qFaultId().get());
+        }
+        if (sources.get(i).name().equals(sources.get(j).name())) {
+          assertSame(sources.get(i).name(), sources.get(j).name());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void faultsWithin() {
+    double[] distances = { 0.0, 5.0, 25.0, 100.0 };
+
+    for (Fault fault : sample()) {
+      Location location = fault.trace().first();
+
+      for (double distance : distances) {
+        List<Fault> expected = new ArrayList<>();
+        for (Fault other : faultSet) {
+          if (Locations.minDistanceToLine(location, other.trace()) <= distance) {
+            expected.add(other);
+          }
+        }
+
+        List<Fault> actual = faultSet.faultsWithin(location, distance);
+        assertEquals(location + " " + distance, ids(expected), ids(actual));
+        assertTrue(actual.contains(fault));
+      }
+    }
+  }
+
+  @Test
+  public void faultsIntersecting() {
+    for (Fault fault : sample()) {
+      Location center = fault.trace().first();
+
+      for (double size : new double[] { 0.01, 0.5, 2.0 }) {
+        Location min = Location.create(center.lat() - size, center.lon() - size);
+        Location max = Location.create(center.lat() + size, center.lon() + size);
+        Geometry rectangle = GEOMETRY.toGeometry(
+            new Envelope(min.lon(), max.lon(), min.lat(), max.lat()));
+
+        List<Fault> expected = new ArrayList<>();
+        for (Fault other : faultSet) {
+          if (lineString(other.trace()).intersects(rectangle)) expected.add(other);
+        }
+
+        List<Fault> actual = faultSet.faultsIntersecting(min, max);
+        assertEquals(center + " " + size, ids(expected), ids(actual));
+        assertTrue(actual.contains(fault));
+      }
+    }
+
+    /* A rectangle between two trace vertices, crossed by the segment */
+    FaultSet crossing = FaultSet.uncheckedBuilder()
+        .id(4)
+        .name("Crossing")
+        .add(fault(1, null, 34.0, -118.0))
+        .build();
+    assertEquals(1, crossing.faultsIntersecting(
+        Location.create(34.4, -117.6), Location.create(34.6, -117.4)).size());
+    assertTrue(crossing.faultsIntersecting(
+        Location.create(36.0, -120.0), Location.create(37.0, -119.0)).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void faultsIntersectingBounds() {
+    faultSet.faultsIntersecting(Location.create(35.0, -117.0), Location.create(34.0, -116.0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void faultsWithinDistance() {
+    faultSet.faultsWithin(Location.create(35.0, -117.0), -1.0);
+  }
+
+  /* Every 20th fault of the fixture */
+  private List<Fault> sample() {
+    List<Fault> sample = new ArrayList<>();
+    for (int index = 0; index < faultSet.sources().size(); index += 20) {
+      sample.add(faultSet.sources().get(index));
+    }
+    return sample;
+  }
+
+  private static List<Integer> ids(List<Fault> faults) {
+    List<Integer> ids = new ArrayList<>();
+    for (Fault fault : faults) {
+      ids.add(fault.id());
+    }
+    return ids;
+  }
+
+  private static Geometry lineString(LocationList trace) {
+    Coordinate[] coords = new Coordinate[trace.size()];
+    for (int index = 0; index < coords.length; index++) {
+      coords[index] = new Coordinate(trace.get(index).lon(), trace.get(index).lat());
+    }
+    return coords.length == 1 ? GEOMETRY.createPoint(coords[0])
+        : GEOMETRY.createLineString(coords);
+  }
+
+  /* A one degree northeast trending fault from a location */
+  private static Fault fault(int id, String qFaultId, double lat, double lon) {
+    return Fault.uncheckedBuilder()
+        .id(id)
+        .name("Fault " + id)
+        .qFaultId(qFaultId)
+        .depth(0.0)
+        .dip(90.0)
+        .trace(LocationList.builder()
+            .add(lat, lon, 0.0)
+            .add(lat + 1.0, lon + 1.0, 0.0)
+            .build())
+        .slipRateTree(RateModel.builder().bird(1.0, 0.0).build())
+        .build();
+  }
+
+}
@@ -0,0 +1,107 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.usgs.earthquake.nshmp.geo.LocationList;
+import gov.usgs.earthquake.nshmp.geo.json.Feature;
+import gov.usgs.earthquake.nshmp.geo.json.GeoJson;
+import gov.usgs.earthquake.nshmp.geo.json.Properties;
+
+@SuppressWarnings("javadoc")
+public class GeoJsonWriterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /*
+   * A probe with escaped and non-ASCII text, null properties (e.g. a missing
+   * qFaultId), whole, fractional and full precision numbers and Gson
+   * serialized rate models with unset values.
+   */
+  private static final LocationList TRACE = LocationList.builder()
+      .add(34.5, -117.25, 0.0)
+      .add(34.123456789012345, -117.00000000000001, 0.0)
+      .add(35.0, -116.125, 0.0)
+      .build();
+  private static final String NAME = "Probe <&>='\"\\ fault \u00e9\u2028";
+  private static final Double DEPTH = 0.1 + 0.2;
+  private static final Double DIP = 1.0e-7;
+  private static final List<RateModel> RATE_MODELS = RateModel.builder()
+      .aPriori(0.5, null)
+      .bird(null, -90.0)
+      .geo(1.0 / 3.0, 45.0)
+      .build();
+
+  /* A streamed feature must reproduce the file GeoJson writes exactly */
+  @Test
+  public void prettyMatchesGeoJson() throws IOException {
+    StringWriter out = new StringWriter();
+    GeoJsonWriter json = GeoJsonWriter.pretty(out).beginFeatureCollection();
+    probe(json);
+    json.endFeatureCollection().flush();
+
+    assertEquals(geoJsonFile(), out.toString());
+  }
+
+  /* Built features are written as rendered, which must be the GeoJson file */
+  @Test
+  public void renderedMatchesGeoJson() throws IOException {
+    assertEquals(geoJsonFile(), GeoJson.builder().add(feature()).toJson());
+  }
+
+  /* Lines of aggregated layouts are the same tokens, streamed or built */
+  @Test
+  public void compactMatchesJsonLine() throws IOException {
+    StringWriter out = new StringWriter();
+    GeoJsonWriter json = GeoJsonWriter.compact(out);
+    probe(json);
+    json.flush();
+
+    String line = FaultWriter.toJsonLine(feature());
+    assertEquals(out.toString(), line);
+    assertEquals(-1, line.indexOf('\n'));
+  }
+
+  private static Feature feature() {
+    return Feature.lineString(TRACE)
+        .id(7)
+        .properties(Properties.builder()
+            .put("name", NAME)
+            .put("depth", DEPTH)
+            .put("dip", DIP)
+            .put("qFaultId", null)
+            .put("rateModels", RATE_MODELS)
+            .put("mMax", 7.25)
+            .build())
+        .build();
+  }
+
+  private static void probe(GeoJsonWriter json) throws IOException {
+    json.beginFeature(7, TRACE)
+        .property("name", NAME)
+        .property("depth", DEPTH)
+        .property("dip", DIP)
+        .property("qFaultId", (String) null)
+        .property("rateModels", RATE_MODELS)
+        .property("mMax", (Object) 7.25)
+        .endFeature();
+  }
+
+  private String geoJsonFile() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("feature.geojson");
+    GeoJson.builder().add(feature()).write(file);
+    return new String(Files.readAllBytes(file), UTF_8);
+  }
+
+}
@@ -0,0 +1,152 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import gov.usgs.earthquake.nshmp.postgres.RateModel.SlipModel;
+
+@SuppressWarnings("javadoc")
+public class SlipRateTableTest {
+
+  @Test
+  public void columns() {
+    SlipRateTable table = SlipRateTable.builder()
+        .add(SlipModel.BIRD, RateType.DISPLACEMENT, 1.5, -90.0)
+        .add(SlipModel.GEO, RateType.SLIP, Double.NaN, Double.NaN)
+        .endGroup()
+        .add(SlipModel.A_PRIORI, RateType.PROBABILITY_OF_ACTIVITY, 0.5, 45.0)
+        .build();
+
+    assertEquals(3, table.size());
+    assertEquals(2, table.groups());
+    assertEquals(0, table.start(0));
+    assertEquals(2, table.end(0));
+    assertEquals(2, table.start(1));
+    assertEquals(3, table.end(1));
+
+    assertEquals(SlipModel.GEO, table.model(1));
+    assertEquals(RateType.SLIP, table.type(1));
+    assertTrue(Double.isNaN(table.rate(1)));
+    assertTrue(Double.isNaN(table.rake(1)));
+
+    RateModel rateModel = table.rateModels(1).get(0);
+    assertEquals("A_PRIORI", rateModel.id());
+    assertEquals(RateType.PROBABILITY_OF_ACTIVITY, rateModel.type());
+    assertEquals(0.5, rateModel.value(), 0.0);
+    assertEquals(45.0, rateModel.rake(), 0.0);
+    assertEquals(table.get(2), rateModel);
+  }
+
+  @Test
+  public void repeatGroup() {
+    SlipRateTable table = SlipRateTable.builder()
+        .add(SlipModel.BIRD, RateType.DISPLACEMENT, 1.5, -90.0)
+        .endGroup()
+        .add(SlipModel.ZENG, RateType.DISPLACEMENT, 2.5, 90.0)
+        .endGroup()
+        .repeatGroup(0)
+        .build();
+
+    assertEquals(2, table.size());
+    assertEquals(3, table.groups());
+    assertEquals(2, table.distinctGroups());
+    assertEquals(table.start(0), table.start(2));
+    assertEquals(table.end(0), table.end(2));
+
+    /* Groups that share rows share their list and views */
+    assertSame(table.rateModels(0), table.rateModels(2));
+    assertNotSame(table.rateModels(0), table.rateModels(1));
+    assertSame(table.rateModels(0).get(0), table.rateModels(0).get(0));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void repeatGroupNotEmpty() {
+    SlipRateTable.builder()
+        .add(SlipModel.BIRD, RateType.DISPLACEMENT, 1.5, -90.0)
+        .endGroup()
+        .add(SlipModel.GEO, RateType.DISPLACEMENT, 1.5, -90.0)
+        .repeatGroup(0);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void repeatGroupUnknown() {
+    SlipRateTable.builder().repeatGroup(0);
+  }
+
+  /* Trees equal to an earlier tree, including unset values, share its rows */
+  @Test
+  public void endSharedGroup() {
+    SlipRateTable table = SlipRateTable.builder()
+        .add(SlipModel.BIRD, RateType.DISPLACEMENT, 1.5, Double.NaN)
+        .endSharedGroup()
+        .add(SlipModel.BIRD, RateType.DISPLACEMENT, 2.5, Double.NaN)
+        .endSharedGroup()
+        .add(SlipModel.BIRD, RateType.DISPLACEMENT, 1.5, Double.NaN)
+        .endSharedGroup()
+        .add(SlipModel.BIRD, RateType.SLIP, 1.5, Double.NaN)
+        .endSharedGroup()
+        .endSharedGroup()
+        .endSharedGroup()
+        .build();
+
+    assertEquals(6, table.groups());
+    assertEquals(4, table.distinctGroups());
+    assertEquals(3, table.size());
+    assertSame(table.rateModels(0), table.rateModels(2));
+    assertSame(table.rateModels(4), table.rateModels(5));
+    assertTrue(table.rateModels(4).isEmpty());
+    assertEquals(RateType.SLIP, table.rateModels(3).get(0).type());
+  }
+
+  /* Copying a tree of another builder, e.g. of a loader thread */
+  @Test
+  public void addGroupOfBuilder() {
+    SlipRateTable.Builder rows = SlipRateTable.builder()
+        .add(SlipModel.BIRD, RateType.DISPLACEMENT, 1.5, -90.0)
+        .endGroup()
+        .add(SlipModel.GEO, RateType.DISPLACEMENT, 2.5, 90.0)
+        .add(SlipModel.ZENG, RateType.DISPLACEMENT, 3.5, 90.0)
+        .endGroup();
+
+    SlipRateTable table = SlipRateTable.builder()
+        .add(rows, 1)
+        .endSharedGroup()
+        .add(rows, 0)
+        .endSharedGroup()
+        .add(rows, 1)
+        .endSharedGroup()
+        .build();
+    SlipRateTable expected = rows.build();
+
+    assertEquals(3, table.size());
+    assertEquals(expected.rateModels(1), table.rateModels(0));
+    assertEquals(expected.rateModels(0), table.rateModels(1));
+    assertSame(table.rateModels(0), table.rateModels(2));
+  }
+
+  @Test
+  public void pack() {
+    List<RateModel> rateModels = RateModel.builder().bird(1.5, -90.0).geo(null, 90.0).build();
+    assertSame(rateModels, SlipRateTable.pack(rateModels));
+
+    List<RateModel> copy = new ArrayList<>(rateModels);
+    List<RateModel> packed = SlipRateTable.pack(copy);
+    assertNotSame(copy, packed);
+    assertEquals(rateModels, packed);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void buildOnce() {
+    SlipRateTable.Builder builder = SlipRateTable.builder();
+    builder.build();
+    builder.build();
+  }
+
+}
@@ -0,0 +1,153 @@
+package gov.usgs.earthquake.nshmp.postgres;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.base.Splitter;
+import com.google.common.io.Resources;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ByteOrderValues;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.geo.LocationList;
+
+@SuppressWarnings("javadoc")
+public class WkbReaderTest {
+
+  private static final String FIXTURE = "hazfaults_2014.tsv";
+
+  /* Locations may be stored in radians */
+  private static final double TOLERANCE = 1e-9;
+
+  private final WKTReader wkt = new WKTReader();
+
+  /* Every fixture trace, as selected by ST_AsBinary */
+  @Test
+  public void fixtureTraces() throws IOException, ParseException {
+    List<String> lines = Resources.readLines(
+        Resources.getResource(WkbReaderTest.class, FIXTURE), UTF_8);
+    Splitter tab = Splitter.on('\t');
+    int traceIndex = -1;
+    int traces = 0;
+
+    for (String line : lines) {
+      if (line.startsWith("#") || line.isEmpty()) continue;
+
+      List<String> values = tab.splitToList(line);
+      if (traceIndex < 0) {
+        traceIndex = values.indexOf(Util.Keys.FAULT_TRACE);
+        continue;
+      }
+
+      assertRead(values.get(traceIndex), 2, ByteOrderValues.BIG_ENDIAN, false);
+      traces++;
+    }
+
+    assertEquals(400, traces);
+  }
+
+  @Test
+  public void byteOrders() throws ParseException {
+    String line = "LINESTRING (-117.25 34.5, -117.0 34.75, -116.125 35.0)";
+    assertRead(line, 2, ByteOrderValues.BIG_ENDIAN, false);
+    assertRead(line, 2, ByteOrderValues.LITTLE_ENDIAN, false);
+  }
+
+  /* Z ordinates are skipped, as are PostGIS SRIDs */
+  @Test
+  public void extendedWkb() throws ParseException {
+    String line = "LINESTRING (-117.25 34.5 1.5, -117.0 34.75 2.5, -116.125 35.0 3.5)";
+    assertRead(line, 3, ByteOrderValues.LITTLE_ENDIAN, false);
+    assertRead(line, 3, ByteOrderValues.BIG_ENDIAN, true);
+    assertRead(line, 2, ByteOrderValues.LITTLE_ENDIAN, true);
+  }
+
+  @Test
+  public void isoZ() throws ParseException {
+    /* LINESTRING Z (-117 34 5, -116 35 6), little endian, ISO type 1002 */
+    byte[] wkb = new byte[1 + 4 + 4 + 2 * 3 * 8];
+    ByteBuffer buffer = ByteBuffer.wrap(wkb).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.put((byte) 1).putInt(1002).putInt(2);
+    buffer.putDouble(-117.0).putDouble(34.0).putDouble(5.0);
+    buffer.putDouble(-116.0).putDouble(35.0).putDouble(6.0);
+
+    LocationList locs = WkbReader.read(wkb);
+    assertEquals(2, locs.size());
+    assertLocation(34.0, -117.0, locs.get(0));
+    assertLocation(35.0, -116.0, locs.get(1));
+  }
+
+  @Test
+  public void collections() throws ParseException {
+    assertRead("POINT (-117.25 34.5)", 2, ByteOrderValues.BIG_ENDIAN, false);
+    assertRead("MULTILINESTRING ((-117.25 34.5, -117.0 34.75), (-116.5 35.25, -116.125 35.5))",
+        2, ByteOrderValues.LITTLE_ENDIAN, false);
+    assertRead("POLYGON ((-117 34, -116 34, -116 35, -117 34), (-116.8 34.2, -116.5 34.2, " +
+        "-116.5 34.5, -116.8 34.2))", 2, ByteOrderValues.BIG_ENDIAN, false);
+    assertRead("GEOMETRYCOLLECTION (POINT (-117 34), LINESTRING (-116 35, -115 36))",
+        2, ByteOrderValues.LITTLE_ENDIAN, false);
+  }
+
+  @Test(expected = ParseException.class)
+  public void truncated() throws ParseException {
+    byte[] wkb = wkb("LINESTRING (-117.25 34.5, -117.0 34.75)", 2,
+        ByteOrderValues.BIG_ENDIAN, false);
+    WkbReader.read(Arrays.copyOf(wkb, wkb.length - 1));
+  }
+
+  @Test(expected = ParseException.class)
+  public void trailingBytes() throws ParseException {
+    byte[] wkb = wkb("POINT (-117.25 34.5)", 2, ByteOrderValues.BIG_ENDIAN, false);
+    WkbReader.read(Arrays.copyOf(wkb, wkb.length + 1));
+  }
+
+  @Test(expected = ParseException.class)
+  public void unsupportedType() throws ParseException {
+    WkbReader.read(new byte[] { 0, 0, 0, 0, 99 });
+  }
+
+  @Test(expected = ParseException.class)
+  public void missing() throws ParseException {
+    WkbReader.read(null);
+  }
+
+  /* Decode the WKB of a WKT geometry and compare with its JTS coordinates */
+  private void assertRead(String text, int dimension, int byteOrder, boolean srid)
+      throws ParseException {
+
+    Coordinate[] coords = wkt.read(text).getCoordinates();
+    LocationList locs = WkbReader.read(wkb(text, dimension, byteOrder, srid));
+
+    assertEquals(text, coords.length, locs.size());
+    for (int i = 0; i < coords.length; i++) {
+      assertLocation(coords[i].y, coords[i].x, locs.get(i));
+    }
+  }
+
+  private byte[] wkb(String text, int dimension, int byteOrder, boolean srid)
+      throws ParseException {
+
+    Geometry geometry = wkt.read(text);
+    geometry.setSRID(4326);
+    return new WKBWriter(dimension, byteOrder, srid).write(geometry);
+  }
+
+  private static void assertLocation(double lat, double lon, Location loc) {
+    assertEquals(lat, loc.lat(), TOLERANCE);
+    assertEquals(lon, loc.lon(), TOLERANCE);
+    assertEquals(0.0, loc.depth(), TOLERANCE);
+  }
+
+}